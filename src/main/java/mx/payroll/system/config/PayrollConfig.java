@@ -1,6 +1,8 @@
 package mx.payroll.system.config;
 
+import mx.payroll.system.engine.CalculationTrace;
 import mx.payroll.system.engine.PayrollEngine;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
@@ -8,6 +10,11 @@ import org.springframework.context.annotation.Profile;
 @Configuration
 public class PayrollConfig {
 
+    // Muestreo de la traza de cálculo por empleado (logger payroll.trace): 1 de cada N empleados
+    public PayrollConfig(@Value("${payroll.logging.trace-sample-rate:1000}") int traceSampleRate) {
+        CalculationTrace.setSampleRate(traceSampleRate);
+    }
+
     @Bean
     @Profile("!test") // Only active when 'test' profile is NOT active
     public PayrollEngine payrollEngine() { // No TaxService here
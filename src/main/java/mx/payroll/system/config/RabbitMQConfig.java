@@ -1,6 +1,7 @@
 package mx.payroll.system.config;
 
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.context.annotation.Bean;
@@ -10,6 +11,10 @@ import org.springframework.context.annotation.Configuration;
 public class RabbitMQConfig {
 
     public static final String PAYROLL_QUEUE = "payroll_queue";
+    // Lotes que fallaron esperan aquí su backoff (TTL por mensaje) y vuelven a payroll_queue al expirar
+    public static final String RETRY_QUEUE = "payroll_queue.retry";
+    // Empleados en cuarentena (PayrollDeadLetter), para revisión de operación
+    public static final String DEAD_LETTER_QUEUE = "payroll_queue.dlq";
 
     @Bean
     public Queue payrollQueue() {
@@ -19,6 +24,22 @@ public class RabbitMQConfig {
         return new Queue(PAYROLL_QUEUE, true, false, false);
     }
 
+    @Bean
+    public Queue payrollRetryQueue() {
+        // Sin consumidores: al vencer la expiración de cada mensaje, RabbitMQ lo reenvía
+        // por el exchange por defecto a payroll_queue. La expiración solo se revisa al frente de
+        // la cola, así que un mensaje con backoff corto puede esperar a uno más largo que está antes
+        return QueueBuilder.durable(RETRY_QUEUE)
+                .deadLetterExchange("")
+                .deadLetterRoutingKey(PAYROLL_QUEUE)
+                .build();
+    }
+
+    @Bean
+    public Queue payrollDeadLetterQueue() {
+        return new Queue(DEAD_LETTER_QUEUE, true, false, false);
+    }
+
     @Bean
     public MessageConverter jsonMessageConverter() {
         return new Jackson2JsonMessageConverter();
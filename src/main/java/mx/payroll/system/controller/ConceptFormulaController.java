@@ -0,0 +1,48 @@
+package mx.payroll.system.controller;
+
+import mx.payroll.system.domain.model.ConceptFormula;
+import mx.payroll.system.dto.ConceptFormulaRequestDTO;
+import mx.payroll.system.service.ConceptFormulaService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/concepts/formulas")
+public class ConceptFormulaController {
+
+    private final ConceptFormulaService conceptFormulaService;
+
+    public ConceptFormulaController(ConceptFormulaService conceptFormulaService) {
+        this.conceptFormulaService = conceptFormulaService;
+    }
+
+    /**
+     * GET /api/concepts/formulas?date={date}
+     * Lista las fórmulas vigentes (hoy si no se indica fecha)
+     */
+    @GetMapping
+    public ResponseEntity<List<ConceptFormula>> getActiveFormulas(@RequestParam(required = false) LocalDate date) {
+        return ResponseEntity.ok(conceptFormulaService.getActiveFormulas(date != null ? date : LocalDate.now()));
+    }
+
+    /**
+     * POST /api/concepts/formulas
+     * Crea o actualiza la fórmula de un concepto (400 si tiene ciclos o variables sin origen)
+     */
+    @PostMapping
+    public ResponseEntity<ConceptFormula> saveFormula(@RequestBody ConceptFormulaRequestDTO request) {
+        return ResponseEntity.ok(conceptFormulaService.saveFormula(request));
+    }
+
+    /**
+     * GET /api/concepts/formulas/plan?date={date}
+     * Muestra el plan de ejecución: niveles de conceptos que pueden calcularse juntos
+     */
+    @GetMapping("/plan")
+    public ResponseEntity<List<List<String>>> getExecutionPlan(@RequestParam(required = false) LocalDate date) {
+        return ResponseEntity.ok(conceptFormulaService.getExecutionPlan(date != null ? date : LocalDate.now()).getLevelCodes());
+    }
+}
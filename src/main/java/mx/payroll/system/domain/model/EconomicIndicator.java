@@ -7,6 +7,7 @@ import java.util.Objects;
 
 @Entity
 @Table(name = "economic_indicators")
+@EntityListeners(EconomicIndicatorChangeListener.class)
 public class EconomicIndicator {
 
     @Id
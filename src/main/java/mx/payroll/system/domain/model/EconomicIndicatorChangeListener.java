@@ -0,0 +1,27 @@
+package mx.payroll.system.domain.model;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cuenta los cambios a economic_indicators hechos por JPA. Los cachés de indicadores comparan
+ * este contador para saber si su copia sigue vigente, sin consultar la base.
+ */
+public class EconomicIndicatorChangeListener {
+
+    private static final AtomicLong CHANGES = new AtomicLong();
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    void onChange(EconomicIndicator indicator) {
+        CHANGES.incrementAndGet();
+    }
+
+    public static long changeCount() {
+        return CHANGES.get();
+    }
+}
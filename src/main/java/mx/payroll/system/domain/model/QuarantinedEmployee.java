@@ -0,0 +1,107 @@
+package mx.payroll.system.domain.model;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Empleado que no se pudo calcular o guardar en un periodo después de los reintentos y de partir
+ * su lote (ver FailedChunkHandler). El monitor los muestra; se borra cuando el empleado se guarda.
+ */
+@Entity
+@Table(name = "payroll_quarantine", uniqueConstraints = @UniqueConstraint(
+        name = "idx_quarantine_employee_period", columnNames = {"employee_id", "period_id"}))
+public class QuarantinedEmployee {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "period_id", nullable = false, length = 100)
+    private String periodId; // period_identifier, como en payroll_results
+
+    @Column(name = "employee_id", nullable = false)
+    private Integer employeeId;
+
+    @Column(name = "error_message", columnDefinition = "TEXT")
+    private String errorMessage;
+
+    @Column(name = "quarantined_at", nullable = false)
+    private LocalDateTime quarantinedAt;
+
+    public QuarantinedEmployee() {
+    }
+
+    public QuarantinedEmployee(String periodId, Integer employeeId, String errorMessage) {
+        this.periodId = periodId;
+        this.employeeId = employeeId;
+        this.errorMessage = errorMessage;
+        this.quarantinedAt = LocalDateTime.now();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getPeriodId() {
+        return periodId;
+    }
+
+    public void setPeriodId(String periodId) {
+        this.periodId = periodId;
+    }
+
+    public Integer getEmployeeId() {
+        return employeeId;
+    }
+
+    public void setEmployeeId(Integer employeeId) {
+        this.employeeId = employeeId;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public LocalDateTime getQuarantinedAt() {
+        return quarantinedAt;
+    }
+
+    public void setQuarantinedAt(LocalDateTime quarantinedAt) {
+        this.quarantinedAt = quarantinedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QuarantinedEmployee that = (QuarantinedEmployee) o;
+        return Objects.equals(id, that.id) &&
+               Objects.equals(periodId, that.periodId) &&
+               Objects.equals(employeeId, that.employeeId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, periodId, employeeId);
+    }
+
+    @Override
+    public String toString() {
+        return "QuarantinedEmployee{" +
+                "id=" + id +
+                ", periodId='" + periodId + '\'' +
+                ", employeeId=" + employeeId +
+                ", errorMessage='" + errorMessage + '\'' +
+                ", quarantinedAt=" + quarantinedAt +
+                '}';
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Objects;
 
 @Entity
 @Table(name = "tax_tables")
+@EntityListeners(TaxTableChangeListener.class)
 public class TaxTable {
 
     @Id
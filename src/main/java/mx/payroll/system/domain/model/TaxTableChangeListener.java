@@ -0,0 +1,27 @@
+package mx.payroll.system.domain.model;
+
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cuenta los cambios a tax_tables hechos por JPA, para que el índice de tramos de TaxService
+ * sepa cuándo recargarse sin consultar la base.
+ */
+public class TaxTableChangeListener {
+
+    private static final AtomicLong CHANGES = new AtomicLong();
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    void onChange(TaxTable taxTable) {
+        CHANGES.incrementAndGet();
+    }
+
+    public static long changeCount() {
+        return CHANGES.get();
+    }
+}
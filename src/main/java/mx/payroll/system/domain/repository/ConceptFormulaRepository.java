@@ -17,6 +17,9 @@ public interface ConceptFormulaRepository extends JpaRepository<ConceptFormula,
     List<ConceptFormula> findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(
             LocalDate date1, LocalDate date2);
 
+    // Find the formula of a concept (concept_code is unique)
+    Optional<ConceptFormula> findByConceptCode(String conceptCode);
+
     // Find a formula by concept code and a specific effective date
     Optional<ConceptFormula> findByConceptCodeAndEffectiveDate(String conceptCode, LocalDate effectiveDate);
 
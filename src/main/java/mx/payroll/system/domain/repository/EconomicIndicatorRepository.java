@@ -32,4 +32,7 @@ public interface EconomicIndicatorRepository extends JpaRepository<EconomicIndic
            "  WHERE e2.code = e.code AND e2.effectiveDate <= :date" +
            ")")
     List<EconomicIndicator> findAllEffectiveIndicators(@Param("date") LocalDate date);
+
+    @Query("SELECT DISTINCT e.code FROM EconomicIndicator e")
+    List<String> findAllCodes();
 }
@@ -7,6 +7,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -26,4 +27,12 @@ public interface EmployeeConceptValueRepository extends JpaRepository<EmployeeCo
     List<EmployeeConceptValue> findActiveByEmployeeAndDate(
             @Param("employeeId") Integer employeeId,
             @Param("date") LocalDate date);
+
+    // Active values of several employees in one query (a whole worker chunk), in insertion order per employee
+    @Query("SELECT ecv FROM EmployeeConceptValue ecv WHERE ecv.employeeId IN :employeeIds " +
+           "AND ecv.effectiveDate <= :date AND (ecv.endDate IS NULL OR ecv.endDate >= :date) " +
+           "ORDER BY ecv.employeeId, ecv.id")
+    List<EmployeeConceptValue> findActiveByEmployeeIdsAndDate(
+            @Param("employeeIds") Collection<Integer> employeeIds,
+            @Param("date") LocalDate date);
 }
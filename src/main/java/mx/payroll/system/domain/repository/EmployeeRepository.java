@@ -1,21 +1,51 @@
 package mx.payroll.system.domain.repository;
 
+import jakarta.persistence.QueryHint;
 import mx.payroll.system.domain.model.Employee;
-import org.springframework.data.domain.Page;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface EmployeeRepository extends JpaRepository<Employee, Integer> {
 
-    @Query("SELECT e FROM Employee e WHERE e.active = true")
-    Page<Employee> findAllActive(Pageable pageable);
+    /**
+     * Una página de empleados activos para un worker. Es un Slice: no ejecuta el COUNT de un Page.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT e FROM Employee e WHERE e.active = true ORDER BY e.id")
+    Slice<Employee> findAllActive(Pageable pageable);
+
+    /**
+     * Ids de los empleados activos en orden, en una sola pasada (para calcular los rangos de los lotes).
+     * El Stream debe cerrarse y consumirse dentro de una transacción.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT e.id FROM Employee e WHERE e.active = true ORDER BY e.id")
+    Stream<Integer> streamActiveIds();
+
+    /**
+     * Empleados activos de un lote por rango de ids (keyset): costo constante sin importar la posición del lote.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT e FROM Employee e WHERE e.active = true AND e.id BETWEEN :minId AND :maxId ORDER BY e.id")
+    List<Employee> findActiveByIdRange(@Param("minId") Integer minId, @Param("maxId") Integer maxId);
 
     @Query("SELECT COUNT(e) FROM Employee e WHERE e.active = true")
     long countActiveEmployees();
@@ -0,0 +1,32 @@
+package mx.payroll.system.domain.repository;
+
+import mx.payroll.system.domain.model.QuarantinedEmployee;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface QuarantinedEmployeeRepository extends JpaRepository<QuarantinedEmployee, Long> {
+
+    Optional<QuarantinedEmployee> findByPeriodIdAndEmployeeId(String periodId, Integer employeeId);
+
+    List<QuarantinedEmployee> findByPeriodIdOrderByEmployeeId(String periodId);
+
+    int countByPeriodId(String periodId);
+
+    /**
+     * Saca de cuarentena a los empleados que ya se guardaron (un solo DELETE, sin cargar las entidades)
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM QuarantinedEmployee q WHERE q.periodId = :periodId AND q.employeeId IN :employeeIds")
+    int deleteByPeriodIdAndEmployeeIdIn(@Param("periodId") String periodId,
+                                        @Param("employeeIds") Collection<Integer> employeeIds);
+}
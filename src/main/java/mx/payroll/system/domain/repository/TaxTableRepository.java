@@ -7,6 +7,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -20,4 +21,7 @@ public interface TaxTableRepository extends JpaRepository<TaxTable, Long> {
         LIMIT 1
     """, nativeQuery = true)
     Optional<TaxTable> findApplicableBracket(@Param("year") int year, @Param("type") String type, @Param("base") BigDecimal base);
+
+    // Tabla completa de un año y tipo, para el índice en memoria de TaxService
+    List<TaxTable> findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(Integer fiscalYear, String tableType);
 }
@@ -0,0 +1,73 @@
+package mx.payroll.system.dto;
+
+import java.time.LocalDate;
+
+public class ConceptFormulaRequestDTO {
+    private String conceptCode;
+    private String formulaExpression;
+    private String description;
+    private LocalDate effectiveDate;
+    private LocalDate endDate;
+    private int order;
+
+    public ConceptFormulaRequestDTO() {
+    }
+
+    public ConceptFormulaRequestDTO(String conceptCode, String formulaExpression, String description,
+                                    LocalDate effectiveDate, LocalDate endDate, int order) {
+        this.conceptCode = conceptCode;
+        this.formulaExpression = formulaExpression;
+        this.description = description;
+        this.effectiveDate = effectiveDate;
+        this.endDate = endDate;
+        this.order = order;
+    }
+
+    public String getConceptCode() {
+        return conceptCode;
+    }
+
+    public void setConceptCode(String conceptCode) {
+        this.conceptCode = conceptCode;
+    }
+
+    public String getFormulaExpression() {
+        return formulaExpression;
+    }
+
+    public void setFormulaExpression(String formulaExpression) {
+        this.formulaExpression = formulaExpression;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public LocalDate getEffectiveDate() {
+        return effectiveDate;
+    }
+
+    public void setEffectiveDate(LocalDate effectiveDate) {
+        this.effectiveDate = effectiveDate;
+    }
+
+    public LocalDate getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(LocalDate endDate) {
+        this.endDate = endDate;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public void setOrder(int order) {
+        this.order = order;
+    }
+}
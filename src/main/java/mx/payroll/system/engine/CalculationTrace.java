@@ -0,0 +1,98 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.Employee;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Step-by-step trace of an employee's calculation (ISR brackets, IMSS, context values),
+ * written to its own logger, {@value #LOGGER_NAME}, so it can be routed to a separate sink.
+ *
+ * Tracing is sampled per run: one employee in {@link #setSampleRate(int)} is traced, and only
+ * while that logger has DEBUG enabled. The decision is taken once per employee in
+ * {@link #begin(Employee)}; every trace call of an untraced employee costs a ThreadLocal read
+ * and allocates nothing. Messages use SLF4J placeholders, never concatenation.
+ */
+public final class CalculationTrace {
+
+    public static final String LOGGER_NAME = "payroll.trace";
+
+    private static final Logger TRACE = LoggerFactory.getLogger(LOGGER_NAME);
+    private static final ThreadLocal<Employee> CURRENT = new ThreadLocal<>();
+
+    private static volatile int sampleRate = 1;
+
+    private CalculationTrace() {
+    }
+
+    /**
+     * Traces one employee in {@code rate} (by id); 1 traces every employee.
+     */
+    public static void setSampleRate(int rate) {
+        sampleRate = Math.max(1, rate);
+    }
+
+    public static int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Starts the calculation of an employee on this thread. Must be paired with {@link #end()}.
+     *
+     * @return true if this employee is traced
+     */
+    public static boolean begin(Employee employee) {
+        if (TRACE.isDebugEnabled() && isSampled(employee)) {
+            CURRENT.set(employee);
+            return true;
+        }
+        CURRENT.remove();
+        return false;
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * True while the current thread calculates a traced employee. Check it before building
+     * arguments that cost something (e.g. a map of variables).
+     */
+    public static boolean isEnabled() {
+        return CURRENT.get() != null;
+    }
+
+    public static void trace(String message) {
+        if (isEnabled()) {
+            TRACE.debug(message);
+        }
+    }
+
+    public static void trace(String format, Object argument) {
+        if (isEnabled()) {
+            TRACE.debug(format, argument);
+        }
+    }
+
+    public static void trace(String format, Object first, Object second) {
+        if (isEnabled()) {
+            TRACE.debug(format, first, second);
+        }
+    }
+
+    // Varargs allocate: called only after the caller checked isEnabled()
+    public static void trace(String format, Object... arguments) {
+        if (isEnabled()) {
+            TRACE.debug(format, arguments);
+        }
+    }
+
+    static boolean isSampled(Employee employee) {
+        int rate = sampleRate;
+        if (rate == 1) {
+            return true;
+        }
+        Integer id = employee != null ? employee.getId() : null;
+        return id != null && Math.floorMod(id, rate) == 0;
+    }
+}
@@ -0,0 +1,256 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.engine.FormulaEngine.CompilationState;
+import mx.payroll.system.engine.formula.NativeFormula;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.FunctionReference;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.VariableReference;
+import org.springframework.expression.spel.standard.SpelExpression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A parsed formula together with the metadata extracted from its AST at parse time:
+ * the #variables it reads, the #functions it calls and whether it is pure.
+ *
+ * A formula is pure when its result depends only on its inputs. Calls that read the
+ * database (calcularISR, #impuestos) or the period (diasVacaciones) make it impure.
+ *
+ * Instances are cached by FormulaEngine and are safe to share between threads.
+ */
+public final class CompiledFormula {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledFormula.class);
+
+    // MIXED mode keeps the interpreter for this many evaluations before compiling
+    private static final int MIXED_MODE_THRESHOLD = 100;
+
+    // SpEL built-ins that are not payroll variables
+    private static final Set<String> BUILT_IN_VARIABLES = Set.of("this", "root");
+
+    private final String source;
+    private final SpelExpression expression;
+    private final SpelCompilerMode mode;
+    private final NativeFormula nativeFormula;
+    private final List<String> variables;
+    private final String[] conceptCodes;
+    private final Set<String> functions;
+    private final Set<String> methods;
+    private final boolean pure;
+    private final int hoistedOperations;
+    private final Set<String> hoistedVariables;
+    private final AtomicInteger interpretedRuns = new AtomicInteger();
+    private volatile CompilationState state;
+
+    CompiledFormula(SpelExpression expression, SpelCompilerMode mode, NativeFormula nativeFormula,
+                    Set<String> pureFunctions) {
+        this.source = expression.getExpressionString();
+        this.expression = expression;
+        this.mode = mode;
+        this.nativeFormula = nativeFormula;
+
+        Set<String> variableNames = new LinkedHashSet<>();
+        Set<String> functionNames = new LinkedHashSet<>();
+        Set<String> methodNames = new LinkedHashSet<>();
+        collect(expression.getAST(), variableNames, functionNames, methodNames);
+
+        List<String> codes = new ArrayList<>();
+        for (String name : variableNames) {
+            if (!FormulaEvaluationContext.HIRE_DATE_VARIABLE.equals(name)
+                    && FormulaEvaluationContext.isConceptCode(name)) {
+                codes.add(name);
+            }
+        }
+
+        this.variables = List.copyOf(variableNames);
+        this.conceptCodes = codes.toArray(new String[0]);
+        this.functions = Collections.unmodifiableSet(functionNames);
+        this.methods = Collections.unmodifiableSet(methodNames);
+        this.pure = pureFunctions.containsAll(functionNames)
+                && !variableNames.contains(FormulaEvaluationContext.TAX_SERVICE_VARIABLE);
+        this.hoistedOperations = 0;
+        this.hoistedVariables = Set.of();
+
+        if (nativeFormula != null) {
+            this.state = CompilationState.NATIVE;
+        } else {
+            this.state = mode == SpelCompilerMode.OFF ? CompilationState.INTERPRETED : CompilationState.PENDING;
+        }
+    }
+
+    // Same formula with its native form specialized for one period (see FormulaEngine.specialize)
+    private CompiledFormula(CompiledFormula base, NativeFormula specialized, int hoistedOperations,
+                            Set<String> hoistedVariables) {
+        this.source = base.source;
+        this.expression = base.expression;
+        this.mode = base.mode;
+        this.nativeFormula = specialized;
+        this.variables = base.variables;
+        this.conceptCodes = base.conceptCodes;
+        this.functions = base.functions;
+        this.methods = base.methods;
+        this.pure = base.pure;
+        this.hoistedOperations = hoistedOperations;
+        this.hoistedVariables = hoistedVariables;
+        this.state = CompilationState.NATIVE;
+    }
+
+    CompiledFormula specialize(NativeFormula specialized, int hoistedOperations, Set<String> hoistedVariables) {
+        return new CompiledFormula(this, specialized, hoistedOperations, hoistedVariables);
+    }
+
+    NativeFormula getNativeFormula() {
+        return nativeFormula;
+    }
+
+    // The SpEL tree, for static analysis (see FormulaValidator)
+    SpelNode getAst() {
+        return expression.getAST();
+    }
+
+    private static void collect(SpelNode node, Set<String> variables, Set<String> functions, Set<String> methods) {
+        if (node instanceof FunctionReference) {
+            // toStringAST() renders "#name(args)"
+            String ast = node.toStringAST();
+            functions.add(ast.substring(1, ast.indexOf('(')));
+        } else if (node instanceof VariableReference) {
+            String name = node.toStringAST().substring(1);
+            if (!BUILT_IN_VARIABLES.contains(name)) {
+                variables.add(name);
+            }
+        } else if (node instanceof MethodReference method) {
+            methods.add(method.getName());
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collect(node.getChild(i), variables, functions, methods);
+        }
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * Every #variable the formula reads, in order of first appearance (functions excluded).
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * The concept codes and indicators the formula reads (upper-case variables except HIRE_DATE).
+     * These are the values that resolve to ZERO when missing from the PayrollContext.
+     */
+    public List<String> getConceptCodes() {
+        return List.of(conceptCodes);
+    }
+
+    public Set<String> getFunctions() {
+        return functions;
+    }
+
+    /**
+     * Instance methods invoked on values, e.g. min/max in (#P001 * 0.10).min(#UMA * 30).
+     */
+    public Set<String> getMethods() {
+        return methods;
+    }
+
+    public boolean isPure() {
+        return pure;
+    }
+
+    /**
+     * Operations evaluated once per period instead of once per employee (0 unless specialized).
+     */
+    public int getHoistedOperations() {
+        return hoistedOperations;
+    }
+
+    /**
+     * Period-level variables replaced by their values when the formula was specialized.
+     */
+    public Set<String> getHoistedVariables() {
+        return hoistedVariables;
+    }
+
+    public CompilationState getState() {
+        return state;
+    }
+
+    /**
+     * Concept codes referenced by the formula but absent from the context.
+     * Returns an empty list without allocating when everything is present.
+     */
+    List<String> findMissing(PayrollContext payrollContext) {
+        List<String> missing = null;
+        for (String code : conceptCodes) {
+            if (!payrollContext.hasValue(code)) {
+                if (missing == null) {
+                    missing = new ArrayList<>(conceptCodes.length);
+                }
+                missing.add(code);
+            }
+        }
+        return missing != null ? missing : List.of();
+    }
+
+    /**
+     * Evaluates the formula. The SpEL compilation state only moves forward:
+     * PENDING -> COMPILED -> INTERPRETED, or PENDING -> INTERPRETED.
+     */
+    Object getValue(FormulaEvaluationContext context) {
+        if (nativeFormula != null) {
+            return nativeFormula.evaluate(context);
+        }
+        if (state == CompilationState.COMPILED) {
+            try {
+                return expression.getValue(context);
+            } catch (RuntimeException e) {
+                // Per-formula fallback: a compiled formula that fails goes back to the interpreter
+                expression.revertToInterpreted();
+                state = CompilationState.INTERPRETED;
+                log.warn("Compiled formula failed, reverting to interpreter: {} ({})", source, e.getMessage());
+            }
+        }
+        Object value = expression.getValue(context);
+        if (state == CompilationState.PENDING) {
+            tryCompile();
+        }
+        return value;
+    }
+
+    // Compilation needs the type information gathered by at least one interpreted run
+    private synchronized void tryCompile() {
+        if (state != CompilationState.PENDING) {
+            return;
+        }
+        int threshold = mode == SpelCompilerMode.MIXED ? MIXED_MODE_THRESHOLD : 1;
+        if (interpretedRuns.incrementAndGet() < threshold) {
+            return;
+        }
+        boolean compiled;
+        try {
+            compiled = expression.compileExpression();
+        } catch (RuntimeException e) {
+            compiled = false;
+        }
+        state = compiled ? CompilationState.COMPILED : CompilationState.INTERPRETED;
+        log.debug("SpEL {}: {}", compiled ? "compiled" : "interpreted", source);
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledFormula{" + source + ", variables=" + variables + ", functions=" + functions
+                + ", pure=" + pure + ", hoisted=" + hoistedOperations + ", state=" + state + "}";
+    }
+}
@@ -0,0 +1,84 @@
+package mx.payroll.system.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classification of concept codes by Concept.type (EARNING, DEDUCTION or any other type in
+ * the catalog). PayrollContext keeps one running total per type, indexed by
+ * {@link #typeIndexOf(String)}, so TOTAL_EARNINGS and the result totals are read, not rescanned.
+ *
+ * {@link #byPrefix()} is the classification used when no catalog is loaded (tests, ad-hoc
+ * plans): codes starting with P are earnings and codes starting with D are deductions.
+ *
+ * Immutable and safe to share between threads.
+ */
+public final class ConceptCatalog {
+
+    public static final String EARNING = "EARNING";
+    public static final String DEDUCTION = "DEDUCTION";
+
+    static final int EARNING_INDEX = 0;
+    static final int DEDUCTION_INDEX = 1;
+
+    private static final ConceptCatalog BY_PREFIX = new ConceptCatalog(null, List.of(EARNING, DEDUCTION));
+
+    private final Map<String, Integer> typeByCode; // null: classify by prefix
+    private final List<String> types;
+
+    private ConceptCatalog(Map<String, Integer> typeByCode, List<String> types) {
+        this.typeByCode = typeByCode;
+        this.types = types;
+    }
+
+    /**
+     * @param types concept code -> Concept.type; codes not in the map are not aggregated
+     */
+    public static ConceptCatalog of(Map<String, String> types) {
+        List<String> names = new ArrayList<>(List.of(EARNING, DEDUCTION));
+        Map<String, Integer> byCode = new HashMap<>();
+        types.forEach((code, type) -> {
+            if (type == null) {
+                return;
+            }
+            int index = names.indexOf(type);
+            if (index < 0) {
+                index = names.size();
+                names.add(type);
+            }
+            byCode.put(code, index);
+        });
+        return new ConceptCatalog(Map.copyOf(byCode), List.copyOf(names));
+    }
+
+    public static ConceptCatalog byPrefix() {
+        return BY_PREFIX;
+    }
+
+    /**
+     * Index of the code's type in {@link #getTypes()}, or -1 if it is not aggregated.
+     */
+    public int typeIndexOf(String code) {
+        if (typeByCode != null) {
+            Integer index = typeByCode.get(code);
+            return index != null ? index : -1;
+        }
+        if (code.startsWith("P")) {
+            return EARNING_INDEX;
+        }
+        return code.startsWith("D") ? DEDUCTION_INDEX : -1;
+    }
+
+    public boolean isEarning(String code) {
+        return typeIndexOf(code) == EARNING_INDEX;
+    }
+
+    /**
+     * Every type with a running total; EARNING and DEDUCTION always come first.
+     */
+    public List<String> getTypes() {
+        return types;
+    }
+}
@@ -0,0 +1,228 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.exception.FormulaEvaluationException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Directed graph of payroll rules: an edge A -> B means rule A reads the value rule B produces.
+ *
+ * Dependencies come from {@link PayrollRule#getDependencies()} (for formulas, the #VARIABLES
+ * found when the formula was parsed). TOTAL_EARNINGS is a synthetic node that depends on
+ * every earning rule. References that no rule produces are external inputs: fixed values
+ * from employee_concept_values, economic indicators, or missing producers.
+ */
+public final class ConceptDependencyGraph {
+
+    private final Map<String, PayrollRule> rules;
+    private final Map<String, Set<String>> dependencies;
+    private final Map<String, Set<String>> externalReferences;
+    private final ConceptCatalog catalog;
+
+    private ConceptDependencyGraph(Map<String, PayrollRule> rules,
+                                   Map<String, Set<String>> dependencies,
+                                   Map<String, Set<String>> externalReferences,
+                                   ConceptCatalog catalog) {
+        this.rules = rules;
+        this.dependencies = dependencies;
+        this.externalReferences = externalReferences;
+        this.catalog = catalog;
+    }
+
+    /**
+     * Builds the graph, adding the synthetic TOTAL_EARNINGS rule unless a rule already produces it.
+     *
+     * @throws FormulaEvaluationException if two rules produce the same code
+     */
+    public static ConceptDependencyGraph build(Collection<? extends PayrollRule> rulesToApply) {
+        return build(rulesToApply, ConceptCatalog.byPrefix());
+    }
+
+    /**
+     * Same as {@link #build(Collection)}, with earnings (what TOTAL_EARNINGS reads) taken from
+     * the concept catalog. The plan keeps the catalog for the contexts' running totals.
+     */
+    public static ConceptDependencyGraph build(Collection<? extends PayrollRule> rulesToApply, ConceptCatalog catalog) {
+        Map<String, PayrollRule> rules = new LinkedHashMap<>();
+        for (PayrollRule rule : rulesToApply) {
+            if (rules.putIfAbsent(rule.getCode(), rule) != null) {
+                throw new FormulaEvaluationException("Duplicate rule for concept: " + rule.getCode());
+            }
+        }
+        rules.putIfAbsent(TotalEarningsRule.CODE, new TotalEarningsRule());
+
+        Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+        Map<String, Set<String>> externalReferences = new LinkedHashMap<>();
+        for (PayrollRule rule : rules.values()) {
+            Set<String> produced = new LinkedHashSet<>();
+            Set<String> external = new LinkedHashSet<>();
+            if (rule instanceof TotalEarningsRule) {
+                for (String code : rules.keySet()) {
+                    if (catalog.isEarning(code)) {
+                        produced.add(code);
+                    }
+                }
+            } else {
+                for (String code : rule.getDependencies()) {
+                    if (rules.containsKey(code)) {
+                        produced.add(code);
+                    } else {
+                        external.add(code);
+                    }
+                }
+            }
+            dependencies.put(rule.getCode(), produced);
+            externalReferences.put(rule.getCode(), external);
+        }
+        return new ConceptDependencyGraph(rules, dependencies, externalReferences, catalog);
+    }
+
+    /**
+     * Codes produced by other rules that each rule reads (rule code -> producer codes).
+     */
+    public Map<String, Set<String>> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * Every code read by some rule but produced by none (fixed values and indicators).
+     */
+    public Set<String> getExternalInputs() {
+        Set<String> inputs = new LinkedHashSet<>();
+        externalReferences.values().forEach(inputs::addAll);
+        return inputs;
+    }
+
+    /**
+     * References without a producer: not calculated by any rule and not among the known inputs
+     * (concepts assigned to employees, economic indicators).
+     *
+     * @return rule code -> codes it reads that nothing provides; empty if all are resolved
+     */
+    public Map<String, Set<String>> findMissingProducers(Set<String> knownInputs) {
+        Map<String, Set<String>> missing = new LinkedHashMap<>();
+        externalReferences.forEach((code, references) -> {
+            Set<String> unresolved = new LinkedHashSet<>();
+            for (String reference : references) {
+                if (!knownInputs.contains(reference)) {
+                    unresolved.add(reference);
+                }
+            }
+            if (!unresolved.isEmpty()) {
+                missing.put(code, unresolved);
+            }
+        });
+        return missing;
+    }
+
+    /**
+     * Finds one dependency cycle.
+     *
+     * @return the codes on the cycle, first code repeated at the end (P002 -> D002 -> P002),
+     *         or an empty list if the graph is acyclic
+     */
+    public List<String> findCycle() {
+        Map<String, Integer> state = new HashMap<>(); // 1 = on the current path, 2 = done
+        List<String> path = new ArrayList<>();
+        for (String code : rules.keySet()) {
+            List<String> cycle = findCycle(code, state, path);
+            if (!cycle.isEmpty()) {
+                return cycle;
+            }
+        }
+        return List.of();
+    }
+
+    private List<String> findCycle(String code, Map<String, Integer> state, List<String> path) {
+        Integer current = state.get(code);
+        if (current != null) {
+            if (current == 1) {
+                List<String> cycle = new ArrayList<>(path.subList(path.indexOf(code), path.size()));
+                cycle.add(code);
+                return cycle;
+            }
+            return List.of();
+        }
+        state.put(code, 1);
+        path.add(code);
+        for (String dependency : dependencies.get(code)) {
+            List<String> cycle = findCycle(dependency, state, path);
+            if (!cycle.isEmpty()) {
+                return cycle;
+            }
+        }
+        path.remove(path.size() - 1);
+        state.put(code, 2);
+        return List.of();
+    }
+
+    /**
+     * Orders the rules into levels: a rule's level is one more than the deepest rule it reads,
+     * so rules within a level are independent of each other. Within a level, rule_order
+     * (then code) keeps the execution deterministic.
+     *
+     * @throws FormulaEvaluationException if the rules have a circular dependency
+     */
+    public ExecutionPlan toExecutionPlan() {
+        List<String> cycle = findCycle();
+        if (!cycle.isEmpty()) {
+            throw new FormulaEvaluationException("Circular dependency between concepts: " + String.join(" -> ", cycle));
+        }
+
+        Map<String, Integer> levels = new HashMap<>();
+        for (String code : rules.keySet()) {
+            levelOf(code, levels);
+        }
+
+        List<List<PayrollRule>> plan = new ArrayList<>();
+        for (PayrollRule rule : rules.values()) {
+            int level = levels.get(rule.getCode());
+            while (plan.size() <= level) {
+                plan.add(new ArrayList<>());
+            }
+            plan.get(level).add(rule);
+        }
+        Comparator<PayrollRule> byOrder = Comparator.comparingInt(PayrollRule::getOrder)
+                .thenComparing(PayrollRule::getCode);
+        plan.forEach(level -> level.sort(byOrder));
+
+        return new ExecutionPlan(plan, dependencies, catalog);
+    }
+
+    private int levelOf(String code, Map<String, Integer> levels) {
+        Integer known = levels.get(code);
+        if (known != null) {
+            return known;
+        }
+        int level = 0;
+        for (String dependency : dependencies.get(code)) {
+            level = Math.max(level, levelOf(dependency, levels) + 1);
+        }
+        levels.put(code, level);
+        return level;
+    }
+
+    /**
+     * Codes the given targets need, transitively, including the targets themselves.
+     */
+    static Set<String> closureOf(Collection<String> targets, Map<String, Set<String>> dependencies) {
+        Set<String> required = new HashSet<>();
+        List<String> pending = new ArrayList<>(targets);
+        while (!pending.isEmpty()) {
+            String code = pending.remove(pending.size() - 1);
+            if (dependencies.containsKey(code) && required.add(code)) {
+                pending.addAll(dependencies.get(code));
+            }
+        }
+        return required;
+    }
+}
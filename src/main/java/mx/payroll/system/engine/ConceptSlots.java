@@ -0,0 +1,79 @@
+package mx.payroll.system.engine;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense integer slots for concept codes, shared by every PayrollContext built from the same
+ * ExecutionPlan. A context stores its values in arrays indexed by slot, so the codes a plan
+ * reads and produces are interned once per period instead of hashed into a map per employee.
+ *
+ * Codes the plan does not know (e.g. a concept assigned to a single employee) get the next
+ * free slot the first time a context sees them. Lookups are lock-free and instances are safe
+ * to share between threads.
+ */
+public final class ConceptSlots {
+
+    private final Map<String, Integer> index = new ConcurrentHashMap<>();
+    private volatile String[] codes;
+    private volatile int size;
+
+    public ConceptSlots() {
+        this.codes = new String[16];
+    }
+
+    public static ConceptSlots of(Collection<String> codes) {
+        ConceptSlots slots = new ConceptSlots();
+        codes.forEach(slots::slotOf);
+        return slots;
+    }
+
+    /**
+     * The slot of a code, interning it if it is new.
+     */
+    public int slotOf(String code) {
+        Integer slot = index.get(code);
+        return slot != null ? slot : intern(code);
+    }
+
+    /**
+     * The slot of a code, or -1 if no context has stored it yet.
+     */
+    public int indexOf(String code) {
+        Integer slot = index.get(code);
+        return slot != null ? slot : -1;
+    }
+
+    public String codeAt(int slot) {
+        return codes[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private synchronized int intern(String code) {
+        Integer slot = index.get(code);
+        if (slot != null) {
+            return slot;
+        }
+        int next = size;
+        String[] current = codes;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, next * 2);
+        }
+        current[next] = code;
+        codes = current;
+        size = next + 1;
+        // Published last: a reader that finds the slot also sees the code and the size
+        index.put(code, next);
+        return next;
+    }
+
+    @Override
+    public String toString() {
+        return "ConceptSlots" + Arrays.toString(Arrays.copyOf(codes, size));
+    }
+}
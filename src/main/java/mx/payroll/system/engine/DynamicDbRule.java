@@ -1,9 +1,17 @@
 package mx.payroll.system.engine;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.math.BigDecimal;
-import java.util.Map; // Import Map if not already present
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class DynamicDbRule implements PayrollRule {
+
+    private static final Logger log = LoggerFactory.getLogger(DynamicDbRule.class);
+
     private final String code; // conceptCode
     private final int order;
     private final String expression; // formulaExpression
@@ -11,11 +19,49 @@ public class DynamicDbRule implements PayrollRule {
     // Assuming FormulaEngine is needed to evaluate the expression
     private final FormulaEngine formulaEngine; // Injected later or passed in constructor
 
+    // Parsed once when the rule is built; also tells the planner which codes the formula reads
+    private final CompiledFormula formula;
+
+    // Checked by FormulaValidator: missing variables are expected ZEROs, not worth a warning
+    private final boolean validated;
+
     public DynamicDbRule(String code, int order, String expression, FormulaEngine formulaEngine) {
+        this(code, order, expression, formulaEngine, null);
+    }
+
+    /**
+     * Builds a rule specialized for one period: period-level values (economic indicators)
+     * are folded into the formula once, before the per-employee loop.
+     */
+    public DynamicDbRule(String code, int order, String expression, FormulaEngine formulaEngine,
+                         Map<String, ? extends Number> periodValues) {
         this.code = code;
         this.order = order;
         this.expression = expression;
         this.formulaEngine = formulaEngine;
+        CompiledFormula compiled = formulaEngine.compile(expression);
+        this.formula = periodValues != null ? formulaEngine.specialize(compiled, periodValues) : compiled;
+        this.validated = false;
+    }
+
+    private DynamicDbRule(DynamicDbRule rule) {
+        this.code = rule.code;
+        this.order = rule.order;
+        this.expression = rule.expression;
+        this.formulaEngine = rule.formulaEngine;
+        this.formula = rule.formula;
+        this.validated = true;
+    }
+
+    /**
+     * The same rule, for a formula set that passed {@link FormulaValidator}.
+     */
+    DynamicDbRule asValidated() {
+        return validated ? this : new DynamicDbRule(this);
+    }
+
+    public boolean isValidated() {
+        return validated;
     }
 
     @Override
@@ -28,20 +74,54 @@ public class DynamicDbRule implements PayrollRule {
         return order;
     }
 
+    public String getExpression() {
+        return expression;
+    }
+
+    public CompiledFormula getFormula() {
+        return formula;
+    }
+
+    @Override
+    public Set<String> getDependencies() {
+        return new LinkedHashSet<>(formula.getConceptCodes());
+    }
+
     @Override
     public void execute(PayrollContext context) {
         // Here we evaluate the expression using the FormulaEngine and store the result
         // The context will provide the variables needed for evaluation
-        // Assuming context.getCalculatedValues() returns a Map<String, BigDecimal> suitable for SpEL
         try {
-            BigDecimal result = formulaEngine.evaluate(expression, context); // Pass the full context
+            BigDecimal result = formulaEngine.evaluateCompiled(formula, context, !validated); // Pass the full context
             context.addCalculation(code, result); // Add the result to the context
         } catch (Exception e) {
-            // DEBUG: Log which concept/formula is failing
-            System.err.println("ERROR evaluating concept " + code + " with formula: " + expression);
-            System.err.println("Employee ID: " + (context.getEmployee() != null ? context.getEmployee().getId() : "unknown"));
-            System.err.println("Available variables: " + context.getVariables().keySet());
+            reportFailure(context);
             throw e; // Re-throw to maintain original behavior
         }
     }
+
+    /**
+     * Evaluates the formula once for the whole batch (column-wise on the native backend).
+     */
+    @Override
+    public void executeBatch(PayrollBatch batch) {
+        boolean[] skipped = new boolean[batch.size()];
+        for (int row = 0; row < skipped.length; row++) {
+            skipped[row] = batch.isFailed(row);
+        }
+        BigDecimal[] results = formulaEngine.evaluateBatch(formula, batch, !validated);
+        for (int row = 0; row < results.length; row++) {
+            if (results[row] != null) {
+                batch.getContext(row).addCalculation(code, results[row]);
+            } else if (!skipped[row]) {
+                reportFailure(batch.getContext(row));
+            }
+        }
+    }
+
+    // Log which concept/formula is failing
+    private void reportFailure(PayrollContext context) {
+        log.error("Error evaluating concept {} with formula: {} (employee {}, available variables: {})", code, expression,
+                context.getEmployee() != null ? context.getEmployee().getId() : "unknown", context.getVariables().keySet());
+    }
 }
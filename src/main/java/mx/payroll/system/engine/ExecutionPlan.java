@@ -0,0 +1,203 @@
+package mx.payroll.system.engine;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Topologically ordered rules produced by {@link ConceptDependencyGraph#toExecutionPlan()}.
+ *
+ * Levels run in sequence; the rules inside a level do not read each other, so a level can
+ * be evaluated in any order, in parallel or as a batch. Plans are immutable and can be
+ * shared by every employee and thread of a period.
+ *
+ * The levels are also kept as plain arrays for the per-employee loop, together with the
+ * aggregation points: the level at which each synthetic aggregate (TOTAL_EARNINGS) is
+ * published, i.e. the boundary between the rules it adds up and the rules that read it.
+ */
+public final class ExecutionPlan {
+
+    private final List<List<PayrollRule>> levels;
+    private final PayrollRule[][] levelArray;
+    private final Map<String, Integer> aggregationPoints;
+    private final Map<String, Set<String>> dependencies;
+    private final ConceptSlots slots;
+    private final ConceptCatalog catalog;
+    private final PeriodLayer periodLayer;
+
+    ExecutionPlan(List<List<PayrollRule>> levels, Map<String, Set<String>> dependencies, ConceptCatalog catalog) {
+        this(levels, dependencies, null, catalog, null);
+    }
+
+    private ExecutionPlan(List<List<PayrollRule>> levels, Map<String, Set<String>> dependencies,
+                          ConceptSlots slots, ConceptCatalog catalog, PeriodLayer periodLayer) {
+        List<List<PayrollRule>> copy = new ArrayList<>(levels.size());
+        for (List<PayrollRule> level : levels) {
+            if (!level.isEmpty()) {
+                copy.add(List.copyOf(level));
+            }
+        }
+        this.levels = List.copyOf(copy);
+        this.levelArray = new PayrollRule[this.levels.size()][];
+        Map<String, Integer> aggregations = new LinkedHashMap<>();
+        for (int i = 0; i < levelArray.length; i++) {
+            levelArray[i] = this.levels.get(i).toArray(new PayrollRule[0]);
+            for (PayrollRule rule : levelArray[i]) {
+                if (rule instanceof TotalEarningsRule) {
+                    aggregations.put(rule.getCode(), i);
+                }
+            }
+        }
+        this.aggregationPoints = Collections.unmodifiableMap(aggregations);
+        this.dependencies = Map.copyOf(dependencies);
+        this.slots = slots != null ? slots : slotsOf(this.levels);
+        this.catalog = catalog;
+        this.periodLayer = periodLayer;
+    }
+
+    // Every code the rules produce or read, in execution order
+    private static ConceptSlots slotsOf(List<List<PayrollRule>> levels) {
+        Set<String> codes = new LinkedHashSet<>();
+        for (List<PayrollRule> level : levels) {
+            for (PayrollRule rule : level) {
+                codes.addAll(rule.getDependencies());
+                codes.add(rule.getCode());
+            }
+        }
+        return ConceptSlots.of(codes);
+    }
+
+    /**
+     * Builds the plan for a list of rules.
+     *
+     * @throws mx.payroll.system.exception.FormulaEvaluationException on duplicate codes or cycles
+     */
+    public static ExecutionPlan of(Collection<? extends PayrollRule> rules) {
+        return ConceptDependencyGraph.build(rules).toExecutionPlan();
+    }
+
+    public List<List<PayrollRule>> getLevels() {
+        return levels;
+    }
+
+    /**
+     * All rules in execution order.
+     */
+    public List<PayrollRule> getRules() {
+        List<PayrollRule> rules = new ArrayList<>();
+        levels.forEach(rules::addAll);
+        return rules;
+    }
+
+    /**
+     * Rule codes per level, e.g. [[P002, P003, P004, D001], [TOTAL_EARNINGS], [D002]].
+     */
+    public List<List<String>> getLevelCodes() {
+        List<List<String>> codes = new ArrayList<>(levels.size());
+        for (List<PayrollRule> level : levels) {
+            codes.add(level.stream().map(PayrollRule::getCode).toList());
+        }
+        return codes;
+    }
+
+    /**
+     * Keeps only the rules the targets need (transitively), dropping everything else.
+     * Unknown target codes are ignored.
+     */
+    public ExecutionPlan requiredFor(Collection<String> targets) {
+        Set<String> required = ConceptDependencyGraph.closureOf(targets, dependencies);
+        List<List<PayrollRule>> pruned = new ArrayList<>(levels.size());
+        for (List<PayrollRule> level : levels) {
+            pruned.add(level.stream().filter(rule -> required.contains(rule.getCode())).toList());
+        }
+        return new ExecutionPlan(pruned, dependencies, slots, catalog, periodLayer);
+    }
+
+    /**
+     * Slots of the codes the plan reads and produces, shared by the contexts of the period.
+     */
+    public ConceptSlots getSlots() {
+        return slots;
+    }
+
+    /**
+     * The same plan with the period's shared values (see {@link #newPeriodLayer}).
+     */
+    public ExecutionPlan withPeriodLayer(PeriodLayer periodLayer) {
+        if (periodLayer.getSlots() != slots || periodLayer.getCatalog() != catalog) {
+            throw new IllegalArgumentException("Period layer was built for another plan");
+        }
+        return new ExecutionPlan(levels, dependencies, slots, catalog, periodLayer);
+    }
+
+    /**
+     * Stores period-level values (economic indicators) on this plan's slots.
+     */
+    public PeriodLayer newPeriodLayer(Map<String, BigDecimal> values) {
+        return PeriodLayer.of(slots, catalog, values);
+    }
+
+    /**
+     * How the plan's contexts classify concepts for their running totals.
+     */
+    public ConceptCatalog getCatalog() {
+        return catalog;
+    }
+
+    public PeriodLayer getPeriodLayer() {
+        return periodLayer;
+    }
+
+    /**
+     * A context for one employee that stores its values in the plan's slots and reads the
+     * period layer, if the plan has one.
+     */
+    public PayrollContext newContext(mx.payroll.system.domain.model.Employee employee) {
+        return periodLayer != null ? new PayrollContext(employee, periodLayer) : new PayrollContext(employee, slots, catalog);
+    }
+
+    /**
+     * Level index at which each aggregate is computed (e.g. TOTAL_EARNINGS -> 1).
+     */
+    public Map<String, Integer> getAggregationPoints() {
+        return aggregationPoints;
+    }
+
+    public void execute(PayrollContext context) {
+        for (PayrollRule[] level : levelArray) {
+            for (PayrollRule rule : level) {
+                rule.execute(context);
+            }
+        }
+    }
+
+    /**
+     * Runs the plan over a batch: each rule once over all rows, level by level.
+     */
+    public void executeBatch(PayrollBatch batch) {
+        for (PayrollRule[] level : levelArray) {
+            for (PayrollRule rule : level) {
+                rule.executeBatch(batch);
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (PayrollRule[] level : levelArray) {
+            size += level.length;
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionPlan" + getLevelCodes();
+    }
+}
@@ -0,0 +1,11 @@
+package mx.payroll.system.engine;
+
+/**
+ * Evaluation strategy used by FormulaEngine for concept_formulas.
+ */
+public enum FormulaBackend {
+    /** Every formula goes through SpEL (interpreted or compiled, see spel-compiler-mode). */
+    SPEL,
+    /** Formulas in the native dialect run as slot-based lambdas; the rest stay on SpEL. */
+    NATIVE
+}
@@ -0,0 +1,103 @@
+package mx.payroll.system.engine;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Bounded formula cache for FormulaEngine.
+ *
+ * Hits are lock-free: a ConcurrentHashMap lookup plus a timestamp write on the entry.
+ * Only a miss that pushes the cache over its capacity takes the eviction lock, which
+ * removes the least recently used entries by scanning the access timestamps.
+ */
+final class FormulaCache {
+
+    private static final class Entry {
+        final CompiledFormula formula;
+        volatile long lastAccess;
+
+        Entry(CompiledFormula formula) {
+            this.formula = formula;
+            this.lastAccess = System.nanoTime();
+        }
+    }
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    FormulaCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached formula or builds it with the loader. Exceptions thrown by the
+     * loader propagate and nothing is cached.
+     */
+    CompiledFormula get(String formula, Function<String, CompiledFormula> loader) {
+        Entry entry = entries.get(formula);
+        if (entry != null) {
+            hits.increment();
+            entry.lastAccess = System.nanoTime();
+            return entry.formula;
+        }
+
+        entry = entries.computeIfAbsent(formula, key -> {
+            misses.increment();
+            return new Entry(loader.apply(key));
+        });
+
+        if (entries.size() > maxSize) {
+            evict();
+        }
+        return entry.formula;
+    }
+
+    boolean invalidate(String formula) {
+        return entries.remove(formula) != null;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    void forEach(BiConsumer<String, CompiledFormula> action) {
+        entries.forEach((formula, entry) -> action.accept(formula, entry.formula));
+    }
+
+    FormulaEngine.CacheStats stats() {
+        return new FormulaEngine.CacheStats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), maxSize);
+    }
+
+    // Misses are rare once the formula set is warm, so a linear scan is cheaper than
+    // maintaining an access-ordered structure on every hit
+    private void evict() {
+        synchronized (evictionLock) {
+            while (entries.size() > maxSize) {
+                Map.Entry<String, Entry> eldest = null;
+                for (Map.Entry<String, Entry> candidate : entries.entrySet()) {
+                    if (eldest == null || candidate.getValue().lastAccess < eldest.getValue().lastAccess) {
+                        eldest = candidate;
+                    }
+                }
+                if (eldest == null) {
+                    return;
+                }
+                if (entries.remove(eldest.getKey(), eldest.getValue())) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+}
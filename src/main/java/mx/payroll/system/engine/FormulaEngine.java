@@ -1,39 +1,102 @@
 package mx.payroll.system.engine;
 
+import mx.payroll.system.engine.formula.FixedPointFormula;
+import mx.payroll.system.engine.formula.FormulaOptimizer;
+import mx.payroll.system.engine.formula.NativeFormula;
+import mx.payroll.system.engine.formula.NativeFormulaCompiler;
 import mx.payroll.system.exception.FormulaEvaluationException;
 import mx.payroll.system.service.TaxService;
-import org.springframework.expression.Expression;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.SpelCompilerMode;
 import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.standard.SpelExpression;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
-import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.stereotype.Service;
 
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
-import java.math.MathContext;
 import java.math.RoundingMode;
-import java.time.LocalDate;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class FormulaEngine {
 
+    private static final Logger log = LoggerFactory.getLogger(FormulaEngine.class);
+
+    /**
+     * Whether a formula is running through the SpEL interpreter or as generated bytecode.
+     */
+    public enum CompilationState {
+        PENDING,     // not evaluated yet under a compiler mode
+        COMPILED,    // running as compiled bytecode
+        INTERPRETED, // compiler mode OFF, not compilable, or reverted after a failure
+        NATIVE       // running on the native formula compiler (FormulaBackend.NATIVE)
+    }
+
+    /**
+     * Expression cache counters.
+     */
+    public record CacheStats(long hits, long misses, long evictions, int size, int maxSize) {
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+    }
+
+    // Helper functions callable from formulas as #name(...), see PayrollFunctionRegistry
+    private static final Map<String, Method> FUNCTIONS = PayrollFunctionRegistry.methods();
+
+    // Functions whose result depends only on their arguments (no database, no clock)
+    private static final Set<String> PURE_FUNCTIONS = PayrollFunctionRegistry.pureFunctions();
+
     private final TaxService taxService;
+    private final SpelCompilerMode compilerMode;
+    private final FormulaBackend backend;
+    private final NumericMode numericMode;
 
-    private static final int MAX_CACHE_SIZE = 1000;
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    // Results are amounts rounded to cents
+    private static final int RESULT_SCALE = 2;
     private final ExpressionParser parser = new SpelExpressionParser();
 
-    // LRU Cache: key = String formula, value = compiled expression
-    private final Map<String, Expression> expressionCache = new LinkedHashMap<String, Expression>(16, 0.75f, true) {
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
-            return size() > MAX_CACHE_SIZE;
-        }
-    };
+    // Bounded LRU cache: key = String formula, value = parsed expression with its metadata and compilation state
+    private final FormulaCache expressionCache;
 
     public FormulaEngine(TaxService taxService) {
+        this(taxService, SpelCompilerMode.OFF, FormulaBackend.SPEL, DEFAULT_CACHE_SIZE);
+    }
+
+    public FormulaEngine(TaxService taxService, SpelCompilerMode compilerMode) {
+        this(taxService, compilerMode, FormulaBackend.SPEL, DEFAULT_CACHE_SIZE);
+    }
+
+    public FormulaEngine(TaxService taxService, SpelCompilerMode compilerMode, FormulaBackend backend) {
+        this(taxService, compilerMode, backend, DEFAULT_CACHE_SIZE);
+    }
+
+    public FormulaEngine(TaxService taxService, SpelCompilerMode compilerMode, FormulaBackend backend, int cacheSize) {
+        this(taxService, compilerMode, backend, cacheSize, NumericMode.BIG_DECIMAL);
+    }
+
+    @Autowired
+    public FormulaEngine(TaxService taxService,
+                         @Value("${payroll.formula.spel-compiler-mode:OFF}") SpelCompilerMode compilerMode,
+                         @Value("${payroll.formula.backend:SPEL}") FormulaBackend backend,
+                         @Value("${payroll.formula.cache-size:1000}") int cacheSize,
+                         @Value("${payroll.formula.numeric-mode:BIG_DECIMAL}") NumericMode numericMode) {
         this.taxService = taxService;
+        this.compilerMode = compilerMode != null ? compilerMode : SpelCompilerMode.OFF;
+        this.backend = backend != null ? backend : FormulaBackend.SPEL;
+        this.numericMode = numericMode != null ? numericMode : NumericMode.BIG_DECIMAL;
+        this.expressionCache = new FormulaCache(cacheSize > 0 ? cacheSize : DEFAULT_CACHE_SIZE);
         // Inject TaxService into PayrollFunctions for ISR calculations
         PayrollFunctions.setTaxService(taxService);
     }
@@ -43,6 +106,11 @@ public class FormulaEngine {
      * Uses a sandboxed SpEL context to prevent remote code execution.
      * Variables in the formula should be prefixed with # (e.g., #INC01).
      *
+     * When a SpEL compiler mode is configured, the cached expression is compiled to
+     * bytecode after it has been interpreted (IMMEDIATE: once, MIXED: 100 times).
+     * Formulas that cannot be compiled, or whose compiled form fails, stay interpreted.
+     * With the NATIVE backend, formulas the native compiler understands bypass SpEL.
+     *
      * @param formula the formula expression to evaluate (e.g., "(#INC01 + #INC02) * 0.05")
      * @param payrollContext the PayrollContext object containing variables
      * @return the calculated result rounded to 2 decimal places
@@ -57,88 +125,260 @@ public class FormulaEngine {
             throw new FormulaEvaluationException("PayrollContext cannot be null");
         }
 
+        return evaluateCompiled(compile(formula), payrollContext);
+    }
+
+    /**
+     * Evaluates an already compiled formula, skipping the cache lookup.
+     *
+     * @param compiled the formula returned by {@link #compile(String)}
+     * @param payrollContext the PayrollContext object containing variables
+     * @return the calculated result rounded to 2 decimal places
+     * @throws FormulaEvaluationException if evaluation fails
+     */
+    public BigDecimal evaluateCompiled(CompiledFormula compiled, PayrollContext payrollContext) {
+        return evaluateCompiled(compiled, payrollContext, true);
+    }
+
+    /**
+     * @param reportMissing false for formulas checked by {@link FormulaValidator}: every variable
+     *                      they read has a source, so a missing one is an expected ZERO
+     */
+    BigDecimal evaluateCompiled(CompiledFormula compiled, PayrollContext payrollContext, boolean reportMissing) {
+        if (compiled == null) {
+            throw new FormulaEvaluationException("Formula cannot be null or empty");
+        }
+
+        if (payrollContext == null) {
+            throw new FormulaEvaluationException("PayrollContext cannot be null");
+        }
+
         try {
-            // Get or compile expression (thread-safe)
-            Expression expression;
-            synchronized (expressionCache) {
-                expression = expressionCache.computeIfAbsent(formula, key -> {
+            if (reportMissing) {
+                warnMissing(compiled, payrollContext);
+            }
+
+            // Variables, HIRE_DATE, #impuestos and helper functions are resolved on demand
+            // against the PayrollContext (no per-call map copies or function registration)
+            FormulaEvaluationContext spelContext = new FormulaEvaluationContext(payrollContext, FUNCTIONS, taxService);
+
+            NativeFormula nativeFormula = compiled.getNativeFormula();
+            if (numericMode == NumericMode.FIXED_POINT && nativeFormula != null) {
+                return evaluateSlots(nativeFormula, nativeFormula.load(spelContext));
+            }
+
+            Object rawResult = compiled.getValue(spelContext);
+
+            return toResult(rawResult);
+
+        } catch (RuntimeException e) {
+            throw evaluationError(compiled, e);
+        }
+    }
+
+    /**
+     * Evaluates a formula over every row of a batch that has not failed yet.
+     *
+     * Native formulas are evaluated column-wise: the value of each variable is loaded for all
+     * rows first (one array per variable, indexed by row) and the compiled formula then runs
+     * over the rows in a tight loop. Other formulas are evaluated row by row. Either way each
+     * row gets exactly what {@link #evaluateCompiled} would return; rows that throw are marked
+     * failed in the batch.
+     *
+     * @return the rounded result per row, null for rows that failed or were already failed
+     */
+    public BigDecimal[] evaluateBatch(CompiledFormula compiled, PayrollBatch batch) {
+        return evaluateBatch(compiled, batch, true);
+    }
+
+    BigDecimal[] evaluateBatch(CompiledFormula compiled, PayrollBatch batch, boolean reportMissing) {
+        if (compiled == null) {
+            throw new FormulaEvaluationException("Formula cannot be null or empty");
+        }
+
+        int rows = batch.size();
+        BigDecimal[] results = new BigDecimal[rows];
+        NativeFormula nativeFormula = compiled.getNativeFormula();
+        if (nativeFormula == null) {
+            for (int row = 0; row < rows; row++) {
+                if (!batch.isFailed(row)) {
                     try {
-                        return parser.parseExpression(key);
-                    } catch (Exception e) {
-                        throw new FormulaEvaluationException("Invalid formula syntax: " + key, e);
+                        results[row] = evaluateCompiled(compiled, batch.getContext(row), reportMissing);
+                    } catch (RuntimeException e) {
+                        batch.fail(row, e);
                     }
-                });
+                }
             }
+            return results;
+        }
+
+        // Columns: variable slots first, then function slots (same layout as NativeFormula)
+        List<String> variables = nativeFormula.getVariables();
+        List<String> functions = nativeFormula.getFunctions();
+        int width = variables.size() + functions.size();
+        Object[][] columns = new Object[width][rows];
 
-            // Use StandardEvaluationContext to allow function registration
-            StandardEvaluationContext spelContext = new StandardEvaluationContext();
-
-            // Inject TaxService as a variable so it can be called via #impuestos
-            spelContext.setVariable("impuestos", taxService);
-            
-            // Inject all variables from the PayrollContext (fixed and calculated) flattened
-            // This allows formulas to use #SALARY_BASE, #ISR, etc. directly without method calls
-            Map<String, BigDecimal> availableVariables = payrollContext.getVariables();
-
-            // Extract variable names from formula (pattern: #VARIABLE_NAME)
-            java.util.Set<String> formulaVariables = new java.util.HashSet<>();
-            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile("#([A-Z0-9_]+)");
-            java.util.regex.Matcher matcher = pattern.matcher(formula);
-            while (matcher.find()) {
-                String varName = matcher.group(1);
-                // Skip function names and special variables
-                if (!varName.equals("HIRE_DATE") && !varName.equals("impuestos")) {
-                    formulaVariables.add(varName);
+        FormulaEvaluationContext[] resolvers = new FormulaEvaluationContext[rows];
+        for (int row = 0; row < rows; row++) {
+            if (!batch.isFailed(row)) {
+                PayrollContext payrollContext = batch.getContext(row);
+                if (reportMissing) {
+                    warnMissing(compiled, payrollContext);
+                }
+                resolvers[row] = new FormulaEvaluationContext(payrollContext, FUNCTIONS, taxService);
+            }
+        }
+        for (int slot = 0; slot < width; slot++) {
+            Object[] column = columns[slot];
+            boolean function = slot >= variables.size();
+            String name = function ? functions.get(slot - variables.size()) : variables.get(slot);
+            for (int row = 0; row < rows; row++) {
+                if (resolvers[row] == null) {
+                    continue;
+                }
+                try {
+                    column[row] = function ? resolvers[row].resolveFunction(name) : resolvers[row].resolve(name);
+                } catch (RuntimeException e) {
+                    batch.fail(row, evaluationError(compiled, e));
+                    resolvers[row] = null;
                 }
             }
+        }
 
-            // Identify missing variables
-            java.util.Set<String> missingVariables = new java.util.HashSet<>(formulaVariables);
-            missingVariables.removeAll(availableVariables.keySet());
+        Object[] slots = new Object[width];
+        for (int row = 0; row < rows; row++) {
+            if (resolvers[row] == null) {
+                continue;
+            }
+            for (int slot = 0; slot < width; slot++) {
+                slots[slot] = columns[slot][row];
+            }
+            try {
+                results[row] = evaluateSlots(nativeFormula, slots);
+            } catch (RuntimeException e) {
+                batch.fail(row, evaluationError(compiled, e));
+            }
+        }
+        return results;
+    }
 
-            // Log missing variables (converted to ZERO)
-            if (!missingVariables.isEmpty() && payrollContext.getEmployee() != null) {
-                System.err.println("⚠️  Employee " + payrollContext.getEmployee().getId() +
-                    " - Missing variables (will use ZERO): " + missingVariables +
-                    " in formula: " + formula);
+    // Log missing variables (they resolve to ZERO in the evaluation context)
+    private static void warnMissing(CompiledFormula compiled, PayrollContext payrollContext) {
+        if (payrollContext.getEmployee() != null) {
+            List<String> missingVariables = compiled.findMissing(payrollContext);
+            if (!missingVariables.isEmpty()) {
+                log.warn("Employee {} - Missing variables (will use ZERO): {} in formula: {}",
+                        payrollContext.getEmployee().getId(), missingVariables, compiled.getSource());
             }
+        }
+    }
 
-            // Inject variables, converting null to ZERO
-            availableVariables.forEach((key, value) -> {
-                spelContext.setVariable(key, value != null ? value : BigDecimal.ZERO);
-            });
+    // Convert result to BigDecimal and round to 2 decimal places using banker's rounding
+    private BigDecimal toResult(Object rawResult) {
+        return convertToBigDecimal(rawResult).setScale(RESULT_SCALE, RoundingMode.HALF_EVEN);
+    }
 
-            // Inject missing variables as ZERO
-            for (String missingVar : missingVariables) {
-                spelContext.setVariable(missingVar, BigDecimal.ZERO);
+    // FIXED_POINT: scaled longs when the formula and its values fit, BigDecimal otherwise
+    private BigDecimal evaluateSlots(NativeFormula nativeFormula, Object[] slots) {
+        FixedPointFormula fixedPoint = nativeFormula.getFixedPoint();
+        if (numericMode == NumericMode.FIXED_POINT && fixedPoint != null) {
+            BigDecimal result = fixedPoint.evaluate(slots, RESULT_SCALE);
+            if (result != null) {
+                return result;
             }
+        }
+        return toResult(nativeFormula.evaluate(slots));
+    }
 
-            // Add employee-specific variables
-            if (payrollContext.getEmployee() != null) {
-                spelContext.setVariable("HIRE_DATE", payrollContext.getEmployee().getHireDate());
+    private static FormulaEvaluationException evaluationError(CompiledFormula compiled, RuntimeException e) {
+        if (e instanceof FormulaEvaluationException formulaError) {
+            return formulaError;
+        }
+        if (e instanceof SpelEvaluationException) {
+            return new FormulaEvaluationException("Error during SpEL evaluation: " + e.getMessage(), e);
+        }
+        return new FormulaEvaluationException("Error evaluating formula: " + compiled.getSource(), e);
+    }
+
+    /**
+     * Parses a formula (or returns the cached result) and describes it: referenced
+     * variables, functions called, purity and compilation state. Tools that need to
+     * inspect formulas without evaluating them should go through this method.
+     *
+     * @param formula the formula expression (e.g., "#calcularIMSS(#P001, #UMA)")
+     * @return the cached CompiledFormula
+     * @throws FormulaEvaluationException if the formula is empty or its syntax is invalid
+     */
+    public CompiledFormula compile(String formula) {
+        if (formula == null || formula.trim().isEmpty()) {
+            throw new FormulaEvaluationException("Formula cannot be null or empty");
+        }
+
+        // Get or compile expression (lock-free on cache hits)
+        return expressionCache.get(formula, key -> {
+            try {
+                SpelExpression expression = (SpelExpression) parser.parseExpression(key);
+                return new CompiledFormula(expression, compilerMode, compileNative(key), PURE_FUNCTIONS);
+            } catch (Exception e) {
+                throw new FormulaEvaluationException("Invalid formula syntax: " + key, e);
             }
+        });
+    }
 
-            // Register helper functions
-            spelContext.registerFunction("diasTrabajadosAnio", PayrollFunctions.class.getMethod("diasTrabajadosAnio", LocalDate.class));
-            spelContext.registerFunction("diasVacaciones", PayrollFunctions.class.getMethod("diasVacaciones", LocalDate.class));
-            spelContext.registerFunction("calcularIMSS", PayrollFunctions.class.getMethod("calcularIMSS", BigDecimal.class, BigDecimal.class));
-            spelContext.registerFunction("calcularISR", PayrollFunctions.class.getMethod("calcularISR", BigDecimal.class));
+    /**
+     * Specializes a formula for one payroll period: period-level variables (economic
+     * indicators) are replaced by their values and the operations that become constant are
+     * evaluated now instead of once per employee. Only formulas running on the NATIVE
+     * backend are specialized; the others are returned unchanged.
+     *
+     * @param compiled the formula returned by {@link #compile(String)}
+     * @param periodValues values that are the same for every employee of the period
+     * @return a period-specific formula (not cached), or the same formula if nothing changed
+     */
+    public CompiledFormula specialize(CompiledFormula compiled, Map<String, ? extends Number> periodValues) {
+        NativeFormula nativeFormula = compiled.getNativeFormula();
+        if (nativeFormula == null || periodValues == null) {
+            return compiled;
+        }
+        FormulaOptimizer.Result hoisted = FormulaOptimizer.hoist(nativeFormula.getAst(), periodValues);
+        if (!hoisted.isChanged()) {
+            return compiled;
+        }
+        NativeFormula specialized = NativeFormulaCompiler.compile(compiled.getSource(), hoisted.node());
+        return compiled.specialize(specialized, hoisted.hoistedOperations(), hoisted.substitutedVariables());
+    }
 
-            // Evaluate expression using ONLY the context (no root object method calls needed)
-            Object rawResult = expression.getValue(spelContext);
+    /**
+     * Reports, for every cached formula, whether it runs compiled or interpreted.
+     */
+    public Map<String, CompilationState> getCompilationReport() {
+        Map<String, CompilationState> report = new LinkedHashMap<>();
+        expressionCache.forEach((formula, cached) -> report.put(formula, cached.getState()));
+        return report;
+    }
 
-            // Convert result to BigDecimal
-            BigDecimal result = convertToBigDecimal(rawResult);
+    public SpelCompilerMode getCompilerMode() {
+        return compilerMode;
+    }
 
-            // Round to 2 decimal places using banker's rounding
-            return result.setScale(2, RoundingMode.HALF_EVEN);
+    public FormulaBackend getBackend() {
+        return backend;
+    }
 
+    public NumericMode getNumericMode() {
+        return numericMode;
+    }
+
+    // Native compilation is best effort: anything outside the dialect keeps using SpEL
+    private NativeFormula compileNative(String formula) {
+        if (backend != FormulaBackend.NATIVE) {
+            return null;
+        }
+        try {
+            return NativeFormulaCompiler.compile(formula);
         } catch (FormulaEvaluationException e) {
-            throw e;
-        } catch (SpelEvaluationException e) {
-            throw new FormulaEvaluationException("Error during SpEL evaluation: " + e.getMessage(), e);
-        } catch (Exception e) {
-            throw new FormulaEvaluationException("Error evaluating formula: " + formula, e);
+            log.debug("SpEL fallback for {} ({})", formula, e.getMessage());
+            return null;
         }
     }
 
@@ -167,17 +407,29 @@ public class FormulaEngine {
      * Clears the expression cache. Useful for testing or memory management.
      */
     public void clearCache() {
-        synchronized (expressionCache) {
-            expressionCache.clear();
-        }
+        expressionCache.clear();
+    }
+
+    /**
+     * Drops a single formula from the cache, e.g. after its definition changed.
+     *
+     * @return true if the formula was cached
+     */
+    public boolean invalidate(String formula) {
+        return formula != null && expressionCache.invalidate(formula);
     }
 
     /**
      * Returns the current cache size.
      */
     public int getCacheSize() {
-        synchronized (expressionCache) {
-            return expressionCache.size();
-        }
+        return expressionCache.size();
+    }
+
+    /**
+     * Hit, miss and eviction counters since startup.
+     */
+    public CacheStats getCacheStats() {
+        return expressionCache.stats();
     }
 }
@@ -0,0 +1,181 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.engine.formula.FormulaFunction;
+import mx.payroll.system.engine.formula.VariableResolver;
+import mx.payroll.system.exception.FormulaEvaluationException;
+import org.springframework.expression.BeanResolver;
+import org.springframework.expression.ConstructorResolver;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.MethodResolver;
+import org.springframework.expression.OperatorOverloader;
+import org.springframework.expression.PropertyAccessor;
+import org.springframework.expression.TypeComparator;
+import org.springframework.expression.TypeConverter;
+import org.springframework.expression.TypeLocator;
+import org.springframework.expression.TypedValue;
+import org.springframework.expression.spel.SpelEvaluationException;
+import org.springframework.expression.spel.SpelMessage;
+import org.springframework.expression.spel.support.DataBindingMethodResolver;
+import org.springframework.expression.spel.support.DataBindingPropertyAccessor;
+import org.springframework.expression.spel.support.StandardOperatorOverloader;
+import org.springframework.expression.spel.support.StandardTypeComparator;
+import org.springframework.expression.spel.support.StandardTypeConverter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lightweight SpEL evaluation context bound to a single PayrollContext.
+ *
+ * The SpEL infrastructure (converters, resolvers, function table) is built once and
+ * shared by every evaluation; only this small wrapper is created per call. Variables
+ * are resolved lazily against the PayrollContext instead of being copied into a map.
+ *
+ * The context is sandboxed: no type references (T(...)), no constructors, no
+ * assignment and only instance methods on the values themselves (e.g. BigDecimal.min).
+ * It also resolves the slots of native formulas, so both backends see the same values.
+ */
+final class FormulaEvaluationContext implements EvaluationContext, VariableResolver {
+
+    private static final TypeConverter TYPE_CONVERTER = new StandardTypeConverter();
+    private static final TypeComparator TYPE_COMPARATOR = new StandardTypeComparator();
+    private static final OperatorOverloader OPERATOR_OVERLOADER = new StandardOperatorOverloader();
+    private static final List<PropertyAccessor> PROPERTY_ACCESSORS =
+            List.of(DataBindingPropertyAccessor.forReadOnlyAccess());
+    private static final List<MethodResolver> METHOD_RESOLVERS =
+            List.of(DataBindingMethodResolver.forInstanceMethodInvocation());
+    private static final TypeLocator NO_TYPES = typeName -> {
+        throw new SpelEvaluationException(SpelMessage.TYPE_NOT_FOUND, typeName);
+    };
+
+    static final String TAX_SERVICE_VARIABLE = "impuestos";
+    static final String HIRE_DATE_VARIABLE = "HIRE_DATE";
+
+    private final TypedValue root;
+    private final PayrollContext payrollContext;
+    private final Map<String, Method> functions;
+    private final Object taxService;
+
+    FormulaEvaluationContext(PayrollContext payrollContext, Map<String, Method> functions, Object taxService) {
+        this.root = new TypedValue(payrollContext);
+        this.payrollContext = payrollContext;
+        this.functions = functions;
+        this.taxService = taxService;
+    }
+
+    @Override
+    public TypedValue getRootObject() {
+        return root;
+    }
+
+    @Override
+    public List<PropertyAccessor> getPropertyAccessors() {
+        return PROPERTY_ACCESSORS;
+    }
+
+    @Override
+    public List<ConstructorResolver> getConstructorResolvers() {
+        return List.of();
+    }
+
+    @Override
+    public List<MethodResolver> getMethodResolvers() {
+        return METHOD_RESOLVERS;
+    }
+
+    @Override
+    public BeanResolver getBeanResolver() {
+        return null;
+    }
+
+    @Override
+    public TypeLocator getTypeLocator() {
+        return NO_TYPES;
+    }
+
+    @Override
+    public TypeConverter getTypeConverter() {
+        return TYPE_CONVERTER;
+    }
+
+    @Override
+    public TypeComparator getTypeComparator() {
+        return TYPE_COMPARATOR;
+    }
+
+    @Override
+    public OperatorOverloader getOperatorOverloader() {
+        return OPERATOR_OVERLOADER;
+    }
+
+    @Override
+    public boolean isAssignmentEnabled() {
+        return false;
+    }
+
+    @Override
+    public void setVariable(String name, Object value) {
+        throw new FormulaEvaluationException("Formulas cannot assign variables: #" + name);
+    }
+
+    /**
+     * Resolves #name with the same precedence the per-call StandardEvaluationContext had:
+     * registered functions, then HIRE_DATE, then context values (fixed over calculated),
+     * then #impuestos. Unknown upper-case concept codes resolve to ZERO.
+     */
+    @Override
+    public Object lookupVariable(String name) {
+        Method function = functions.get(name);
+        if (function != null) {
+            // Memoized and period-bound functions go through the period's scope; the others stay plain Methods
+            FunctionScope scope = payrollContext.getFunctionScope();
+            MethodHandle handle = scope != null ? scope.methodHandle(name) : PayrollFunctionRegistry.unscopedHandle(name);
+            return handle != null ? handle : function;
+        }
+        if (HIRE_DATE_VARIABLE.equals(name) && payrollContext.getEmployee() != null) {
+            return payrollContext.getEmployee().getHireDate();
+        }
+        if (payrollContext.hasValue(name)) {
+            BigDecimal value = payrollContext.getValue(name);
+            return value != null ? value : BigDecimal.ZERO;
+        }
+        if (TAX_SERVICE_VARIABLE.equals(name)) {
+            return taxService;
+        }
+        if (!HIRE_DATE_VARIABLE.equals(name) && isConceptCode(name)) {
+            return BigDecimal.ZERO;
+        }
+        return null;
+    }
+
+    // Native formulas load their slots with the same resolution rules as SpEL
+    @Override
+    public Object resolve(String name) {
+        return lookupVariable(name);
+    }
+
+    @Override
+    public FormulaFunction resolveFunction(String name) {
+        FunctionScope scope = payrollContext.getFunctionScope();
+        return scope != null ? scope.function(name) : PayrollFunctionRegistry.function(name);
+    }
+
+    /**
+     * Concept codes and indicators are upper-case identifiers (P001, UMA, TOTAL_EARNINGS).
+     */
+    static boolean isConceptCode(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
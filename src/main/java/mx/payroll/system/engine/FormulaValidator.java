@@ -1,2 +1,342 @@
-public class FormulaValidator {
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.ConceptFormula;
+import mx.payroll.system.exception.FormulaEvaluationException;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.Assign;
+import org.springframework.expression.spel.ast.BeanReference;
+import org.springframework.expression.spel.ast.BooleanLiteral;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.ConstructorReference;
+import org.springframework.expression.spel.ast.FloatLiteral;
+import org.springframework.expression.spel.ast.FunctionReference;
+import org.springframework.expression.spel.ast.IntLiteral;
+import org.springframework.expression.spel.ast.LongLiteral;
+import org.springframework.expression.spel.ast.MethodReference;
+import org.springframework.expression.spel.ast.OpDivide;
+import org.springframework.expression.spel.ast.OpMinus;
+import org.springframework.expression.spel.ast.OpModulus;
+import org.springframework.expression.spel.ast.OpMultiply;
+import org.springframework.expression.spel.ast.OpPlus;
+import org.springframework.expression.spel.ast.Operator;
+import org.springframework.expression.spel.ast.RealLiteral;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.ast.Ternary;
+import org.springframework.expression.spel.ast.TypeReference;
+import org.springframework.expression.spel.ast.VariableReference;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Static analysis of a set of concept formulas, run when formulas are saved and before a
+ * period is dispatched, so bad formulas are rejected once instead of failing per employee.
+ *
+ * Every formula is parsed and its AST checked: each #VARIABLE must be a catalog concept, an
+ * economic indicator, another formula or TOTAL_EARNINGS; each #function(...) must exist and
+ * get the right number and kind of arguments (numbers or #HIRE_DATE); arithmetic only mixes
+ * numbers; and the formula must produce a number. The set is then checked for duplicate
+ * concepts and circular dependencies.
+ *
+ * When there are no diagnostics the result carries the execution plan, built from rules
+ * marked as validated: they skip the per-employee missing-variable check, since every
+ * reference is known to have a source (a concept an employee does not have is ZERO).
+ */
+public final class FormulaValidator {
+
+    public enum Kind {
+        SYNTAX, UNKNOWN_VARIABLE, UNKNOWN_FUNCTION, ARGUMENT_COUNT, TYPE, NOT_ALLOWED, DUPLICATE, CYCLE
+    }
+
+    /**
+     * One problem found in a formula. Position is the offset in the expression, or -1.
+     */
+    public record Diagnostic(String conceptCode, Kind kind, int position, String message) {
+        @Override
+        public String toString() {
+            return conceptCode + (position >= 0 ? " [" + position + "]" : "") + ": " + message;
+        }
+    }
+
+    /**
+     * Diagnostics, and the execution plan when there are none.
+     */
+    public record Result(List<Diagnostic> diagnostics, ExecutionPlan plan) {
+        public boolean isValid() {
+            return diagnostics.isEmpty();
+        }
+    }
+
+    // Static type of a subexpression; UNKNOWN never produces a diagnostic
+    private enum Type {
+        NUMBER, DATE, TEXT, BOOLEAN, UNKNOWN
+    }
+
+    private final FormulaEngine formulaEngine;
+    private final Set<String> knownInputs;
+    private final ConceptCatalog catalog;
+
+    /**
+     * @param knownInputs codes supplied from outside the formulas: catalog concepts and economic indicators
+     */
+    public FormulaValidator(FormulaEngine formulaEngine, Collection<String> knownInputs) {
+        this(formulaEngine, knownInputs, ConceptCatalog.byPrefix());
+    }
+
+    /**
+     * @param catalog concept types; decides which rules TOTAL_EARNINGS adds up and the plan's totals
+     */
+    public FormulaValidator(FormulaEngine formulaEngine, Collection<String> knownInputs, ConceptCatalog catalog) {
+        this.formulaEngine = formulaEngine;
+        this.knownInputs = Set.copyOf(knownInputs);
+        this.catalog = catalog;
+    }
+
+    public Result validate(List<ConceptFormula> formulas) {
+        return validate(formulas, null);
+    }
+
+    /**
+     * @param periodValues if not null, the plan's formulas are specialized for the period
+     *                     (see {@link FormulaEngine#specialize})
+     */
+    public Result validate(List<ConceptFormula> formulas, Map<String, ? extends Number> periodValues) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+
+        Set<String> producers = new HashSet<>(knownInputs);
+        producers.add(TotalEarningsRule.CODE);
+        formulas.forEach(formula -> producers.add(formula.getConceptCode()));
+
+        Set<String> codes = new HashSet<>();
+        for (ConceptFormula formula : formulas) {
+            String code = formula.getConceptCode();
+            if (!codes.add(code)) {
+                diagnostics.add(new Diagnostic(code, Kind.DUPLICATE, -1, "More than one formula for the concept"));
+                continue;
+            }
+            CompiledFormula compiled;
+            try {
+                compiled = formulaEngine.compile(formula.getFormulaExpression());
+            } catch (FormulaEvaluationException e) {
+                diagnostics.add(syntaxError(code, e));
+                continue;
+            }
+            Type type = new Analysis(code, producers, diagnostics).infer(compiled.getAst());
+            if (type != Type.NUMBER && type != Type.UNKNOWN) {
+                diagnostics.add(new Diagnostic(code, Kind.TYPE, 0,
+                        "The formula must produce a number, not a " + type.name().toLowerCase()));
+            }
+        }
+        if (!diagnostics.isEmpty()) {
+            return new Result(List.copyOf(diagnostics), null);
+        }
+
+        List<PayrollRule> rules = new ArrayList<>(formulas.size());
+        for (ConceptFormula formula : formulas) {
+            rules.add(new DynamicDbRule(formula.getConceptCode(), formula.getOrder(),
+                    formula.getFormulaExpression(), formulaEngine, periodValues).asValidated());
+        }
+        ConceptDependencyGraph graph = ConceptDependencyGraph.build(rules, catalog);
+        List<String> cycle = graph.findCycle();
+        if (!cycle.isEmpty()) {
+            return new Result(List.of(new Diagnostic(cycle.get(0), Kind.CYCLE, -1, String.join(" -> ", cycle))), null);
+        }
+        return new Result(List.of(), graph.toExecutionPlan());
+    }
+
+    private static Diagnostic syntaxError(String code, FormulaEvaluationException e) {
+        if (e.getCause() instanceof ParseException parseError) {
+            return new Diagnostic(code, Kind.SYNTAX, parseError.getPosition(), parseError.getSimpleMessage());
+        }
+        return new Diagnostic(code, Kind.SYNTAX, -1, e.getMessage());
+    }
+
+    private static final class Analysis {
+        private final String code;
+        private final Set<String> producers;
+        private final List<Diagnostic> diagnostics;
+
+        Analysis(String code, Set<String> producers, List<Diagnostic> diagnostics) {
+            this.code = code;
+            this.producers = producers;
+            this.diagnostics = diagnostics;
+        }
+
+        Type infer(SpelNode node) {
+            if (node instanceof IntLiteral || node instanceof LongLiteral
+                    || node instanceof RealLiteral || node instanceof FloatLiteral) {
+                return Type.NUMBER;
+            }
+            if (node instanceof StringLiteral) {
+                return Type.TEXT;
+            }
+            if (node instanceof BooleanLiteral) {
+                return Type.BOOLEAN;
+            }
+            if (node instanceof VariableReference) {
+                return variable(node);
+            }
+            if (node instanceof FunctionReference) {
+                return function(node);
+            }
+            if (node instanceof OpPlus || node instanceof OpMinus || node instanceof OpMultiply
+                    || node instanceof OpDivide || node instanceof OpModulus) {
+                return arithmetic((Operator) node);
+            }
+            if (node instanceof CompoundExpression) {
+                return compound(node);
+            }
+            if (node instanceof Ternary) {
+                infer(node.getChild(0));
+                Type whenTrue = infer(node.getChild(1));
+                Type whenFalse = infer(node.getChild(2));
+                return whenTrue == whenFalse ? whenTrue : Type.UNKNOWN;
+            }
+            if (node instanceof TypeReference || node instanceof ConstructorReference
+                    || node instanceof Assign || node instanceof BeanReference) {
+                report(Kind.NOT_ALLOWED, node, "'" + node.toStringAST() + "' is not allowed in formulas");
+                return Type.UNKNOWN;
+            }
+            Type result = node instanceof Operator ? Type.BOOLEAN : Type.UNKNOWN; // comparisons, and/or
+            for (int i = 0; i < node.getChildCount(); i++) {
+                infer(node.getChild(i));
+            }
+            return result;
+        }
+
+        private Type variable(SpelNode node) {
+            String name = node.toStringAST().substring(1);
+            if (FormulaEvaluationContext.HIRE_DATE_VARIABLE.equals(name)) {
+                return Type.DATE;
+            }
+            if (FormulaEvaluationContext.TAX_SERVICE_VARIABLE.equals(name)) {
+                return Type.UNKNOWN;
+            }
+            if (PayrollFunctionRegistry.isRegistered(name)) {
+                report(Kind.TYPE, node, "#" + name + " is a function, call it as #" + name + "(...)");
+                return Type.UNKNOWN;
+            }
+            if (!FormulaEvaluationContext.isConceptCode(name)) {
+                report(Kind.UNKNOWN_VARIABLE, node, "Unknown variable #" + name);
+                return Type.UNKNOWN;
+            }
+            if (!producers.contains(name)) {
+                report(Kind.UNKNOWN_VARIABLE, node,
+                        "Variable #" + name + " is not a concept, a formula or an economic indicator");
+            }
+            return Type.NUMBER;
+        }
+
+        private Type function(SpelNode node) {
+            String ast = node.toStringAST();
+            String name = ast.substring(1, ast.indexOf('('));
+            Method method = PayrollFunctionRegistry.methods().get(name);
+            if (method == null) {
+                report(Kind.UNKNOWN_FUNCTION, node, "Unknown function #" + name);
+                for (int i = 0; i < node.getChildCount(); i++) {
+                    infer(node.getChild(i));
+                }
+                return Type.UNKNOWN;
+            }
+            // Period-bound functions take the scope as a hidden last parameter
+            Class<?>[] parameters = method.getParameterTypes();
+            int arity = PayrollFunctionRegistry.arity(name);
+            if (arity != node.getChildCount()) {
+                report(Kind.ARGUMENT_COUNT, node, "#" + name + " expects " + arity
+                        + " argument(s), got " + node.getChildCount());
+            }
+            for (int i = 0; i < node.getChildCount(); i++) {
+                Type argument = infer(node.getChild(i));
+                if (i < arity) {
+                    Type expected = typeOf(parameters[i]);
+                    if (argument != Type.UNKNOWN && expected != Type.UNKNOWN && argument != expected) {
+                        report(Kind.TYPE, node.getChild(i), "Argument " + (i + 1) + " of #" + name + " must be a "
+                                + expected.name().toLowerCase() + ", not a " + argument.name().toLowerCase());
+                    }
+                }
+            }
+            return typeOf(method.getReturnType());
+        }
+
+        private Type arithmetic(Operator node) {
+            for (int i = 0; i < node.getChildCount(); i++) {
+                Type operand = infer(node.getChild(i));
+                if (operand != Type.NUMBER && operand != Type.UNKNOWN) {
+                    report(Kind.TYPE, node.getChild(i), "Operator '" + node.getOperatorName() + "' needs numbers, not a "
+                            + operand.name().toLowerCase());
+                }
+            }
+            return Type.NUMBER;
+        }
+
+        // target.method(...): only public instance methods of the value's own type resolve
+        private Type compound(SpelNode node) {
+            Type current = infer(node.getChild(0));
+            for (int i = 1; i < node.getChildCount(); i++) {
+                SpelNode step = node.getChild(i);
+                if (!(step instanceof MethodReference method)) {
+                    infer(step);
+                    current = Type.UNKNOWN;
+                    continue;
+                }
+                for (int a = 0; a < method.getChildCount(); a++) {
+                    infer(method.getChild(a));
+                }
+                Class<?> receiver = current == Type.NUMBER ? BigDecimal.class : current == Type.DATE ? LocalDate.class : null;
+                if (receiver == null) {
+                    current = Type.UNKNOWN;
+                    continue;
+                }
+                Method target = findMethod(receiver, method.getName(), method.getChildCount());
+                if (target == null) {
+                    report(Kind.UNKNOWN_FUNCTION, step, "Method ." + method.getName() + "(...) with "
+                            + method.getChildCount() + " argument(s) does not exist on " + current.name().toLowerCase() + "s");
+                    current = Type.UNKNOWN;
+                } else {
+                    current = typeOf(target.getReturnType());
+                }
+            }
+            return current;
+        }
+
+        private static Method findMethod(Class<?> type, String name, int arguments) {
+            for (Method method : type.getMethods()) {
+                if (method.getName().equals(name) && method.getParameterCount() == arguments
+                        && !Modifier.isStatic(method.getModifiers())) {
+                    return method;
+                }
+            }
+            return null;
+        }
+
+        private static Type typeOf(Class<?> type) {
+            if (type == LocalDate.class) {
+                return Type.DATE;
+            }
+            if (Number.class.isAssignableFrom(type) || type == int.class || type == long.class
+                    || type == double.class || type == float.class) {
+                return Type.NUMBER;
+            }
+            if (type == boolean.class || type == Boolean.class) {
+                return Type.BOOLEAN;
+            }
+            if (type == String.class) {
+                return Type.TEXT;
+            }
+            return Type.UNKNOWN;
+        }
+
+        private void report(Kind kind, SpelNode node, String message) {
+            diagnostics.add(new Diagnostic(code, kind, node.getStartPosition(), message));
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.engine.PayrollFunctionRegistry.Definition;
+import mx.payroll.system.engine.PayrollFunctionRegistry.FunctionStats;
+import mx.payroll.system.engine.formula.FormulaFunction;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Memoized payroll functions for one period.
+ *
+ * Each memoized function gets a bounded ConcurrentHashMap keyed as declared in its
+ * {@link PayrollFunction#memo()}. Functions without memoization are called directly.
+ * Period-bound functions receive the scope, so they can read the period's dates and
+ * resolve period data (e.g. the ISR tables) once with {@link #periodData}.
+ * Scopes are thread-safe and shared by every employee of the period.
+ */
+public final class FunctionScope {
+
+    private static final MethodHandle INVOKE;
+
+    static {
+        try {
+            INVOKE = MethodHandles.lookup().findVirtual(Memoized.class, "invoke",
+                    MethodType.methodType(Object.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final LocalDate periodStartDate; // null if unknown
+    private final LocalDate periodEndDate;
+    private final Map<String, Memoized> memoized = new HashMap<>();
+    private final Map<String, FormulaFunction> functions = new HashMap<>();
+    private final Map<String, MethodHandle> handles = new HashMap<>();
+    private final ConcurrentHashMap<String, Object> periodData = new ConcurrentHashMap<>();
+
+    FunctionScope(LocalDate periodStartDate, LocalDate periodEndDate) {
+        this.periodStartDate = periodStartDate;
+        this.periodEndDate = periodEndDate;
+        PayrollFunctionRegistry.definitions().forEach((name, definition) -> {
+            if (definition.memo == PayrollFunction.Memo.NONE) {
+                if (definition.periodBound) {
+                    functions.put(name, arguments -> definition.call(arguments, this));
+                    handles.put(name, definition.boundTo(this));
+                } else {
+                    functions.put(name, definition);
+                }
+                return;
+            }
+            Memoized memo = new Memoized(definition, this);
+            memoized.put(name, memo);
+            functions.put(name, memo);
+            // SpEL sees the original signature and converts arguments as it does for the Method
+            handles.put(name, INVOKE.bindTo(memo)
+                    .asCollector(Object[].class, definition.arity())
+                    .asType(definition.type()));
+        });
+    }
+
+    public LocalDate getPeriodStartDate() {
+        return periodStartDate;
+    }
+
+    public LocalDate getPeriodEndDate() {
+        return periodEndDate;
+    }
+
+    /**
+     * A value derived from the period, loaded on first use and then shared by every call of the run.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T periodData(String key, Supplier<T> loader) {
+        return (T) periodData.computeIfAbsent(key, k -> loader.get());
+    }
+
+    /**
+     * The function for native formulas (memoized if declared so).
+     */
+    public FormulaFunction function(String name) {
+        FormulaFunction function = functions.get(name);
+        return function != null ? function : PayrollFunctionRegistry.function(name);
+    }
+
+    /**
+     * A memoizing or scope-bound MethodHandle for SpEL, or null if the function is neither
+     * (the plain Method is used then, which keeps SpEL compilation available).
+     */
+    public MethodHandle methodHandle(String name) {
+        return handles.get(name);
+    }
+
+    /**
+     * Hits and misses per memoized function.
+     */
+    public Map<String, FunctionStats> getStats() {
+        Map<String, FunctionStats> stats = new TreeMap<>();
+        memoized.forEach((name, memo) -> stats.put(name, new FunctionStats(memo.hits.sum(), memo.misses.sum())));
+        return stats;
+    }
+
+    static final class Memoized implements FormulaFunction {
+        private final Definition definition;
+        private final FunctionScope scope;
+        private final ConcurrentHashMap<Object, Object> cache = new ConcurrentHashMap<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        Memoized(Definition definition, FunctionScope scope) {
+            this.definition = definition;
+            this.scope = scope;
+        }
+
+        @Override
+        public Object invoke(Object[] arguments) {
+            Object key = keyOf(arguments);
+            if (key == null) {
+                misses.increment();
+                return definition.call(arguments, scope);
+            }
+            Object cached = cache.get(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+            Object value = definition.call(arguments, scope);
+            if (value != null && cache.size() < definition.cacheSize) {
+                cache.putIfAbsent(key, value);
+            }
+            return value;
+        }
+
+        // null = not cacheable (null arguments, or a base with more than two decimals)
+        private Object keyOf(Object[] arguments) {
+            for (Object argument : arguments) {
+                if (argument == null) {
+                    return null;
+                }
+            }
+            if (definition.memo == PayrollFunction.Memo.ROUNDED_BASE) {
+                if (arguments.length != 1 || !(arguments[0] instanceof Number number)) {
+                    return null;
+                }
+                BigDecimal base = number instanceof BigDecimal d ? d : new BigDecimal(number.toString());
+                try {
+                    return base.setScale(2, RoundingMode.UNNECESSARY);
+                } catch (ArithmeticException e) {
+                    return null;
+                }
+            }
+            return arguments.length == 1 ? arguments[0] : List.of(arguments);
+        }
+    }
+}
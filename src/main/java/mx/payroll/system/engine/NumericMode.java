@@ -0,0 +1,15 @@
+package mx.payroll.system.engine;
+
+/**
+ * Number representation used by FormulaEngine while evaluating native formulas.
+ */
+public enum NumericMode {
+    /** Every intermediate value is a BigDecimal. */
+    BIG_DECIMAL,
+    /**
+     * Formulas made of variables, literals, + - * / and min/max run on scaled longs
+     * (NATIVE backend only); anything that overflows or does not fit uses BigDecimal.
+     * Results are identical in both modes.
+     */
+    FIXED_POINT
+}
@@ -0,0 +1,75 @@
+package mx.payroll.system.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The contexts of one chunk of employees, evaluated rule by rule instead of employee by employee.
+ *
+ * Row i is the i-th employee. A row whose rule fails is marked as failed and skipped by the
+ * remaining rules, as the row-at-a-time path skips an employee whose calculation throws.
+ */
+public final class PayrollBatch {
+
+    private final List<PayrollContext> contexts;
+    private final RuntimeException[] failures;
+
+    public PayrollBatch(List<PayrollContext> contexts) {
+        this.contexts = List.copyOf(contexts);
+        this.failures = new RuntimeException[contexts.size()];
+    }
+
+    public int size() {
+        return contexts.size();
+    }
+
+    public PayrollContext getContext(int row) {
+        return contexts.get(row);
+    }
+
+    public List<PayrollContext> getContexts() {
+        return contexts;
+    }
+
+    public boolean isFailed(int row) {
+        return failures[row] != null;
+    }
+
+    /**
+     * Marks a row as failed; the first failure is kept.
+     */
+    public void fail(int row, RuntimeException e) {
+        if (failures[row] == null) {
+            failures[row] = e;
+        }
+    }
+
+    /**
+     * Rows that did not fail, in order.
+     */
+    public List<PayrollContext> getCompleted() {
+        List<PayrollContext> completed = new ArrayList<>(contexts.size());
+        for (int row = 0; row < contexts.size(); row++) {
+            if (failures[row] == null) {
+                completed.add(contexts.get(row));
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Failed rows with the exception that stopped them (row index -> exception).
+     */
+    public Map<Integer, RuntimeException> getFailures() {
+        Map<Integer, RuntimeException> failed = new LinkedHashMap<>();
+        for (int row = 0; row < failures.length; row++) {
+            if (failures[row] != null) {
+                failed.put(row, failures[row]);
+            }
+        }
+        return Collections.unmodifiableMap(failed);
+    }
+}
@@ -2,55 +2,382 @@ package mx.payroll.system.engine;
 
 import mx.payroll.system.domain.model.Employee;
 import java.math.BigDecimal;
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
+/**
+ * Values of one employee during a calculation: fixed values (employee concepts, indicators)
+ * and calculated values (formula results). A fixed value overrides a calculated one.
+ *
+ * Fixed values come in two layers: the employee's own, and an optional {@link PeriodLayer}
+ * with the indicators of the period, shared by every employee. The employee layer wins, so
+ * {@link #setFixedValue} still overrides anything set before it.
+ *
+ * Each write also updates a running total per concept type of the {@link ConceptCatalog}
+ * (EARNING, DEDUCTION, ...), over the same values the fixed and calculated views hold, so
+ * TOTAL_EARNINGS and the result totals are read in O(1). Replacing a value that was already
+ * counted marks the totals for one rescan, which keeps them identical to summing the views.
+ *
+ * Values live in arrays indexed by the slots of a {@link ConceptSlots} (normally the one of
+ * the ExecutionPlan, shared by every employee of the period), with one presence bitset per
+ * kind. The map views returned by {@link #getVariables()}, {@link #getFixedValuesMap()} and
+ * {@link #getCalculatedValues()} are read-only, built once and backed by the arrays, so
+ * lookups through them do not copy anything.
+ */
 public class PayrollContext {
     private Employee employee;
-    private Map<String, BigDecimal> calculatedValues = new HashMap<>();
-    private Map<String, BigDecimal> fixedValues = new HashMap<>(); // New map for fixed values
+    private final ConceptSlots slots;
+    private final PeriodLayer periodLayer; // shared, read-only (null if none)
+    private final ConceptCatalog catalog;
+    private final BigDecimal[] totals; // per type of the catalog
+    private boolean totalsStale;
+    private BigDecimal[] calculatedValues;
+    private BigDecimal[] fixedValues;
+    private long[] calculatedPresent; // bit per slot
+    private long[] fixedPresent;
+    private FunctionScope functionScope; // Memoized functions of the period (optional)
+
+    private Map<String, BigDecimal> calculatedView;
+    private Map<String, BigDecimal> fixedView;
+    private Map<String, BigDecimal> variablesView;
+
+    public PayrollContext(Employee employee) {
+        this(employee, new ConceptSlots());
+    }
+
+    /**
+     * @param slots the plan's slots (see {@link ExecutionPlan#getSlots()})
+     */
+    public PayrollContext(Employee employee, ConceptSlots slots) {
+        this(employee, slots, ConceptCatalog.byPrefix());
+    }
+
+    public PayrollContext(Employee employee, ConceptSlots slots, ConceptCatalog catalog) {
+        this(employee, slots, catalog, null);
+    }
+
+    /**
+     * @param periodLayer the period's indicators, stored on its plan's slots
+     */
+    public PayrollContext(Employee employee, PeriodLayer periodLayer) {
+        this(employee, periodLayer.getSlots(), periodLayer.getCatalog(), periodLayer);
+    }
+
+    private PayrollContext(Employee employee, ConceptSlots slots, ConceptCatalog catalog, PeriodLayer periodLayer) {
+        this.employee = employee;
+        this.slots = slots;
+        this.periodLayer = periodLayer;
+        this.catalog = catalog;
+        if (periodLayer != null) {
+            this.totals = periodLayer.copyTotals();
+        } else {
+            this.totals = new BigDecimal[catalog.getTypes().size()];
+            Arrays.fill(totals, BigDecimal.ZERO);
+        }
+        int capacity = Math.max(slots.size(), 16);
+        this.calculatedValues = new BigDecimal[capacity];
+        this.fixedValues = new BigDecimal[capacity];
+        this.calculatedPresent = new long[words(capacity)];
+        this.fixedPresent = new long[words(capacity)];
+    }
 
-    public PayrollContext(Employee employee) { this.employee = employee; }
-    
     public void addCalculation(String code, BigDecimal value) {
-        calculatedValues.put(code, value);
+        int slot = slots.slotOf(code);
+        ensureCapacity(slot);
+        accumulate(code, isSet(calculatedPresent, slot) ? calculatedValues[slot] : null, value);
+        calculatedValues[slot] = value;
+        calculatedPresent[slot >>> 6] |= 1L << slot;
     }
-    
+
     public void setFixedValue(String code, BigDecimal value) { // New method
-        fixedValues.put(code, value);
+        int slot = slots.slotOf(code);
+        ensureCapacity(slot);
+        accumulate(code, hasFixed(slot) ? fixedAt(slot) : null, value);
+        fixedValues[slot] = value;
+        fixedPresent[slot >>> 6] |= 1L << slot;
     }
 
     // This method needs to retrieve from both fixed and calculated, prioritizing fixed if both exist
     public BigDecimal getValue(String code) {
-        if (fixedValues.containsKey(code)) {
-            return fixedValues.get(code);
+        int slot = slots.indexOf(code);
+        return slot >= 0 ? getValue(slot) : BigDecimal.ZERO;
+    }
+
+    public BigDecimal getValue(int slot) {
+        if (isSet(fixedPresent, slot)) {
+            return fixedValues[slot];
         }
-        return calculatedValues.getOrDefault(code, BigDecimal.ZERO);
+        if (periodLayer != null && periodLayer.has(slot)) {
+            return periodLayer.get(slot);
+        }
+        return isSet(calculatedPresent, slot) ? calculatedValues[slot] : BigDecimal.ZERO;
+    }
+
+    // True if the code has either a fixed or a calculated value (without building the merged map)
+    public boolean hasValue(String code) {
+        int slot = slots.indexOf(code);
+        return slot >= 0 && hasValue(slot);
+    }
+
+    public boolean hasValue(int slot) {
+        return hasFixed(slot) || isSet(calculatedPresent, slot);
+    }
+
+    private boolean hasFixed(int slot) {
+        return isSet(fixedPresent, slot) || (periodLayer != null && periodLayer.has(slot));
+    }
+
+    // Employee value first, then the period layer
+    private BigDecimal fixedAt(int slot) {
+        return isSet(fixedPresent, slot) ? fixedValues[slot] : periodLayer.get(slot);
+    }
+
+    // Slot accessors for rules that scan every value (null when the slot has no such value)
+    BigDecimal fixedValueAt(int slot) {
+        return hasFixed(slot) ? fixedAt(slot) : null;
+    }
+
+    BigDecimal calculatedValueAt(int slot) {
+        return isSet(calculatedPresent, slot) ? calculatedValues[slot] : null;
+    }
+
+    // Running totals: add the new value; a replaced value forces a rescan
+    private void accumulate(String code, BigDecimal previous, BigDecimal value) {
+        int type = catalog.typeIndexOf(code);
+        if (type < 0) {
+            return;
+        }
+        if (previous != null) {
+            totalsStale = true;
+        } else if (value != null && !totalsStale) {
+            totals[type] = totals[type].add(value);
+        }
+    }
+
+    /**
+     * Sum of the fixed and calculated values of one concept type (e.g. EARNING), ZERO if the
+     * catalog does not have the type.
+     */
+    public BigDecimal getTotal(String type) {
+        int index = catalog.getTypes().indexOf(type);
+        return index >= 0 ? getTotal(index) : BigDecimal.ZERO;
+    }
+
+    public BigDecimal getTotalEarnings() {
+        return getTotal(ConceptCatalog.EARNING_INDEX);
+    }
+
+    public BigDecimal getTotalDeductions() {
+        return getTotal(ConceptCatalog.DEDUCTION_INDEX);
+    }
+
+    private BigDecimal getTotal(int type) {
+        if (totalsStale) {
+            recomputeTotals();
+        }
+        return totals[type];
+    }
+
+    private void recomputeTotals() {
+        Arrays.fill(totals, BigDecimal.ZERO);
+        for (int slot = 0; slot < slots.size(); slot++) {
+            int type = catalog.typeIndexOf(slots.codeAt(slot));
+            if (type < 0) {
+                continue;
+            }
+            BigDecimal fixed = fixedValueAt(slot);
+            if (fixed != null) {
+                totals[type] = totals[type].add(fixed);
+            }
+            BigDecimal calculated = calculatedValueAt(slot);
+            if (calculated != null) {
+                totals[type] = totals[type].add(calculated);
+            }
+        }
+        totalsStale = false;
+    }
+
+    public ConceptCatalog getCatalog() {
+        return catalog;
+    }
+
+    public ConceptSlots getSlots() {
+        return slots;
+    }
+
+    public PeriodLayer getPeriodLayer() {
+        return periodLayer;
     }
 
     public Employee getEmployee() {
         return employee;
     }
-    
-    /* 
+
+    public FunctionScope getFunctionScope() {
+        return functionScope;
+    }
+
+    public void setFunctionScope(FunctionScope functionScope) {
+        this.functionScope = functionScope;
+    }
+
+    /*
     public BigDecimal getEmployeeFixedValue(String code) {
         return employee.getFixedValue(code);
     }
     */
 
     public Map<String, BigDecimal> getCalculatedValues() {
-        return calculatedValues;
+        if (calculatedView == null) {
+            calculatedView = new SlotMap(false, true);
+        }
+        return calculatedView;
     }
 
     public Map<String, BigDecimal> getFixedValuesMap() {
-        return fixedValues;
+        if (fixedView == null) {
+            fixedView = new SlotMap(true, false);
+        }
+        return fixedView;
     }
 
-    // New method to expose all variables (fixed and calculated) for SpEL
+    // All variables (fixed and calculated) for SpEL; fixed values override calculated (as getValue())
     public Map<String, BigDecimal> getVariables() {
-        Map<String, BigDecimal> allVariables = new HashMap<>(calculatedValues);
-        // Fixed values override calculated (matching getValue() behavior)
-        allVariables.putAll(fixedValues);
-        return allVariables;
+        if (variablesView == null) {
+            variablesView = new SlotMap(true, true);
+        }
+        return variablesView;
+    }
+
+    private void ensureCapacity(int slot) {
+        if (slot < fixedValues.length) {
+            return;
+        }
+        int capacity = Math.max(slot + 1, fixedValues.length * 2);
+        calculatedValues = Arrays.copyOf(calculatedValues, capacity);
+        fixedValues = Arrays.copyOf(fixedValues, capacity);
+        calculatedPresent = Arrays.copyOf(calculatedPresent, words(capacity));
+        fixedPresent = Arrays.copyOf(fixedPresent, words(capacity));
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static boolean isSet(long[] bits, int slot) {
+        int word = slot >>> 6;
+        return word < bits.length && (bits[word] & (1L << slot)) != 0;
+    }
+
+    /**
+     * Read-only view over the fixed values, the calculated values or both (fixed first).
+     * Iterates in slot order.
+     */
+    private final class SlotMap extends AbstractMap<String, BigDecimal> {
+        private final boolean fixed;
+        private final boolean calculated;
+
+        SlotMap(boolean fixed, boolean calculated) {
+            this.fixed = fixed;
+            this.calculated = calculated;
+        }
+
+        private boolean contains(int slot) {
+            return (fixed && hasFixed(slot)) || (calculated && isSet(calculatedPresent, slot));
+        }
+
+        private BigDecimal valueAt(int slot) {
+            return fixed && hasFixed(slot) ? fixedAt(slot) : calculatedValues[slot];
+        }
+
+        @Override
+        public BigDecimal get(Object key) {
+            int slot = key instanceof String code ? slots.indexOf(code) : -1;
+            return slot >= 0 && contains(slot) ? valueAt(slot) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            int slot = key instanceof String code ? slots.indexOf(code) : -1;
+            return slot >= 0 && contains(slot);
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (int word = 0; word < fixedPresent.length; word++) {
+                size += Long.bitCount(presentBits(word));
+            }
+            return size;
+        }
+
+        @Override
+        public void forEach(BiConsumer<? super String, ? super BigDecimal> action) {
+            for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+                action.accept(slots.codeAt(slot), valueAt(slot));
+            }
+        }
+
+        // First slot >= from present in this view, or -1 (scans the bitsets a word at a time)
+        private int nextSlot(int from) {
+            int word = from >>> 6;
+            if (word >= fixedPresent.length) {
+                return -1;
+            }
+            long bits = presentBits(word) & (-1L << from);
+            while (bits == 0) {
+                if (++word == fixedPresent.length) {
+                    return -1;
+                }
+                bits = presentBits(word);
+            }
+            return (word << 6) + Long.numberOfTrailingZeros(bits);
+        }
+
+        private long presentBits(int word) {
+            long bits = calculated ? calculatedPresent[word] : 0;
+            if (fixed) {
+                bits |= fixedPresent[word] | (periodLayer != null ? periodLayer.presentBits(word) : 0);
+            }
+            return bits;
+        }
+
+        @Override
+        public Set<Entry<String, BigDecimal>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, BigDecimal>> iterator() {
+                    return new Iterator<>() {
+                        private int next = nextSlot(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return next >= 0;
+                        }
+
+                        @Override
+                        public Entry<String, BigDecimal> next() {
+                            if (next < 0) {
+                                throw new NoSuchElementException();
+                            }
+                            int slot = next;
+                            next = nextSlot(slot + 1);
+                            return new SimpleImmutableEntry<>(slots.codeAt(slot), valueAt(slot));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return SlotMap.this.size();
+                }
+            };
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,7 +1,6 @@
 package mx.payroll.system.engine;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 public class PayrollEngine {
@@ -17,33 +16,42 @@ public class PayrollEngine {
     }
 
     public PayrollResult calculate(PayrollContext context, List<PayrollRule> rulesToApply){
-        rulesToApply.sort(Comparator.comparingInt(PayrollRule::getOrder)); // Sort the provided rules
+        // Rules are ordered by what they read, not only by rule_order (see ConceptDependencyGraph)
+        return calculate(context, ExecutionPlan.of(rulesToApply));
+    }
 
-        // Phase 1: Execute all EARNING rules (order < 100)
-        for (PayrollRule rule: rulesToApply) {
-            if (rule.getOrder() < 100) {
-                rule.execute(context);
-            }
-        }
+    /**
+     * Runs a precomputed plan. TOTAL_EARNINGS is part of the plan and is injected into the
+     * context after every earning rule and before any rule that reads it.
+     */
+    public PayrollResult calculate(PayrollContext context, ExecutionPlan plan) {
+        plan.execute(context);
+        return toResult(context);
+    }
 
-        // Phase 2: Calculate TOTAL_EARNINGS and inject into context
-        java.math.BigDecimal totalEarnings = calculateTotalEarnings(context);
-        context.setFixedValue("TOTAL_EARNINGS", totalEarnings);
-        System.out.println("    💰 TOTAL_EARNINGS calculado: $" + totalEarnings);
+    /**
+     * Batch mode: each rule runs once over the whole chunk (see {@link ExecutionPlan#executeBatch}).
+     * The results are the same as calling {@link #calculate(PayrollContext, ExecutionPlan)} per
+     * employee; rows that fail are left out and reported by {@link PayrollBatch#getFailures()}.
+     */
+    public List<PayrollResult> calculate(PayrollBatch batch, ExecutionPlan plan) {
+        plan.executeBatch(batch);
 
-        // Phase 3: Execute all DEDUCTION rules (order >= 100)
-        for (PayrollRule rule: rulesToApply) {
-            if (rule.getOrder() >= 100) {
-                rule.execute(context);
-            }
+        List<PayrollResult> results = new ArrayList<>(batch.size());
+        for (PayrollContext context : batch.getCompleted()) {
+            results.add(toResult(context));
         }
+        return results;
+    }
 
+    private PayrollResult toResult(PayrollContext context) {
         PayrollResult result = new PayrollResult(context);
 
         // Add fixed values (from employee_concept_values) to result details
-        // Only add payroll concepts (P* or D*), exclude economic indicators like UMA
+        // Only add payroll concepts (classified by the catalog), exclude economic indicators like UMA
+        ConceptCatalog catalog = context.getCatalog();
         context.getFixedValuesMap().forEach((code, amount) -> {
-            if (code.startsWith("P") || code.startsWith("D")) {
+            if (catalog.typeIndexOf(code) >= 0) {
                 result.addDetail(code, amount, "Fixed value from employee");
             }
         });
@@ -53,31 +61,9 @@ public class PayrollEngine {
             result.addDetail(code, amount, "Calculated via formula");
         });
 
-        return result;
-    }
-
-    /**
-     * Calcula el total de percepciones (EARNINGS) sumando:
-     * - Valores fijos que comienzan con 'P' (ej: P001 del employee_concept_values)
-     * - Valores calculados que comienzan con 'P' (ej: P002, P003, P004 de las fórmulas)
-     */
-    private java.math.BigDecimal calculateTotalEarnings(PayrollContext context) {
-        java.math.BigDecimal total = java.math.BigDecimal.ZERO;
+        // Totals kept by the context as the rules wrote their values: no rescan of the details
+        result.setTotals(context.getTotalEarnings(), context.getTotalDeductions());
 
-        // Sumar valores fijos de percepciones (P001, P004, etc. del employee_concept_values)
-        for (java.util.Map.Entry<String, java.math.BigDecimal> entry : context.getFixedValuesMap().entrySet()) {
-            if (entry.getKey().startsWith("P")) {
-                total = total.add(entry.getValue());
-            }
-        }
-
-        // Sumar valores calculados de percepciones (P002, P003, etc. de las fórmulas)
-        for (java.util.Map.Entry<String, java.math.BigDecimal> entry : context.getCalculatedValues().entrySet()) {
-            if (entry.getKey().startsWith("P")) {
-                total = total.add(entry.getValue());
-            }
-        }
-
-        return total;
+        return result;
     }
 }
@@ -0,0 +1,51 @@
+package mx.payroll.system.engine;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a static method of PayrollFunctions as callable from formulas as #name(...).
+ * PayrollFunctionRegistry picks up annotated methods; nothing else needs to be registered.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface PayrollFunction {
+
+    /**
+     * How results are memoized within a payroll period.
+     */
+    enum Memo {
+        NONE,        // always call the method
+        ARGUMENTS,   // key = the arguments (e.g. the hire date)
+        ROUNDED_BASE // key = the BigDecimal argument in cents; bases with more decimals are not cached
+    }
+
+    /**
+     * Name used in formulas; defaults to the method name.
+     */
+    String value() default "";
+
+    /**
+     * True if the result depends only on the arguments (no database, no clock).
+     */
+    boolean pure() default true;
+
+    /**
+     * Memoization within a period. Impure functions can still be memoized per period when what
+     * they read (tax tables, the period dates) does not change during the run.
+     */
+    Memo memo() default Memo.NONE;
+
+    /**
+     * Maximum cached results per period; once full, new keys are computed without caching.
+     */
+    int cacheSize() default 10_000;
+
+    /**
+     * True if the method's last parameter is the period's {@link FunctionScope}. Formulas do not
+     * pass it: the scope of the evaluation is bound in (null when there is no period).
+     */
+    boolean periodBound() default false;
+}
@@ -0,0 +1,296 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.engine.formula.FormulaArithmetic;
+import mx.payroll.system.engine.formula.FormulaFunction;
+import mx.payroll.system.exception.FormulaEvaluationException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Functions callable from formulas, discovered from the {@link PayrollFunction} annotations
+ * on PayrollFunctions. Both the SpEL and the native backend take their function table from here.
+ *
+ * Memoized functions are cached per payroll period in a {@link FunctionScope}. The scopes of
+ * the most recent periods are retained so every chunk of a run shares the same caches.
+ */
+public final class PayrollFunctionRegistry {
+
+    /**
+     * A registered function: the method, its flags and an (Object[])Object invoker.
+     */
+    static final class Definition implements FormulaFunction {
+        final String name;
+        final Method method;
+        final boolean pure;
+        final PayrollFunction.Memo memo;
+        final int cacheSize;
+        final boolean periodBound;
+        private final Class<?>[] parameterTypes; // as written in formulas (without the scope)
+        private final MethodHandle target;
+        private final MethodHandle spreader;
+
+        Definition(String name, Method method, PayrollFunction annotation) throws IllegalAccessException {
+            this.name = name;
+            this.method = method;
+            this.pure = annotation.pure();
+            this.memo = annotation.memo();
+            this.cacheSize = annotation.cacheSize();
+            this.periodBound = annotation.periodBound();
+            Class<?>[] parameters = method.getParameterTypes();
+            if (periodBound && (parameters.length == 0 || parameters[parameters.length - 1] != FunctionScope.class)) {
+                throw new IllegalStateException("Period-bound @PayrollFunction must take a FunctionScope last: " + method);
+            }
+            this.parameterTypes = periodBound ? Arrays.copyOf(parameters, parameters.length - 1) : parameters;
+            this.target = MethodHandles.publicLookup().unreflect(method);
+            this.spreader = target
+                    .asSpreader(Object[].class, parameters.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+        }
+
+        @Override
+        public Object invoke(Object[] arguments) {
+            return call(arguments, null);
+        }
+
+        int arity() {
+            return parameterTypes.length;
+        }
+
+        MethodType type() {
+            return MethodType.methodType(method.getReturnType(), parameterTypes);
+        }
+
+        /**
+         * The method with the scope bound in, for SpEL; null if the function is not period-bound.
+         */
+        MethodHandle boundTo(FunctionScope scope) {
+            return periodBound ? MethodHandles.insertArguments(target, parameterTypes.length, scope) : null;
+        }
+
+        /**
+         * Converts the evaluated arguments to the parameter types and calls the method.
+         */
+        Object call(Object[] arguments, FunctionScope scope) {
+            if (arguments.length != parameterTypes.length) {
+                throw new FormulaEvaluationException("#" + name + " expects " + parameterTypes.length + " argument(s)");
+            }
+            Object[] converted = new Object[periodBound ? arguments.length + 1 : arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                converted[i] = convert(arguments[i], parameterTypes[i]);
+            }
+            if (periodBound) {
+                converted[arguments.length] = scope;
+            }
+            try {
+                return spreader.invokeExact(converted);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new FormulaEvaluationException("Error calling #" + name + ": " + e.getMessage(), e);
+            }
+        }
+
+        private static Object convert(Object value, Class<?> type) {
+            if (type == BigDecimal.class) {
+                return FormulaArithmetic.toBigDecimal(value);
+            }
+            if (type == LocalDate.class && value != null && !(value instanceof LocalDate)) {
+                throw new FormulaEvaluationException("Cannot convert '" + value.getClass().getName() + "' to LocalDate");
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Memoization counters of one function.
+     */
+    public record FunctionStats(long hits, long misses) {
+        public double hitRate() {
+            long calls = hits + misses;
+            return calls == 0 ? 0.0 : (double) hits / calls;
+        }
+    }
+
+    private static final Map<String, Definition> DEFINITIONS = scan(PayrollFunctions.class);
+    private static final Map<String, Method> METHODS = methodsOf(DEFINITIONS);
+
+    // Enough for a run plus the previous period still being finished
+    private static final int RETAINED_PERIODS = 4;
+
+    // Keyed by (start, end): a biweekly and a monthly period may end on the same day
+    private static final Map<List<LocalDate>, FunctionScope> SCOPES = new LinkedHashMap<>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<LocalDate>, FunctionScope> eldest) {
+            return size() > RETAINED_PERIODS;
+        }
+    };
+
+    // PayrollFunctions.dataVersion() the retained scopes were built with (guarded by SCOPES)
+    private static long scopesDataVersion;
+
+    // Period-bound functions called without a period (no scope bound in)
+    private static final Map<String, MethodHandle> UNSCOPED = unscopedHandles(DEFINITIONS);
+
+    private PayrollFunctionRegistry() {
+    }
+
+    /**
+     * Function name -> method, as registered in the SpEL evaluation context.
+     */
+    public static Map<String, Method> methods() {
+        return METHODS;
+    }
+
+    public static boolean isRegistered(String name) {
+        return DEFINITIONS.containsKey(name);
+    }
+
+    /**
+     * Names of functions whose result depends only on their arguments.
+     */
+    public static Set<String> pureFunctions() {
+        Set<String> pure = new HashSet<>();
+        DEFINITIONS.forEach((name, definition) -> {
+            if (definition.pure) {
+                pure.add(name);
+            }
+        });
+        return Set.copyOf(pure);
+    }
+
+    /**
+     * Number of arguments, or -1 if the function does not exist.
+     */
+    public static int arity(String name) {
+        Definition definition = DEFINITIONS.get(name);
+        return definition != null ? definition.arity() : -1;
+    }
+
+    /**
+     * The function without memoization (used when no period is known).
+     */
+    public static FormulaFunction function(String name) {
+        return definition(name);
+    }
+
+    /**
+     * The SpEL handle of a period-bound function when no period is known, or null for the others
+     * (their Method is called directly).
+     */
+    static MethodHandle unscopedHandle(String name) {
+        return UNSCOPED.get(name);
+    }
+
+    /**
+     * The shared scope of a period; created on first use. When the data the memoized functions
+     * read changes (the tax tables are reloaded), every retained scope is dropped, so the period
+     * data (the ISR table) and the memoized results are computed again.
+     */
+    public static FunctionScope scopeFor(LocalDate periodStartDate, LocalDate periodEndDate) {
+        long dataVersion = PayrollFunctions.dataVersion();
+        synchronized (SCOPES) {
+            if (dataVersion != scopesDataVersion) {
+                SCOPES.clear();
+                scopesDataVersion = dataVersion;
+            }
+            return SCOPES.computeIfAbsent(Arrays.asList(periodStartDate, periodEndDate),
+                    key -> new FunctionScope(periodStartDate, periodEndDate));
+        }
+    }
+
+    /**
+     * The shared scope of a period whose start date is unknown (treated as monthly).
+     */
+    public static FunctionScope scopeFor(LocalDate periodEndDate) {
+        return scopeFor(null, periodEndDate);
+    }
+
+    /**
+     * A fresh scope that is not shared (e.g. for previews or tests).
+     */
+    public static FunctionScope newScope(LocalDate periodStartDate, LocalDate periodEndDate) {
+        return new FunctionScope(periodStartDate, periodEndDate);
+    }
+
+    public static FunctionScope newScope(LocalDate periodEndDate) {
+        return newScope(null, periodEndDate);
+    }
+
+    /**
+     * Memoization counters added up over the retained periods.
+     */
+    public static Map<String, FunctionStats> getStats() {
+        Map<String, FunctionStats> totals = new TreeMap<>();
+        synchronized (SCOPES) {
+            for (FunctionScope scope : SCOPES.values()) {
+                scope.getStats().forEach((name, stats) -> totals.merge(name, stats,
+                        (a, b) -> new FunctionStats(a.hits() + b.hits(), a.misses() + b.misses())));
+            }
+        }
+        return totals;
+    }
+
+    static Map<String, Definition> definitions() {
+        return DEFINITIONS;
+    }
+
+    static Definition definition(String name) {
+        Definition definition = DEFINITIONS.get(name);
+        if (definition == null) {
+            throw new FormulaEvaluationException("Unknown function #" + name);
+        }
+        return definition;
+    }
+
+    private static Map<String, Definition> scan(Class<?> type) {
+        Map<String, Definition> definitions = new HashMap<>();
+        for (Method method : type.getMethods()) {
+            PayrollFunction annotation = method.getAnnotation(PayrollFunction.class);
+            if (annotation == null) {
+                continue;
+            }
+            if (!Modifier.isStatic(method.getModifiers())) {
+                throw new IllegalStateException("@PayrollFunction must be static: " + method);
+            }
+            String name = annotation.value().isEmpty() ? method.getName() : annotation.value();
+            try {
+                if (definitions.put(name, new Definition(name, method, annotation)) != null) {
+                    throw new IllegalStateException("Duplicate @PayrollFunction name: " + name);
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot access @PayrollFunction " + method, e);
+            }
+        }
+        return Map.copyOf(definitions);
+    }
+
+    private static Map<String, MethodHandle> unscopedHandles(Map<String, Definition> definitions) {
+        Map<String, MethodHandle> handles = new HashMap<>();
+        definitions.forEach((name, definition) -> {
+            if (definition.periodBound) {
+                handles.put(name, definition.boundTo(null));
+            }
+        });
+        return Map.copyOf(handles);
+    }
+
+    private static Map<String, Method> methodsOf(Map<String, Definition> definitions) {
+        Map<String, Method> methods = new HashMap<>();
+        definitions.forEach((name, definition) -> methods.put(name, definition.method));
+        return Map.copyOf(methods);
+    }
+}
@@ -1,16 +1,25 @@
 package mx.payroll.system.engine;
 
 import mx.payroll.system.service.TaxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PayrollFunctions {
 
+    private static final Logger log = LoggerFactory.getLogger(PayrollFunctions.class);
+    private static final BigDecimal IMSS_RATE = new BigDecimal("0.027");
+    private static final AtomicBoolean FALLBACK_WARNED = new AtomicBoolean();
+
     // Instance variable to hold TaxService (will be set by FormulaEngine)
     private static TaxService taxService;
 
+    private static final String ISR_TABLE = "calcularISR.table";
+
     /**
      * Sets the TaxService instance to be used by calcularISR
      * This is called by FormulaEngine during initialization
@@ -19,44 +28,92 @@ public class PayrollFunctions {
         taxService = service;
     }
 
+    /**
+     * Version of the data the memoized functions read (the ISR tables). When it moves,
+     * PayrollFunctionRegistry drops the period scopes and their memoized results
+     */
+    static long dataVersion() {
+        TaxService service = taxService;
+        return service != null ? service.tablesVersion() : 0;
+    }
+
+    @PayrollFunction(memo = PayrollFunction.Memo.ARGUMENTS)
     public static double diasTrabajadosAnio(LocalDate hireDate) {
         if (hireDate == null) return 0;
         return 365.0; // Simplification
     }
 
-    public static int diasVacaciones(LocalDate hireDate) {
+    // La antigüedad se mide al fin del periodo (no a la fecha de ejecución): dentro de un periodo
+    // el resultado solo depende de la fecha de ingreso y se memoiza por ella.
+    // Sin periodo se mide a la fecha actual
+    @PayrollFunction(pure = false, memo = PayrollFunction.Memo.ARGUMENTS, periodBound = true)
+    public static int diasVacaciones(LocalDate hireDate, FunctionScope scope) {
         if (hireDate == null) return 0;
-        long years = ChronoUnit.YEARS.between(hireDate, LocalDate.now());
+        LocalDate asOf = scope != null && scope.getPeriodEndDate() != null ? scope.getPeriodEndDate() : LocalDate.now();
+        long years = ChronoUnit.YEARS.between(hireDate, asOf);
         if (years < 1) return 0;
         if (years == 1) return 12;
         return 12 + ((int)years - 1) * 2; // Simplification
     }
 
+    @PayrollFunction
     public static BigDecimal calcularIMSS(BigDecimal salary, BigDecimal uma) {
         if (salary == null) return BigDecimal.ZERO;
-        System.out.println("    💊 IMSS: $" + salary + " × 2.7% = $" + salary.multiply(new BigDecimal("0.027")));
-        return salary.multiply(new BigDecimal("0.027")); // 2.7% simplification
+        BigDecimal imss = salary.multiply(IMSS_RATE); // 2.7% simplification
+        CalculationTrace.trace("IMSS: ${} × 2.7% = ${}", salary, imss);
+        return imss;
     }
 
     /**
      * Calcula el ISR usando las tablas fiscales reales de México
      * Si TaxService no está disponible, usa simplificación del 10%
+     * Usa la tabla del periodo (año fiscal y frecuencia), resuelta una vez por periodo;
+     * dentro del periodo se memoiza por base gravable (en centavos).
+     * Sin periodo usa la tabla MENSUAL del año en curso.
      */
-    public static BigDecimal calcularISR(BigDecimal amount) {
+    @PayrollFunction(pure = false, memo = PayrollFunction.Memo.ROUNDED_BASE, periodBound = true)
+    public static BigDecimal calcularISR(BigDecimal amount, FunctionScope scope) {
         if (amount == null || amount.compareTo(BigDecimal.ZERO) <= 0) {
-            System.out.println("    📊 ISR: Base gravable = $0, ISR = $0.00");
+            CalculationTrace.trace("ISR: base gravable = $0, ISR = $0.00");
             return BigDecimal.ZERO;
         }
 
         if (taxService != null) {
             // Usar el servicio real con tablas fiscales
-            return taxService.calculateISR(amount);
+            if (scope == null) {
+                return taxService.calculateISR(amount);
+            }
+            TaxService service = taxService;
+            return service.calculateISR(amount, isrTable(service, scope));
         } else {
             // Fallback: simplificación del 10%
-            System.err.println("    ⚠️  TaxService no disponible, usando simplificación 10%");
+            if (FALLBACK_WARNED.compareAndSet(false, true)) {
+                log.warn("TaxService no disponible, usando simplificación 10% para el ISR");
+            }
             BigDecimal isr = amount.multiply(new BigDecimal("0.10"));
-            System.out.println("    📊 ISR (simplificado): $" + amount + " × 10% = $" + isr);
+            CalculationTrace.trace("ISR (simplificado): ${} × 10% = ${}", amount, isr);
             return isr;
         }
     }
+
+    /**
+     * Refreshes stale ISR tables and loads the period data of the period-bound functions (the ISR
+     * table) into the period's shared scope, so the calculation itself, possibly on a pool thread,
+     * never reads the database. Called when the execution plan is built, which holds a database permit.
+     */
+    public static void preloadPeriodData(LocalDate periodStartDate, LocalDate periodEndDate) {
+        TaxService service = taxService;
+        if (service != null) {
+            service.refreshIfStale();
+        }
+        FunctionScope scope = PayrollFunctionRegistry.scopeFor(periodStartDate, periodEndDate);
+        if (service != null) {
+            isrTable(service, scope);
+        }
+    }
+
+    private static TaxService.TaxBrackets isrTable(TaxService service, FunctionScope scope) {
+        return scope.periodData(ISR_TABLE,
+                () -> service.bracketsFor(scope.getPeriodStartDate(), scope.getPeriodEndDate()));
+    }
 }
@@ -6,7 +6,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "payroll_results")
+// Misma llave única que schema.sql: PayrollResultWriter hace upsert por (employee_id, period_id)
+@Table(name = "payroll_results", uniqueConstraints = @UniqueConstraint(
+        name = "idx_payroll_unique_employee_period", columnNames = {"employee_id", "period_id"}))
 public class PayrollResult {
 
     @Id
@@ -49,6 +51,16 @@ public class PayrollResult {
         this.details.add(detail);
     }
 
+    /**
+     * Totales acumulados por el motor (PayrollContext) al calcular: se guardan tal cual,
+     * sin volver a recorrer los detalles
+     */
+    public void setTotals(BigDecimal totalEarnings, BigDecimal totalDeductions) {
+        this.totalEarnings = totalEarnings;
+        this.totalDeductions = totalDeductions;
+        this.netPay = totalEarnings.subtract(totalDeductions);
+    }
+
     /**
      * Calcula y persiste los totales antes de guardar en la base de datos
      * Se ejecuta automáticamente antes de INSERT o UPDATE
@@ -61,6 +73,23 @@ public class PayrollResult {
         this.netPay = calculateNetPay();
     }
 
+    /**
+     * Completa solo los totales que falten (resultados armados fuera del motor), conservando los
+     * acumulados por el motor. La usa PayrollResultWriter al guardar por JDBC, donde no corren
+     * los callbacks de JPA
+     */
+    public void fillMissingTotals() {
+        if (totalEarnings == null) {
+            this.totalEarnings = calculateTotalEarnings();
+        }
+        if (totalDeductions == null) {
+            this.totalDeductions = calculateTotalDeductions();
+        }
+        if (netPay == null) {
+            this.netPay = totalEarnings.subtract(totalDeductions);
+        }
+    }
+
     // Getters and Setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -129,10 +158,7 @@ public class PayrollResult {
      * Considera conceptos que comienzan con 'P' como percepciones
      */
     private BigDecimal calculateTotalEarnings() {
-        return details.stream()
-            .filter(detail -> detail.getConceptCode().startsWith("P"))
-            .map(PayrollResultDetail::getCalculatedAmount)
-            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return sumDetails('P');
     }
 
     /**
@@ -140,10 +166,7 @@ public class PayrollResult {
      * Considera conceptos que comienzan con 'D' como deducciones
      */
     private BigDecimal calculateTotalDeductions() {
-        return details.stream()
-            .filter(detail -> detail.getConceptCode().startsWith("D"))
-            .map(PayrollResultDetail::getCalculatedAmount)
-            .reduce(BigDecimal.ZERO, BigDecimal::add);
+        return sumDetails('D');
     }
 
     /**
@@ -151,8 +174,17 @@ public class PayrollResult {
      * Fórmula: Percepciones - Deducciones
      */
     private BigDecimal calculateNetPay() {
-        BigDecimal earnings = calculateTotalEarnings();
-        BigDecimal deductions = calculateTotalDeductions();
-        return earnings.subtract(deductions);
+        return getTotalEarnings().subtract(getTotalDeductions());
+    }
+
+    private BigDecimal sumDetails(char prefix) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (PayrollResultDetail detail : details) {
+            String code = detail.getConceptCode();
+            if (!code.isEmpty() && code.charAt(0) == prefix) {
+                total = total.add(detail.getCalculatedAmount());
+            }
+        }
+        return total;
     }
 }
@@ -1,7 +1,35 @@
 package mx.payroll.system.engine;
 
+import java.util.Set;
+
 public interface PayrollRule {
     String getCode();
     int getOrder();
     void execute(PayrollContext context);
-}
\ No newline at end of file
+
+    /**
+     * Codes this rule reads from the context. Used by ConceptDependencyGraph to order
+     * rules; a rule that declares nothing only depends on values loaded before calculation.
+     */
+    default Set<String> getDependencies() {
+        return Set.of();
+    }
+
+    /**
+     * Runs the rule for every row of a batch that has not failed. The default runs
+     * {@link #execute(PayrollContext)} row by row; rules that can evaluate a whole column
+     * at once (DynamicDbRule on the native backend) override it.
+     */
+    default void executeBatch(PayrollBatch batch) {
+        for (int row = 0; row < batch.size(); row++) {
+            if (batch.isFailed(row)) {
+                continue;
+            }
+            try {
+                execute(batch.getContext(row));
+            } catch (RuntimeException e) {
+                batch.fail(row, e);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package mx.payroll.system.engine;
 
 import java.math.BigDecimal;
+import java.util.Set;
 
 public class PercentageDeductionRule implements PayrollRule {
     private String code;
@@ -19,6 +20,8 @@ public class PercentageDeductionRule implements PayrollRule {
     public int getOrder() { return order; }
     @Override
     public String getCode() { return code; }
+    @Override
+    public Set<String> getDependencies() { return Set.of(targetCode); }
 
     @Override
     public void execute(PayrollContext context) {
@@ -0,0 +1,107 @@
+package mx.payroll.system.engine;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Values that are the same for every employee of a period (economic indicators such as UMA),
+ * stored once in the slots of the period's plan and shared read-only by every PayrollContext
+ * built from it, instead of being copied into each employee's fixed values.
+ *
+ * The layer also carries its totals per concept type, so a context starts from them instead
+ * of classifying the period values again for every employee.
+ *
+ * Immutable and safe to share between threads.
+ */
+public final class PeriodLayer {
+
+    private final ConceptSlots slots;
+    private final ConceptCatalog catalog;
+    private final BigDecimal[] values;
+    private final int[] types; // type index per slot (-1: not aggregated)
+    private final BigDecimal[] totals; // per type of the catalog
+    private final long[] present; // bit per slot
+    private final int size;
+
+    private PeriodLayer(ConceptSlots slots, ConceptCatalog catalog, BigDecimal[] values, int[] types,
+                        BigDecimal[] totals, long[] present, int size) {
+        this.slots = slots;
+        this.catalog = catalog;
+        this.values = values;
+        this.types = types;
+        this.totals = totals;
+        this.present = present;
+        this.size = size;
+    }
+
+    /**
+     * @param values code -> value; null values are kept (they read as null, as a fixed value would)
+     */
+    public static PeriodLayer of(ConceptSlots slots, ConceptCatalog catalog, Map<String, BigDecimal> values) {
+        int[] assigned = new int[values.size()];
+        int i = 0;
+        for (String code : values.keySet()) {
+            assigned[i++] = slots.slotOf(code);
+        }
+        int capacity = Arrays.stream(assigned).max().orElse(-1) + 1;
+        BigDecimal[] stored = new BigDecimal[capacity];
+        int[] types = new int[capacity];
+        BigDecimal[] totals = new BigDecimal[catalog.getTypes().size()];
+        Arrays.fill(totals, BigDecimal.ZERO);
+        long[] bits = new long[(capacity + 63) >>> 6];
+        i = 0;
+        for (Map.Entry<String, BigDecimal> entry : values.entrySet()) {
+            int slot = assigned[i++];
+            int type = catalog.typeIndexOf(entry.getKey());
+            stored[slot] = entry.getValue();
+            types[slot] = type;
+            bits[slot >>> 6] |= 1L << slot;
+            if (type >= 0 && entry.getValue() != null) {
+                totals[type] = totals[type].add(entry.getValue());
+            }
+        }
+        return new PeriodLayer(slots, catalog, stored, types, totals, bits, values.size());
+    }
+
+    public ConceptSlots getSlots() {
+        return slots;
+    }
+
+    public ConceptCatalog getCatalog() {
+        return catalog;
+    }
+
+    // Type index of a slot present in the layer
+    int typeAt(int slot) {
+        return types[slot];
+    }
+
+    // Copy of the totals per type, the starting point of a context's running totals
+    BigDecimal[] copyTotals() {
+        return totals.clone();
+    }
+
+    public boolean has(int slot) {
+        int word = slot >>> 6;
+        return word < present.length && (present[word] & (1L << slot)) != 0;
+    }
+
+    public boolean has(String code) {
+        int slot = slots.indexOf(code);
+        return slot >= 0 && has(slot);
+    }
+
+    public BigDecimal get(int slot) {
+        return has(slot) ? values[slot] : null;
+    }
+
+    // Presence bits of one 64-slot word (0 past the end), for the context's merged views
+    long presentBits(int word) {
+        return word < present.length ? present[word] : 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,35 @@
+package mx.payroll.system.engine;
+
+import java.math.BigDecimal;
+
+/**
+ * Synthetic rule that publishes TOTAL_EARNINGS (sum of all EARNING concepts) into the context.
+ *
+ * ConceptDependencyGraph makes it depend on every earning rule, so formulas that read
+ * #TOTAL_EARNINGS (e.g. ISR) always run after the earnings they add up.
+ */
+public class TotalEarningsRule implements PayrollRule {
+
+    public static final String CODE = "TOTAL_EARNINGS";
+
+    // Boundary between the earning (< 100) and deduction (>= 100) rule_order ranges
+    private static final int ORDER = 100;
+
+    @Override
+    public String getCode() {
+        return CODE;
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+
+    @Override
+    public void execute(PayrollContext context) {
+        // Total acumulado por el contexto conforme cada regla escribe (ver ConceptCatalog)
+        BigDecimal totalEarnings = context.getTotalEarnings();
+        context.setFixedValue(CODE, totalEarnings);
+        CalculationTrace.trace("TOTAL_EARNINGS calculado: ${}", totalEarnings);
+    }
+}
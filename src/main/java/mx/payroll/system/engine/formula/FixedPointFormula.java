@@ -0,0 +1,277 @@
+package mx.payroll.system.engine.formula;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * A native formula evaluated on scaled longs instead of BigDecimal.
+ *
+ * Every intermediate value is an unscaled long together with the scale BigDecimal would
+ * give it: add and subtract keep the larger scale, multiply adds the scales, and divide
+ * rounds HALF_EVEN to the larger operand scale (as {@link FormulaArithmetic} does). The
+ * value is therefore exactly the BigDecimal the regular path computes, and rounding it to
+ * the result scale gives the same amount.
+ *
+ * Only #VARIABLES, literals, + - * /, unary minus and .min/.max compile. Subexpressions
+ * made of literals only are evaluated once at compile time with FormulaArithmetic, so
+ * doubles such as 30 * 0.40 keep their exact SpEL value. When a value does not fit (long
+ * overflow, scale above {@link #MAX_SCALE}, a variable that is not a BigDecimal, division
+ * by zero) {@link #evaluate} returns null and the caller uses the BigDecimal body.
+ */
+public final class FixedPointFormula {
+
+    /**
+     * Compiled node: returns the unscaled value and stores its scale in scale[0].
+     */
+    @FunctionalInterface
+    interface Node {
+        long evaluate(long[] units, int[] scales, int[] scale);
+    }
+
+    // Largest scale whose power of ten fits in a long
+    public static final int MAX_SCALE = 18;
+
+    private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i <= MAX_SCALE; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // Thrown (never filled in) when a value leaves the long range; only the fallback sees it
+    private static final ArithmeticException OUT_OF_RANGE = new ArithmeticException("Fixed-point range exceeded");
+
+    // A subexpression that cannot run on longs (function call, %, non-BigDecimal receiver)
+    private static final class NotSupported extends RuntimeException {
+        NotSupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Node body;
+    private final int variableCount;
+
+    private FixedPointFormula(Node body, int variableCount) {
+        this.body = body;
+        this.variableCount = variableCount;
+    }
+
+    /**
+     * @param ast   the tree the native formula was compiled from
+     * @param slots variable name -> slot index, as assigned by NativeFormulaCompiler
+     * @return the fixed-point form, or null if the formula uses something it does not cover
+     */
+    static FixedPointFormula compile(FormulaNode ast, Map<String, Integer> slots) {
+        try {
+            return new FixedPointFormula(compileNode(ast, slots), slots.size());
+        } catch (NotSupported e) {
+            return null;
+        }
+    }
+
+    /**
+     * Evaluates against the loaded slots of the native formula.
+     *
+     * @return the result rounded HALF_EVEN to resultScale, or null if it must be computed
+     *         with BigDecimal
+     */
+    public BigDecimal evaluate(Object[] slots, int resultScale) {
+        long[] units = new long[variableCount];
+        int[] scales = new int[variableCount];
+        for (int i = 0; i < variableCount; i++) {
+            if (!(slots[i] instanceof BigDecimal value)
+                    || value.scale() < 0 || value.scale() > MAX_SCALE || value.precision() > MAX_SCALE) {
+                return null;
+            }
+            units[i] = value.unscaledValue().longValue();
+            scales[i] = value.scale();
+        }
+        int[] scale = new int[1];
+        try {
+            long value = body.evaluate(units, scales, scale);
+            if (resultScale >= scale[0]) {
+                return BigDecimal.valueOf(Math.multiplyExact(value, powerOfTen(resultScale - scale[0])), resultScale);
+            }
+            return BigDecimal.valueOf(divideHalfEven(value, powerOfTen(scale[0] - resultScale)), resultScale);
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private static Node compileNode(FormulaNode node, Map<String, Integer> slots) {
+        Number constant = constantValue(node);
+        if (constant != null) {
+            return constant(constant);
+        }
+        if (node instanceof FormulaNode.Variable variable) {
+            Integer slot = slots.get(variable.name());
+            if (slot == null) {
+                throw new NotSupported();
+            }
+            int index = slot;
+            return (units, scales, scale) -> {
+                scale[0] = scales[index];
+                return units[index];
+            };
+        }
+        if (node instanceof FormulaNode.BinaryOperation operation) {
+            Node left = compileNode(operation.left(), slots);
+            Node right = compileNode(operation.right(), slots);
+            return switch (operation.operator()) {
+                case '+' -> (units, scales, scale) -> add(left, right, false, units, scales, scale);
+                case '-' -> (units, scales, scale) -> add(left, right, true, units, scales, scale);
+                case '*' -> (units, scales, scale) -> multiply(left, right, units, scales, scale);
+                case '/' -> (units, scales, scale) -> divide(left, right, units, scales, scale);
+                default -> throw new NotSupported();
+            };
+        }
+        if (node instanceof FormulaNode.Negation negation) {
+            Node operand = compileNode(negation.operand(), slots);
+            return (units, scales, scale) -> Math.negateExact(operand.evaluate(units, scales, scale));
+        }
+        if (node instanceof FormulaNode.MethodCall call && call.arguments().size() == 1
+                && ("min".equals(call.name()) || "max".equals(call.name()))) {
+            Node target = compileNode(call.target(), slots);
+            Node argument = compileNode(call.arguments().get(0), slots);
+            boolean min = "min".equals(call.name());
+            return (units, scales, scale) -> minMax(target, argument, min, units, scales, scale);
+        }
+        throw new NotSupported();
+    }
+
+    // Literal-only subexpressions, computed exactly as the regular path would; null otherwise
+    private static Number constantValue(FormulaNode node) {
+        try {
+            if (node instanceof FormulaNode.NumberLiteral literal) {
+                return literal.value();
+            }
+            if (node instanceof FormulaNode.Negation negation) {
+                Number operand = constantValue(negation.operand());
+                return operand != null ? (Number) FormulaArithmetic.negate(operand) : null;
+            }
+            if (node instanceof FormulaNode.BinaryOperation operation) {
+                Number left = constantValue(operation.left());
+                Number right = constantValue(operation.right());
+                if (left == null || right == null) {
+                    return null;
+                }
+                return (Number) FormulaArithmetic.apply(operation.operator(), left, right);
+            }
+            if (node instanceof FormulaNode.MethodCall call) {
+                Number target = constantValue(call.target());
+                if (target != null && !(target instanceof BigDecimal)) {
+                    // Fails at run time (no min/max on Integer, Double...): leave it to the regular path
+                    throw new NotSupported();
+                }
+                return null;
+            }
+            return null;
+        } catch (NotSupported e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // e.g. division by zero between literals: must fail per employee as before
+            throw new NotSupported();
+        }
+    }
+
+    private static Node constant(Number number) {
+        BigDecimal value;
+        try {
+            value = FormulaArithmetic.toBigDecimal(number);
+        } catch (RuntimeException e) {
+            // NaN or Infinity
+            throw new NotSupported();
+        }
+        if (value.scale() < 0 || value.scale() > MAX_SCALE || value.precision() > MAX_SCALE) {
+            throw new NotSupported();
+        }
+        long unscaled = value.unscaledValue().longValue();
+        int valueScale = value.scale();
+        return (units, scales, scale) -> {
+            scale[0] = valueScale;
+            return unscaled;
+        };
+    }
+
+    private static long add(Node left, Node right, boolean subtract, long[] units, int[] scales, int[] scale) {
+        long l = left.evaluate(units, scales, scale);
+        int ls = scale[0];
+        long r = right.evaluate(units, scales, scale);
+        int rs = scale[0];
+        int s = Math.max(ls, rs);
+        l = rescale(l, ls, s);
+        r = rescale(r, rs, s);
+        scale[0] = s;
+        return subtract ? Math.subtractExact(l, r) : Math.addExact(l, r);
+    }
+
+    private static long multiply(Node left, Node right, long[] units, int[] scales, int[] scale) {
+        long l = left.evaluate(units, scales, scale);
+        int ls = scale[0];
+        long r = right.evaluate(units, scales, scale);
+        int rs = scale[0];
+        scale[0] = checkScale(ls + rs);
+        return Math.multiplyExact(l, r);
+    }
+
+    // BigDecimal.divide(right, max(ls, rs), HALF_EVEN)
+    private static long divide(Node left, Node right, long[] units, int[] scales, int[] scale) {
+        long l = left.evaluate(units, scales, scale);
+        int ls = scale[0];
+        long r = right.evaluate(units, scales, scale);
+        int rs = scale[0];
+        if (r == 0) {
+            throw OUT_OF_RANGE;
+        }
+        int s = Math.max(ls, rs);
+        scale[0] = s;
+        return divideHalfEven(Math.multiplyExact(l, powerOfTen(s - ls + rs)), r);
+    }
+
+    // BigDecimal.min/max return the receiver on ties, with its own scale
+    private static long minMax(Node target, Node argument, boolean min, long[] units, int[] scales, int[] scale) {
+        long t = target.evaluate(units, scales, scale);
+        int ts = scale[0];
+        long a = argument.evaluate(units, scales, scale);
+        int as = scale[0];
+        int s = Math.max(ts, as);
+        int comparison = Long.compare(rescale(t, ts, s), rescale(a, as, s));
+        boolean receiver = min ? comparison <= 0 : comparison >= 0;
+        scale[0] = receiver ? ts : as;
+        return receiver ? t : a;
+    }
+
+    private static long rescale(long unscaled, int from, int to) {
+        return from == to ? unscaled : Math.multiplyExact(unscaled, powerOfTen(to - from));
+    }
+
+    private static int checkScale(int scale) {
+        if (scale > MAX_SCALE) {
+            throw OUT_OF_RANGE;
+        }
+        return scale;
+    }
+
+    private static long powerOfTen(int exponent) {
+        return POWERS_OF_TEN[checkScale(exponent)];
+    }
+
+    static long divideHalfEven(long dividend, long divisor) {
+        if (dividend == Long.MIN_VALUE || divisor == Long.MIN_VALUE) {
+            throw OUT_OF_RANGE;
+        }
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (remainder == 0) {
+            return quotient;
+        }
+        long absRemainder = Math.abs(remainder);
+        int half = Long.compare(absRemainder, Math.abs(divisor) - absRemainder);
+        if (half > 0 || (half == 0 && (quotient & 1) != 0)) {
+            return (dividend < 0) != (divisor < 0) ? quotient - 1 : quotient + 1;
+        }
+        return quotient;
+    }
+}
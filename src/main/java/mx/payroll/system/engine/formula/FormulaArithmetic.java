@@ -0,0 +1,174 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.exception.FormulaEvaluationException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * Numeric operators with SpEL's promotion rules, so native formulas produce exactly
+ * the values the interpreter produces.
+ *
+ * BigDecimal wins over Double, Double over Float, then BigInteger, Long and int.
+ * Non-BigDecimal operands are converted with new BigDecimal(toString()), and
+ * BigDecimal division keeps the larger operand scale with HALF_EVEN (as OpDivide does).
+ */
+public final class FormulaArithmetic {
+
+    private FormulaArithmetic() {
+    }
+
+    public static Object apply(char operator, Object left, Object right) {
+        if (!(left instanceof Number l) || !(right instanceof Number r)) {
+            throw new FormulaEvaluationException("Operator '" + operator + "' not supported between types '"
+                    + typeName(left) + "' and '" + typeName(right) + "'");
+        }
+        return switch (operator) {
+            case '+' -> add(l, r);
+            case '-' -> subtract(l, r);
+            case '*' -> multiply(l, r);
+            case '/' -> divide(l, r);
+            case '%' -> remainder(l, r);
+            default -> throw new FormulaEvaluationException("Unknown operator '" + operator + "'");
+        };
+    }
+
+    public static Object negate(Object operand) {
+        if (operand instanceof BigDecimal d) {
+            return d.negate();
+        } else if (operand instanceof Double d) {
+            return -d;
+        } else if (operand instanceof Float f) {
+            return -f;
+        } else if (operand instanceof BigInteger i) {
+            return i.negate();
+        } else if (operand instanceof Long l) {
+            return -l;
+        } else if (isIntegral(operand)) {
+            return -((Number) operand).intValue();
+        } else if (operand instanceof Number n) {
+            return -n.doubleValue();
+        }
+        throw new FormulaEvaluationException("Operator '-' not supported on type '" + typeName(operand) + "'");
+    }
+
+    static Object add(Number l, Number r) {
+        if (l instanceof BigDecimal || r instanceof BigDecimal) {
+            return toBigDecimal(l).add(toBigDecimal(r));
+        } else if (l instanceof Double || r instanceof Double) {
+            return l.doubleValue() + r.doubleValue();
+        } else if (l instanceof Float || r instanceof Float) {
+            return l.floatValue() + r.floatValue();
+        } else if (l instanceof BigInteger || r instanceof BigInteger) {
+            return toBigInteger(l).add(toBigInteger(r));
+        } else if (l instanceof Long || r instanceof Long) {
+            return l.longValue() + r.longValue();
+        } else if (isIntegral(l) || isIntegral(r)) {
+            return l.intValue() + r.intValue();
+        }
+        return l.doubleValue() + r.doubleValue();
+    }
+
+    static Object subtract(Number l, Number r) {
+        if (l instanceof BigDecimal || r instanceof BigDecimal) {
+            return toBigDecimal(l).subtract(toBigDecimal(r));
+        } else if (l instanceof Double || r instanceof Double) {
+            return l.doubleValue() - r.doubleValue();
+        } else if (l instanceof Float || r instanceof Float) {
+            return l.floatValue() - r.floatValue();
+        } else if (l instanceof BigInteger || r instanceof BigInteger) {
+            return toBigInteger(l).subtract(toBigInteger(r));
+        } else if (l instanceof Long || r instanceof Long) {
+            return l.longValue() - r.longValue();
+        } else if (isIntegral(l) || isIntegral(r)) {
+            return l.intValue() - r.intValue();
+        }
+        return l.doubleValue() - r.doubleValue();
+    }
+
+    static Object multiply(Number l, Number r) {
+        if (l instanceof BigDecimal || r instanceof BigDecimal) {
+            return toBigDecimal(l).multiply(toBigDecimal(r));
+        } else if (l instanceof Double || r instanceof Double) {
+            return l.doubleValue() * r.doubleValue();
+        } else if (l instanceof Float || r instanceof Float) {
+            return l.floatValue() * r.floatValue();
+        } else if (l instanceof BigInteger || r instanceof BigInteger) {
+            return toBigInteger(l).multiply(toBigInteger(r));
+        } else if (l instanceof Long || r instanceof Long) {
+            return l.longValue() * r.longValue();
+        } else if (isIntegral(l) || isIntegral(r)) {
+            return l.intValue() * r.intValue();
+        }
+        return l.doubleValue() * r.doubleValue();
+    }
+
+    static Object divide(Number l, Number r) {
+        if (l instanceof BigDecimal || r instanceof BigDecimal) {
+            BigDecimal left = toBigDecimal(l);
+            BigDecimal right = toBigDecimal(r);
+            int scale = Math.max(left.scale(), right.scale());
+            return left.divide(right, scale, RoundingMode.HALF_EVEN);
+        } else if (l instanceof Double || r instanceof Double) {
+            return l.doubleValue() / r.doubleValue();
+        } else if (l instanceof Float || r instanceof Float) {
+            return l.floatValue() / r.floatValue();
+        } else if (l instanceof BigInteger || r instanceof BigInteger) {
+            return toBigInteger(l).divide(toBigInteger(r));
+        } else if (l instanceof Long || r instanceof Long) {
+            return l.longValue() / r.longValue();
+        } else if (isIntegral(l) || isIntegral(r)) {
+            return l.intValue() / r.intValue();
+        }
+        return l.doubleValue() / r.doubleValue();
+    }
+
+    static Object remainder(Number l, Number r) {
+        if (l instanceof BigDecimal || r instanceof BigDecimal) {
+            return toBigDecimal(l).remainder(toBigDecimal(r));
+        } else if (l instanceof Double || r instanceof Double) {
+            return l.doubleValue() % r.doubleValue();
+        } else if (l instanceof Float || r instanceof Float) {
+            return l.floatValue() % r.floatValue();
+        } else if (l instanceof BigInteger || r instanceof BigInteger) {
+            return toBigInteger(l).remainder(toBigInteger(r));
+        } else if (l instanceof Long || r instanceof Long) {
+            return l.longValue() % r.longValue();
+        } else if (isIntegral(l) || isIntegral(r)) {
+            return l.intValue() % r.intValue();
+        }
+        return l.doubleValue() % r.doubleValue();
+    }
+
+    /**
+     * Same conversion SpEL's type converter applies (NumberUtils.convertNumberToTargetClass).
+     */
+    public static BigDecimal toBigDecimal(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof BigDecimal d) {
+            return d;
+        }
+        if (value instanceof Number n) {
+            return new BigDecimal(n.toString());
+        }
+        throw new FormulaEvaluationException("Cannot convert '" + typeName(value) + "' to BigDecimal");
+    }
+
+    private static BigInteger toBigInteger(Number value) {
+        if (value instanceof BigInteger i) {
+            return i;
+        }
+        return BigInteger.valueOf(value.longValue());
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Short || value instanceof Byte;
+    }
+
+    private static String typeName(Object value) {
+        return value == null ? "null" : value.getClass().getName();
+    }
+}
@@ -0,0 +1,10 @@
+package mx.payroll.system.engine.formula;
+
+/**
+ * A #function(...) callable from native formulas. Arguments arrive as evaluated,
+ * before any conversion to the parameter types.
+ */
+@FunctionalInterface
+public interface FormulaFunction {
+    Object invoke(Object[] arguments);
+}
@@ -0,0 +1,30 @@
+package mx.payroll.system.engine.formula;
+
+import java.util.List;
+
+/**
+ * AST of the formula dialect stored in concept_formulas.
+ *
+ * It covers the subset of SpEL the payroll formulas use: numeric literals, #VARIABLES,
+ * + - * / %, unary minus, #function(...) calls and .min(...)/.max(...) on values.
+ */
+public sealed interface FormulaNode {
+
+    record NumberLiteral(Number value) implements FormulaNode {
+    }
+
+    record Variable(String name) implements FormulaNode {
+    }
+
+    record BinaryOperation(char operator, FormulaNode left, FormulaNode right) implements FormulaNode {
+    }
+
+    record Negation(FormulaNode operand) implements FormulaNode {
+    }
+
+    record FunctionCall(String name, List<FormulaNode> arguments) implements FormulaNode {
+    }
+
+    record MethodCall(FormulaNode target, String name, List<FormulaNode> arguments) implements FormulaNode {
+    }
+}
@@ -0,0 +1,111 @@
+package mx.payroll.system.engine.formula;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a formula for one payroll period before the per-employee loop.
+ *
+ * Variables that are constant for the whole period (economic indicators such as UMA) are
+ * replaced by their values, and every operation whose operands are then all constant is
+ * evaluated once and folded into a literal, e.g. (#P001 * 0.10).min(#UMA * 30 * 0.40)
+ * becomes (#P001 * 0.10).min(43.428) for UMA = 108.57.
+ *
+ * Folding uses {@link FormulaArithmetic}, so folded values are exactly what the employee
+ * loop would have computed. Operations are never reassociated: #P001 * 30 * 0.40 parses as
+ * (#P001 * 30) * 0.40 and stays as is. Function calls are not folded (they may read the
+ * database or the clock). An operation that fails while folding (e.g. division by zero)
+ * is left in place so it fails per employee exactly as before.
+ */
+public final class FormulaOptimizer {
+
+    /**
+     * The rewritten tree, how many operations were folded and which variables were substituted.
+     */
+    public record Result(FormulaNode node, int hoistedOperations, Set<String> substitutedVariables) {
+        public boolean isChanged() {
+            return hoistedOperations > 0 || !substitutedVariables.isEmpty();
+        }
+    }
+
+    private final Map<String, ? extends Number> invariants;
+    private final Set<String> substituted = new LinkedHashSet<>();
+    private int hoisted;
+
+    private FormulaOptimizer(Map<String, ? extends Number> invariants) {
+        this.invariants = invariants;
+    }
+
+    /**
+     * @param ast        the parsed formula
+     * @param invariants period-level values by variable name; codes missing here stay variables
+     */
+    public static Result hoist(FormulaNode ast, Map<String, ? extends Number> invariants) {
+        FormulaOptimizer optimizer = new FormulaOptimizer(invariants);
+        FormulaNode node = optimizer.rewrite(ast);
+        return new Result(node, optimizer.hoisted, Set.copyOf(optimizer.substituted));
+    }
+
+    private FormulaNode rewrite(FormulaNode node) {
+        if (node instanceof FormulaNode.Variable variable) {
+            Number value = invariants.get(variable.name());
+            if (value == null) {
+                return node;
+            }
+            substituted.add(variable.name());
+            return new FormulaNode.NumberLiteral(value);
+        }
+        if (node instanceof FormulaNode.BinaryOperation operation) {
+            FormulaNode left = rewrite(operation.left());
+            FormulaNode right = rewrite(operation.right());
+            if (left instanceof FormulaNode.NumberLiteral l && right instanceof FormulaNode.NumberLiteral r) {
+                try {
+                    Object value = FormulaArithmetic.apply(operation.operator(), l.value(), r.value());
+                    return folded(value);
+                } catch (RuntimeException e) {
+                    // Keep the operation: it must fail per employee, as it did before
+                }
+            }
+            return new FormulaNode.BinaryOperation(operation.operator(), left, right);
+        }
+        if (node instanceof FormulaNode.Negation negation) {
+            FormulaNode operand = rewrite(negation.operand());
+            if (operand instanceof FormulaNode.NumberLiteral literal) {
+                return folded(FormulaArithmetic.negate(literal.value()));
+            }
+            return new FormulaNode.Negation(operand);
+        }
+        if (node instanceof FormulaNode.MethodCall call) {
+            FormulaNode target = rewrite(call.target());
+            List<FormulaNode> arguments = rewriteAll(call.arguments());
+            if (target instanceof FormulaNode.NumberLiteral receiver && receiver.value() instanceof BigDecimal value
+                    && arguments.size() == 1 && arguments.get(0) instanceof FormulaNode.NumberLiteral argument
+                    && ("min".equals(call.name()) || "max".equals(call.name()))) {
+                BigDecimal other = FormulaArithmetic.toBigDecimal(argument.value());
+                return folded("min".equals(call.name()) ? value.min(other) : value.max(other));
+            }
+            return new FormulaNode.MethodCall(target, call.name(), arguments);
+        }
+        if (node instanceof FormulaNode.FunctionCall call) {
+            return new FormulaNode.FunctionCall(call.name(), rewriteAll(call.arguments()));
+        }
+        return node;
+    }
+
+    private List<FormulaNode> rewriteAll(List<FormulaNode> nodes) {
+        List<FormulaNode> rewritten = new ArrayList<>(nodes.size());
+        for (FormulaNode node : nodes) {
+            rewritten.add(rewrite(node));
+        }
+        return rewritten;
+    }
+
+    private FormulaNode folded(Object value) {
+        hoisted++;
+        return new FormulaNode.NumberLiteral((Number) value);
+    }
+}
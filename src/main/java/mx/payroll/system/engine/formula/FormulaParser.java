@@ -0,0 +1,227 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.exception.FormulaEvaluationException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recursive-descent parser for the payroll formula dialect.
+ *
+ * Grammar (same precedence and literal typing as SpEL):
+ * <pre>
+ *   expression := term (('+' | '-') term)*
+ *   term       := unary (('*' | '/' | '%') unary)*
+ *   unary      := '-' unary | postfix
+ *   postfix    := primary ('.' IDENT '(' arguments ')')*
+ *   primary    := NUMBER | '#' IDENT ['(' arguments ')'] | '(' expression ')'
+ * </pre>
+ * Anything outside this subset is rejected so the caller can fall back to SpEL.
+ */
+public final class FormulaParser {
+
+    private final String source;
+    private int position;
+
+    private FormulaParser(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Parses a formula into its AST.
+     *
+     * @throws FormulaEvaluationException if the formula uses syntax outside the supported dialect
+     */
+    public static FormulaNode parse(String formula) {
+        if (formula == null || formula.isBlank()) {
+            throw new FormulaEvaluationException("Formula cannot be null or empty");
+        }
+        FormulaParser parser = new FormulaParser(formula);
+        FormulaNode node = parser.parseExpression();
+        parser.skipWhitespace();
+        if (parser.position < formula.length()) {
+            throw parser.unsupported("unexpected '" + formula.charAt(parser.position) + "'");
+        }
+        return node;
+    }
+
+    private FormulaNode parseExpression() {
+        FormulaNode left = parseTerm();
+        while (true) {
+            if (accept('+')) {
+                left = new FormulaNode.BinaryOperation('+', left, parseTerm());
+            } else if (accept('-')) {
+                left = new FormulaNode.BinaryOperation('-', left, parseTerm());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private FormulaNode parseTerm() {
+        FormulaNode left = parseUnary();
+        while (true) {
+            if (accept('*')) {
+                left = new FormulaNode.BinaryOperation('*', left, parseUnary());
+            } else if (accept('/')) {
+                left = new FormulaNode.BinaryOperation('/', left, parseUnary());
+            } else if (accept('%')) {
+                left = new FormulaNode.BinaryOperation('%', left, parseUnary());
+            } else {
+                return left;
+            }
+        }
+    }
+
+    private FormulaNode parseUnary() {
+        if (accept('-')) {
+            return new FormulaNode.Negation(parseUnary());
+        }
+        return parsePostfix();
+    }
+
+    private FormulaNode parsePostfix() {
+        FormulaNode node = parsePrimary();
+        while (accept('.')) {
+            String name = readIdentifier();
+            expect('(');
+            node = new FormulaNode.MethodCall(node, name, parseArguments());
+        }
+        return node;
+    }
+
+    private FormulaNode parsePrimary() {
+        skipWhitespace();
+        if (position >= source.length()) {
+            throw unsupported("unexpected end of formula");
+        }
+        char c = source.charAt(position);
+        if (c == '(') {
+            position++;
+            FormulaNode inner = parseExpression();
+            expect(')');
+            return inner;
+        }
+        if (c == '#') {
+            position++;
+            String name = readIdentifier();
+            if (accept('(')) {
+                return new FormulaNode.FunctionCall(name, parseArguments());
+            }
+            return new FormulaNode.Variable(name);
+        }
+        if (Character.isDigit(c)) {
+            return new FormulaNode.NumberLiteral(readNumber());
+        }
+        throw unsupported("unexpected '" + c + "'");
+    }
+
+    // Called after '(' has been consumed
+    private List<FormulaNode> parseArguments() {
+        List<FormulaNode> arguments = new ArrayList<>();
+        if (accept(')')) {
+            return List.of();
+        }
+        do {
+            arguments.add(parseExpression());
+        } while (accept(','));
+        expect(')');
+        return List.copyOf(arguments);
+    }
+
+    private String readIdentifier() {
+        skipWhitespace();
+        int start = position;
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (Character.isLetterOrDigit(c) || c == '_' || c == '$') {
+                position++;
+            } else {
+                break;
+            }
+        }
+        if (start == position || Character.isDigit(source.charAt(start))) {
+            throw unsupported("identifier expected");
+        }
+        return source.substring(start, position);
+    }
+
+    /**
+     * Reads a numeric literal typed like SpEL does: 15 is an Integer, 15L a Long,
+     * 30.0 and 1e3 are Doubles. Other suffixes are not part of the dialect.
+     */
+    private Number readNumber() {
+        int start = position;
+        boolean real = false;
+        while (position < source.length() && Character.isDigit(source.charAt(position))) {
+            position++;
+        }
+        if (position + 1 < source.length() && source.charAt(position) == '.'
+                && Character.isDigit(source.charAt(position + 1))) {
+            real = true;
+            position++;
+            while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                position++;
+            }
+        }
+        if (position < source.length() && (source.charAt(position) == 'e' || source.charAt(position) == 'E')) {
+            real = true;
+            position++;
+            if (position < source.length() && (source.charAt(position) == '+' || source.charAt(position) == '-')) {
+                position++;
+            }
+            int exponentStart = position;
+            while (position < source.length() && Character.isDigit(source.charAt(position))) {
+                position++;
+            }
+            if (exponentStart == position) {
+                throw unsupported("malformed exponent");
+            }
+        }
+        String literal = source.substring(start, position);
+        if (position < source.length()) {
+            char suffix = source.charAt(position);
+            if (!real && (suffix == 'L' || suffix == 'l')) {
+                position++;
+                return Long.parseLong(literal);
+            }
+            if (Character.isLetter(suffix)) {
+                throw unsupported("numeric suffix '" + suffix + "'");
+            }
+        }
+        if (real) {
+            return Double.parseDouble(literal);
+        }
+        try {
+            return Integer.parseInt(literal);
+        } catch (NumberFormatException e) {
+            throw unsupported("integer literal out of range: " + literal);
+        }
+    }
+
+    private boolean accept(char expected) {
+        skipWhitespace();
+        if (position < source.length() && source.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char expected) {
+        if (!accept(expected)) {
+            throw unsupported("'" + expected + "' expected");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+    }
+
+    private FormulaEvaluationException unsupported(String reason) {
+        return new FormulaEvaluationException(
+                "Unsupported formula syntax at position " + position + " (" + reason + "): " + source);
+    }
+}
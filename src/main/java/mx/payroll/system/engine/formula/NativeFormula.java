@@ -0,0 +1,108 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.engine.PayrollFunctionRegistry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A formula compiled to composed lambdas that read their variables from an Object[]
+ * by slot index. Slot i holds the value of {@link #getVariables()}.get(i); the slots after
+ * the variables hold the {@link FormulaFunction}s of {@link #getFunctions()}, so memoized
+ * functions can be supplied per evaluation.
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public final class NativeFormula {
+
+    /**
+     * Compiled node: evaluates against the slot array.
+     */
+    @FunctionalInterface
+    public interface SlotExpression {
+        Object evaluate(Object[] slots);
+    }
+
+    private final String source;
+    private final String[] variables;
+    private final String[] functions;
+    private final SlotExpression body;
+    private final FormulaNode ast;
+    private final FixedPointFormula fixedPoint;
+
+    NativeFormula(String source, String[] variables, String[] functions, SlotExpression body, FormulaNode ast,
+                  FixedPointFormula fixedPoint) {
+        this.source = source;
+        this.variables = variables;
+        this.functions = functions;
+        this.body = body;
+        this.ast = ast;
+        this.fixedPoint = fixedPoint;
+    }
+
+    /**
+     * Loads each referenced variable and function once into its slot and evaluates the formula.
+     */
+    public Object evaluate(VariableResolver resolver) {
+        return body.evaluate(load(resolver));
+    }
+
+    /**
+     * Loads each referenced variable and function once into its slot.
+     */
+    public Object[] load(VariableResolver resolver) {
+        Object[] slots = new Object[variables.length + functions.length];
+        for (int i = 0; i < variables.length; i++) {
+            slots[i] = resolver.resolve(variables[i]);
+        }
+        for (int i = 0; i < functions.length; i++) {
+            slots[variables.length + i] = resolver.resolveFunction(functions[i]);
+        }
+        return slots;
+    }
+
+    /**
+     * Evaluates against slots that the caller has already loaded. If only the variable slots
+     * are given, the functions are the registered ones without memoization.
+     */
+    public Object evaluate(Object[] slots) {
+        if (slots.length < variables.length + functions.length) {
+            Object[] loaded = Arrays.copyOf(slots, variables.length + functions.length);
+            for (int i = 0; i < functions.length; i++) {
+                loaded[variables.length + i] = PayrollFunctionRegistry.function(functions[i]);
+            }
+            return body.evaluate(loaded);
+        }
+        return body.evaluate(slots);
+    }
+
+    /**
+     * The same formula on scaled longs, or null if it calls functions or uses operators
+     * the fixed-point form does not cover.
+     */
+    public FixedPointFormula getFixedPoint() {
+        return fixedPoint;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public List<String> getVariables() {
+        return List.of(variables);
+    }
+
+    /**
+     * Functions called by the formula; their slots follow the variable slots.
+     */
+    public List<String> getFunctions() {
+        return List.of(functions);
+    }
+
+    /**
+     * The tree this formula was compiled from (used to specialize it per period).
+     */
+    public FormulaNode getAst() {
+        return ast;
+    }
+}
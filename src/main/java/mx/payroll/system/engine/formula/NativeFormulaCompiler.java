@@ -0,0 +1,138 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.engine.PayrollFunctionRegistry;
+import mx.payroll.system.exception.FormulaEvaluationException;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles a {@link FormulaNode} tree into a {@link NativeFormula}.
+ *
+ * Every node becomes a lambda; variables are assigned dense slot indexes in order of
+ * first appearance and literals are boxed once at compile time. Functions come from
+ * PayrollFunctionRegistry and are supplied per evaluation through their own slots.
+ */
+public final class NativeFormulaCompiler {
+
+    // Variables that are not plain values and therefore need the SpEL path
+    private static final String TAX_SERVICE_VARIABLE = "impuestos";
+
+    private final Map<String, Integer> slots = new LinkedHashMap<>();
+    private final Map<String, Integer> functionSlots = new LinkedHashMap<>();
+
+    private NativeFormulaCompiler() {
+    }
+
+    /**
+     * Parses and compiles a formula.
+     *
+     * @throws FormulaEvaluationException if the formula is outside the native dialect
+     */
+    public static NativeFormula compile(String formula) {
+        return compile(formula, FormulaParser.parse(formula));
+    }
+
+    public static NativeFormula compile(String formula, FormulaNode ast) {
+        NativeFormulaCompiler compiler = new NativeFormulaCompiler();
+        NativeFormula.SlotExpression body = compiler.compileNode(ast);
+        String[] variables = compiler.slots.keySet().toArray(new String[0]);
+        String[] functions = compiler.functionSlots.keySet().toArray(new String[0]);
+        return new NativeFormula(formula, variables, functions, body, ast,
+                FixedPointFormula.compile(ast, compiler.slots));
+    }
+
+    public static boolean isSupportedFunction(String name) {
+        return PayrollFunctionRegistry.isRegistered(name);
+    }
+
+    private NativeFormula.SlotExpression compileNode(FormulaNode node) {
+        if (node instanceof FormulaNode.NumberLiteral literal) {
+            Object value = literal.value();
+            return slotValues -> value;
+        }
+        if (node instanceof FormulaNode.Variable variable) {
+            if (TAX_SERVICE_VARIABLE.equals(variable.name()) || PayrollFunctionRegistry.isRegistered(variable.name())) {
+                throw unsupported("#" + variable.name() + " is not a value");
+            }
+            int slot = slots.computeIfAbsent(variable.name(), name -> slots.size());
+            return slotValues -> slotValues[slot];
+        }
+        if (node instanceof FormulaNode.BinaryOperation operation) {
+            NativeFormula.SlotExpression left = compileNode(operation.left());
+            NativeFormula.SlotExpression right = compileNode(operation.right());
+            char operator = operation.operator();
+            return slotValues -> FormulaArithmetic.apply(operator, left.evaluate(slotValues), right.evaluate(slotValues));
+        }
+        if (node instanceof FormulaNode.Negation negation) {
+            NativeFormula.SlotExpression operand = compileNode(negation.operand());
+            return slotValues -> FormulaArithmetic.negate(operand.evaluate(slotValues));
+        }
+        if (node instanceof FormulaNode.FunctionCall call) {
+            return compileFunctionCall(call);
+        }
+        if (node instanceof FormulaNode.MethodCall call) {
+            return compileMethodCall(call);
+        }
+        throw unsupported("node " + node);
+    }
+
+    // Function slots are numbered after the variable slots, which are all known only at the end
+    private NativeFormula.SlotExpression compileFunctionCall(FormulaNode.FunctionCall call) {
+        int arity = PayrollFunctionRegistry.arity(call.name());
+        if (arity < 0) {
+            throw unsupported("unknown function #" + call.name());
+        }
+        if (arity != call.arguments().size()) {
+            throw unsupported("#" + call.name() + " expects " + arity + " argument(s)");
+        }
+        NativeFormula.SlotExpression[] arguments = compileArguments(call.arguments());
+        int functionSlot = functionSlots.computeIfAbsent(call.name(), name -> functionSlots.size());
+        Map<String, Integer> variableSlots = slots;
+        return slotValues -> {
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].evaluate(slotValues);
+            }
+            FormulaFunction function = (FormulaFunction) slotValues[variableSlots.size() + functionSlot];
+            return function.invoke(values);
+        };
+    }
+
+    // Only BigDecimal.min/max are part of the dialect (e.g. caps like (#P001 * 0.10).min(#UMA * 30 * 0.40))
+    private NativeFormula.SlotExpression compileMethodCall(FormulaNode.MethodCall call) {
+        boolean min = "min".equals(call.name());
+        if (!min && !"max".equals(call.name())) {
+            throw unsupported("method ." + call.name() + "()");
+        }
+        if (call.arguments().size() != 1) {
+            throw unsupported("." + call.name() + "() expects one argument");
+        }
+        NativeFormula.SlotExpression target = compileNode(call.target());
+        NativeFormula.SlotExpression argument = compileNode(call.arguments().get(0));
+        String name = call.name();
+        return slotValues -> {
+            Object receiver = target.evaluate(slotValues);
+            if (!(receiver instanceof BigDecimal value)) {
+                throw new FormulaEvaluationException("Method " + name + "(...) cannot be found on type "
+                        + (receiver == null ? "null" : receiver.getClass().getName()));
+            }
+            BigDecimal other = FormulaArithmetic.toBigDecimal(argument.evaluate(slotValues));
+            return min ? value.min(other) : value.max(other);
+        };
+    }
+
+    private NativeFormula.SlotExpression[] compileArguments(List<FormulaNode> arguments) {
+        NativeFormula.SlotExpression[] compiled = new NativeFormula.SlotExpression[arguments.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compileNode(arguments.get(i));
+        }
+        return compiled;
+    }
+
+    private static FormulaEvaluationException unsupported(String reason) {
+        return new FormulaEvaluationException("Not supported by the native formula compiler: " + reason);
+    }
+}
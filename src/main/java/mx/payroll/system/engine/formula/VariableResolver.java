@@ -0,0 +1,18 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.engine.PayrollFunctionRegistry;
+
+/**
+ * Supplies the value of a #VARIABLE when a native formula loads its slots.
+ */
+@FunctionalInterface
+public interface VariableResolver {
+    Object resolve(String name);
+
+    /**
+     * Supplies a #function(...); by default the registered function without memoization.
+     */
+    default FormulaFunction resolveFunction(String name) {
+        return PayrollFunctionRegistry.function(name);
+    }
+}
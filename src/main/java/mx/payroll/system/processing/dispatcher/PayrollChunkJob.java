@@ -4,6 +4,13 @@ public class PayrollChunkJob {
     private String periodId;
     private int page;
     private int pageSize;
+    // Rango de ids (inclusivo) del lote; null en los lotes por página (OFFSET)
+    private Integer minId;
+    private Integer maxId;
+    // Reintentos ya hechos de este lote (0 = primera entrega); ver FailedChunkHandler
+    private int attempt;
+    // Veces que se partió el lote original para llegar a este (0 = lote original)
+    private int splitDepth;
 
     public PayrollChunkJob() {
     }
@@ -14,6 +21,12 @@ public class PayrollChunkJob {
         this.pageSize = pageSize;
     }
 
+    public PayrollChunkJob(String periodId, int page, int pageSize, Integer minId, Integer maxId) {
+        this(periodId, page, pageSize);
+        this.minId = minId;
+        this.maxId = maxId;
+    }
+
     public String getPeriodId() {
         return periodId;
     }
@@ -38,12 +51,53 @@ public class PayrollChunkJob {
         this.pageSize = pageSize;
     }
 
+    public Integer getMinId() {
+        return minId;
+    }
+
+    public void setMinId(Integer minId) {
+        this.minId = minId;
+    }
+
+    public Integer getMaxId() {
+        return maxId;
+    }
+
+    public void setMaxId(Integer maxId) {
+        this.maxId = maxId;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    public int getSplitDepth() {
+        return splitDepth;
+    }
+
+    public void setSplitDepth(int splitDepth) {
+        this.splitDepth = splitDepth;
+    }
+
+    // true si el lote se define por rango de ids (keyset) y no por página
+    public boolean isIdRange() {
+        return minId != null && maxId != null;
+    }
+
     @Override
     public String toString() {
         return "PayrollChunkJob{" +
                 "periodId='" + periodId + '\'' +
                 ", page=" + page +
                 ", pageSize=" + pageSize +
+                ", minId=" + minId +
+                ", maxId=" + maxId +
+                ", attempt=" + attempt +
+                ", splitDepth=" + splitDepth +
                 '}';
     }
 }
@@ -0,0 +1,65 @@
+package mx.payroll.system.processing.dispatcher;
+
+/**
+ * Mensaje de payroll_queue.dlq: un empleado (o un lote entero, si ni siquiera se pudieron leer sus
+ * empleados) que siguió fallando después de los reintentos, con el error que lo sacó de la cola.
+ */
+public class PayrollDeadLetter {
+    private String periodId;
+    // null cuando lo que falla es el lote completo (p. ej. no se pudieron leer sus empleados)
+    private Integer employeeId;
+    private PayrollChunkJob job;
+    private String error;
+
+    public PayrollDeadLetter() {
+    }
+
+    public PayrollDeadLetter(String periodId, Integer employeeId, PayrollChunkJob job, String error) {
+        this.periodId = periodId;
+        this.employeeId = employeeId;
+        this.job = job;
+        this.error = error;
+    }
+
+    public String getPeriodId() {
+        return periodId;
+    }
+
+    public void setPeriodId(String periodId) {
+        this.periodId = periodId;
+    }
+
+    public Integer getEmployeeId() {
+        return employeeId;
+    }
+
+    public void setEmployeeId(Integer employeeId) {
+        this.employeeId = employeeId;
+    }
+
+    public PayrollChunkJob getJob() {
+        return job;
+    }
+
+    public void setJob(PayrollChunkJob job) {
+        this.job = job;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "PayrollDeadLetter{" +
+                "periodId='" + periodId + '\'' +
+                ", employeeId=" + employeeId +
+                ", job=" + job +
+                ", error='" + error + '\'' +
+                '}';
+    }
+}
@@ -5,25 +5,36 @@ import mx.payroll.system.domain.model.PayrollPeriod;
 import mx.payroll.system.domain.repository.EmployeeRepository;
 import mx.payroll.system.domain.repository.PayrollPeriodRepository;
 import mx.payroll.system.processing.service.QueueService;
+import mx.payroll.system.service.ConceptFormulaService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Iterator;
+import java.util.stream.Stream;
+
 @Service
 public class PayrollDispatcher {
 
+    private static final Logger log = LoggerFactory.getLogger(PayrollDispatcher.class);
+
     private final EmployeeRepository employeeRepo;
     private final QueueService queueService; // Interfaz genérica a RabbitMQ/Redis
     private final PayrollPeriodRepository periodRepo;
     private final EntityManager entityManager;
+    private final ConceptFormulaService conceptFormulaService;
 
     // Tamaño del lote: 100 empleados por worker es un buen balance
     private static final int CHUNK_SIZE = 100;
 
-    public PayrollDispatcher(EmployeeRepository employeeRepo, QueueService queueService, PayrollPeriodRepository periodRepo, EntityManager entityManager) {
+    public PayrollDispatcher(EmployeeRepository employeeRepo, QueueService queueService, PayrollPeriodRepository periodRepo,
+                             EntityManager entityManager, ConceptFormulaService conceptFormulaService) {
         this.employeeRepo = employeeRepo;
         this.queueService = queueService;
         this.periodRepo = periodRepo;
         this.entityManager = entityManager;
+        this.conceptFormulaService = conceptFormulaService;
     }
 
     @Transactional
@@ -35,19 +46,38 @@ public class PayrollDispatcher {
         // 1.5 Actualizar el periodo con el total esperado
         PayrollPeriod period = periodRepo.findByPeriodIdentifier(periodIdentifier)
                 .orElseThrow(() -> new IllegalArgumentException("Period not found: " + periodIdentifier));
+
+        // 1.2 Validar las fórmulas vigentes antes de despachar: una fórmula inválida
+        // se rechaza aquí con su diagnóstico y no falla empleado por empleado en los workers
+        conceptFormulaService.getExecutionPlan(period.getEndDate());
         
         period.setTotalExpected((int) totalEmployees);
         periodRepo.save(period);
 
-        // 2. Calcular cuántas páginas (chunks) necesitamos
-        int totalChunks = (int) Math.ceil((double) totalEmployees / CHUNK_SIZE);
-
-        System.out.println("Iniciando Dispatch: " + totalEmployees + " empleados en " + totalChunks + " lotes.");
+        log.info("Iniciando Dispatch: {} empleados en lotes de {}.", totalEmployees, CHUNK_SIZE);
 
-        // 3. Enviar mensajes a la cola
-        for (int i = 0; i < totalChunks; i++) {
-            PayrollChunkJob job = new PayrollChunkJob(periodIdentifier, i, CHUNK_SIZE);
-            queueService.push(job);
+        // 2 y 3. Una sola pasada por los ids activos: cada CHUNK_SIZE ids se cierra un lote
+        // [minId, maxId] y se envía a la cola. Los workers leen por rango (sin OFFSET)
+        int chunks = 0;
+        try (Stream<Integer> ids = employeeRepo.streamActiveIds()) {
+            Iterator<Integer> iterator = ids.iterator();
+            Integer minId = null;
+            Integer maxId = null;
+            int inChunk = 0;
+            while (iterator.hasNext()) {
+                maxId = iterator.next();
+                if (inChunk++ == 0) {
+                    minId = maxId;
+                }
+                if (inChunk == CHUNK_SIZE) {
+                    queueService.push(new PayrollChunkJob(periodIdentifier, chunks++, CHUNK_SIZE, minId, maxId));
+                    inChunk = 0;
+                }
+            }
+            if (inChunk > 0) {
+                queueService.push(new PayrollChunkJob(periodIdentifier, chunks++, CHUNK_SIZE, minId, maxId));
+            }
         }
+        log.info("Dispatch enviado: {} lotes.", chunks);
     }
 }
\ No newline at end of file
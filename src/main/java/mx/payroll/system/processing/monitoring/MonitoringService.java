@@ -3,20 +3,34 @@ package mx.payroll.system.processing.monitoring;
 import mx.payroll.system.domain.model.PayrollPeriod;
 import mx.payroll.system.domain.repository.PayrollPeriodRepository;
 import mx.payroll.system.domain.repository.PayrollResultRepository;
+import mx.payroll.system.domain.repository.QuarantinedEmployeeRepository;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 @Service
 public class MonitoringService {
 
     private final PayrollPeriodRepository periodRepo;
     private final PayrollResultRepository resultRepo;
+    private final QuarantinedEmployeeRepository quarantineRepo;
 
-    // DTO interno para respuesta limpia
-    public record ProgressReport(Long periodId, int total, int processed, int percentage, String status) {}
+    // DTO interno para respuesta limpia; quarantined: empleados que no se pudieron calcular o guardar
+    public record ProgressReport(Long periodId, int total, int processed, int percentage, String status, int quarantined) {
+        public ProgressReport(Long periodId, int total, int processed, int percentage, String status) {
+            this(periodId, total, processed, percentage, status, 0);
+        }
+    }
 
-    public MonitoringService(PayrollPeriodRepository periodRepo, PayrollResultRepository resultRepo) {
+    // Un empleado en cuarentena y el error que lo dejó ahí
+    public record QuarantineEntry(Integer employeeId, String error, LocalDateTime quarantinedAt) {}
+
+    public MonitoringService(PayrollPeriodRepository periodRepo, PayrollResultRepository resultRepo,
+                             QuarantinedEmployeeRepository quarantineRepo) {
         this.periodRepo = periodRepo;
         this.resultRepo = resultRepo;
+        this.quarantineRepo = quarantineRepo;
     }
 
     public ProgressReport getProgress(Long periodId) {
@@ -24,8 +38,11 @@ public class MonitoringService {
         PayrollPeriod period = periodRepo.findById(periodId)
             .orElseThrow(() -> new IllegalArgumentException("Period not found: " + periodId));
 
+        // Empleados en cuarentena (ver FailedChunkHandler): no cuentan como procesados
+        int quarantined = quarantineRepo.countByPeriodId(period.getPeriodIdentifier());
+
         if (period.getTotalExpected() == null || period.getTotalExpected() == 0) {
-            return new ProgressReport(periodId, 0, 0, 0, period.getStatus());
+            return new ProgressReport(periodId, 0, 0, 0, period.getStatus(), quarantined);
         }
 
         // 2. Obtener el avance actual (Cuántos resultados ya se guardaron en la DB)
@@ -46,7 +63,17 @@ public class MonitoringService {
             period.getTotalExpected(), 
             currentCount, 
             percentage, 
-            period.getStatus()
+            period.getStatus(),
+            quarantined
         );
     }
+
+    public List<QuarantineEntry> getQuarantine(Long periodId) {
+        PayrollPeriod period = periodRepo.findById(periodId)
+            .orElseThrow(() -> new IllegalArgumentException("Period not found: " + periodId));
+
+        return quarantineRepo.findByPeriodIdOrderByEmployeeId(period.getPeriodIdentifier()).stream()
+            .map(q -> new QuarantineEntry(q.getEmployeeId(), q.getErrorMessage(), q.getQuarantinedAt()))
+            .toList();
+    }
 }
@@ -1,7 +1,14 @@
 package mx.payroll.system.processing.service;
 
 import mx.payroll.system.processing.dispatcher.PayrollChunkJob;
+import mx.payroll.system.processing.dispatcher.PayrollDeadLetter;
 
 public interface QueueService {
     void push(PayrollChunkJob job);
+
+    // Vuelve a encolar el lote después de delayMillis (backoff de reintentos)
+    void pushDelayed(PayrollChunkJob job, long delayMillis);
+
+    // Envía un empleado o lote que no se pudo procesar a la cola de mensajes muertos
+    void deadLetter(PayrollDeadLetter letter);
 }
@@ -2,12 +2,17 @@ package mx.payroll.system.processing.service;
 
 import mx.payroll.system.config.RabbitMQConfig;
 import mx.payroll.system.processing.dispatcher.PayrollChunkJob;
+import mx.payroll.system.processing.dispatcher.PayrollDeadLetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.stereotype.Service;
 
 @Service
 public class RabbitQueueService implements QueueService {
 
+    private static final Logger log = LoggerFactory.getLogger(RabbitQueueService.class);
+
     private final RabbitTemplate rabbitTemplate;
 
     public RabbitQueueService(RabbitTemplate rabbitTemplate) {
@@ -17,6 +22,25 @@ public class RabbitQueueService implements QueueService {
     @Override
     public void push(PayrollChunkJob job) {
         rabbitTemplate.convertAndSend(RabbitMQConfig.PAYROLL_QUEUE, job);
-        System.out.println("Job pushed to RabbitMQ: " + job);
+        log.debug("Job pushed to RabbitMQ: {}", job);
+    }
+
+    @Override
+    public void pushDelayed(PayrollChunkJob job, long delayMillis) {
+        if (delayMillis <= 0) {
+            push(job);
+            return;
+        }
+        rabbitTemplate.convertAndSend(RabbitMQConfig.RETRY_QUEUE, job, message -> {
+            message.getMessageProperties().setExpiration(String.valueOf(delayMillis));
+            return message;
+        });
+        log.debug("Job scheduled for retry in {} ms: {}", delayMillis, job);
+    }
+
+    @Override
+    public void deadLetter(PayrollDeadLetter letter) {
+        rabbitTemplate.convertAndSend(RabbitMQConfig.DEAD_LETTER_QUEUE, letter);
+        log.warn("Dead letter sent to RabbitMQ: {}", letter);
     }
 }
@@ -0,0 +1,106 @@
+package mx.payroll.system.processing.worker;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Ejecuta en paralelo el cálculo de los empleados de un lote y limita el acceso concurrente a la base.
+ *
+ * Con parallelism = 1 (por defecto) todo corre en el hilo del listener, como antes. Con N > 1 los
+ * empleados de un lote se reparten en un pool compartido por todos los listeners (FORK_JOIN o FIXED).
+ * El cálculo no usa la base (los valores se precargan por lote); las consultas y escrituras de los
+ * workers pasan por {@link #withDbPermit(Supplier)}, un semáforo del tamaño del pool de Hikari
+ * menos la reserva para la API web, así que más hilos de cálculo no agotan las conexiones.
+ */
+@Component
+public class ChunkExecutor {
+
+    public enum Pool {
+        FORK_JOIN, // work-stealing: un hilo por núcleo reparte mejor lotes desiguales
+        FIXED      // pool fijo de hilos de plataforma
+    }
+
+    // Conexiones que se dejan libres para la API web (ver spring.datasource.hikari.maximum-pool-size)
+    private static final int WEB_RESERVED_CONNECTIONS = 5;
+
+    private final int parallelism;
+    private final ExecutorService executor; // null: se calcula en el hilo que llama
+    private final Semaphore dbPermits;
+
+    public ChunkExecutor(@Value("${payroll.worker.parallelism:1}") int parallelism,
+                         @Value("${payroll.worker.pool:FORK_JOIN}") Pool pool,
+                         @Value("${payroll.worker.db-permits:0}") int dbPermits,
+                         @Value("${spring.datasource.hikari.maximum-pool-size:10}") int connectionPoolSize) {
+        this.parallelism = Math.max(1, parallelism);
+        this.executor = this.parallelism > 1 ? newExecutor(pool, this.parallelism) : null;
+        int permits = dbPermits > 0 ? dbPermits : Math.max(1, connectionPoolSize - WEB_RESERVED_CONNECTIONS);
+        this.dbPermits = new Semaphore(permits, true);
+    }
+
+    private static ExecutorService newExecutor(Pool pool, int parallelism) {
+        if (pool == Pool.FIXED) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(parallelism, task -> {
+                Thread thread = new Thread(task, "payroll-calc-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return new ForkJoinPool(parallelism);
+    }
+
+    public boolean isParallel() {
+        return executor != null;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Lanza un cálculo; sin paralelismo lo ejecuta de inmediato en el hilo que llama.
+     * Los errores quedan en el future (CompletionException al hacer join).
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> task) {
+        if (executor == null) {
+            try {
+                return CompletableFuture.completedFuture(task.get());
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.supplyAsync(task, executor);
+    }
+
+    /**
+     * Ejecuta una operación de base de datos con uno de los permisos disponibles.
+     */
+    public <T> T withDbPermit(Supplier<T> operation) {
+        dbPermits.acquireUninterruptibly();
+        try {
+            return operation.get();
+        } finally {
+            dbPermits.release();
+        }
+    }
+
+    public int availableDbPermits() {
+        return dbPermits.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
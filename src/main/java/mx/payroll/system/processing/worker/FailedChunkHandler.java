@@ -0,0 +1,181 @@
+package mx.payroll.system.processing.worker;
+
+import mx.payroll.system.domain.model.QuarantinedEmployee;
+import mx.payroll.system.domain.repository.QuarantinedEmployeeRepository;
+import mx.payroll.system.processing.dispatcher.PayrollChunkJob;
+import mx.payroll.system.processing.dispatcher.PayrollDeadLetter;
+import mx.payroll.system.processing.service.QueueService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Qué hacer con un lote en el que fallaron empleados (cálculo o guardado):
+ *
+ * 1. Reintentar con backoff exponencial (payroll_queue.retry) hasta max-retries veces. El reintento
+ *    cubre solo el rango de ids entre el primer y el último empleado que falló; los ya guardados
+ *    se vuelven a escribir sin problema (el guardado es upsert).
+ * 2. Si sigue fallando y los errores son de empleados concretos, esos empleados van a cuarentena.
+ *    Si el error es del lote completo (no se sabe qué empleado lo causa), el lote se parte en dos
+ *    mitades que se vuelven a encolar, hasta aislar a los empleados que fallan. Las mitades heredan
+ *    los reintentos ya agotados (no vuelven a esperar el backoff) y se parten como máximo
+ *    max-split-depth veces; si a esa profundidad el error sigue sin atribuirse a un empleado, el
+ *    rango completo va a la cola de mensajes muertos sin poner a nadie en cuarentena.
+ * 3. Cuarentena: el empleado se envía a payroll_queue.dlq con su error y se registra en
+ *    payroll_quarantine, que muestra el monitor.
+ */
+@Component
+public class FailedChunkHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(FailedChunkHandler.class);
+
+    private final QueueService queueService;
+    private final QuarantinedEmployeeRepository quarantineRepo;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxSplitDepth;
+
+    public FailedChunkHandler(QueueService queueService,
+                              QuarantinedEmployeeRepository quarantineRepo,
+                              @Value("${payroll.worker.retry.max-retries:3}") int maxRetries,
+                              @Value("${payroll.worker.retry.backoff-ms:1000}") long backoffMillis,
+                              @Value("${payroll.worker.retry.max-backoff-ms:60000}") long maxBackoffMillis,
+                              @Value("${payroll.worker.retry.max-split-depth:4}") int maxSplitDepth) {
+        this.queueService = queueService;
+        this.quarantineRepo = quarantineRepo;
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoffMillis = Math.max(0, backoffMillis);
+        this.maxBackoffMillis = Math.max(this.backoffMillis, maxBackoffMillis);
+        this.maxSplitDepth = Math.max(0, maxSplitDepth);
+    }
+
+    /**
+     * @param employeeIds empleados del lote, en orden de id
+     * @param errors      empleado -> error de los que fallaron
+     * @param isolated    true si cada error es de su empleado (cálculo o guardado individual);
+     *                    false si falló el lote completo y los errores son el mismo para todos
+     */
+    public void onFailure(PayrollChunkJob job, List<Integer> employeeIds, Map<Integer, String> errors, boolean isolated) {
+        if (errors.isEmpty()) {
+            return;
+        }
+        List<Integer> failing = failingSpan(employeeIds, errors.keySet());
+
+        if (job.getAttempt() < maxRetries) {
+            PayrollChunkJob retry = rangeJob(job, failing, job.getAttempt() + 1);
+            long delay = backoffFor(job.getAttempt());
+            log.warn("Lote {}: {} empleados fallaron; reintento {} de {} en {} ms (ids {}-{})",
+                    job.getPage(), errors.size(), retry.getAttempt(), maxRetries, delay, retry.getMinId(), retry.getMaxId());
+            queueService.pushDelayed(retry, delay);
+            return;
+        }
+
+        if (isolated || failing.size() == 1) {
+            errors.forEach((employeeId, error) -> quarantine(job, employeeId, error));
+            return;
+        }
+
+        if (job.getSplitDepth() >= maxSplitDepth) {
+            // Partir más no aísla la causa: el rango completo va a mensajes muertos, nadie a cuarentena
+            PayrollChunkJob range = rangeJob(job, failing, job.getAttempt());
+            String error = errors.values().iterator().next();
+            log.error("Lote {}: error sin atribuir a un empleado después de {} particiones (ids {}-{}): {}",
+                    job.getPage(), job.getSplitDepth(), range.getMinId(), range.getMaxId(), error);
+            queueService.deadLetter(new PayrollDeadLetter(job.getPeriodId(), null, range, error));
+            return;
+        }
+
+        // Error del lote completo: partir en dos hasta aislar a los empleados que lo provocan.
+        // Las mitades conservan los intentos agotados: si vuelven a fallar se parten sin más reintentos
+        int middle = failing.size() / 2;
+        for (List<Integer> half : List.of(failing.subList(0, middle), failing.subList(middle, failing.size()))) {
+            PayrollChunkJob part = rangeJob(job, half, job.getAttempt());
+            part.setSplitDepth(job.getSplitDepth() + 1);
+            log.warn("Lote {}: sigue fallando, se parte (ids {}-{}, {} empleados)",
+                    job.getPage(), part.getMinId(), part.getMaxId(), half.size());
+            queueService.push(part);
+        }
+    }
+
+    /**
+     * Un lote cuyos empleados ni siquiera se pudieron leer (periodo inexistente, base caída):
+     * se reintenta con backoff y, agotados los reintentos, el lote completo va a la cola de mensajes muertos.
+     */
+    public void onJobFailure(PayrollChunkJob job, String error) {
+        if (job.getAttempt() < maxRetries) {
+            PayrollChunkJob retry = copy(job, job.getAttempt() + 1);
+            long delay = backoffFor(job.getAttempt());
+            log.warn("Lote {} falló ({}); reintento {} de {} en {} ms", job.getPage(), error, retry.getAttempt(), maxRetries, delay);
+            queueService.pushDelayed(retry, delay);
+            return;
+        }
+        log.error("Lote {} descartado después de {} reintentos: {}", job.getPage(), maxRetries, error);
+        queueService.deadLetter(new PayrollDeadLetter(job.getPeriodId(), null, job, error));
+    }
+
+    /**
+     * Saca de cuarentena a los empleados que ya se guardaron en el periodo
+     */
+    public void release(String periodId, Collection<Integer> savedEmployeeIds) {
+        if (!savedEmployeeIds.isEmpty()) {
+            quarantineRepo.deleteByPeriodIdAndEmployeeIdIn(periodId, savedEmployeeIds);
+        }
+    }
+
+    long backoffFor(int attempt) {
+        long delay = backoffMillis << Math.min(attempt, 20);
+        return Math.min(delay, maxBackoffMillis);
+    }
+
+    private void quarantine(PayrollChunkJob job, Integer employeeId, String error) {
+        log.error("Empleado {} en cuarentena para periodo {}: {}", employeeId, job.getPeriodId(), error);
+        QuarantinedEmployee entry = quarantineRepo.findByPeriodIdAndEmployeeId(job.getPeriodId(), employeeId)
+                .orElseGet(() -> new QuarantinedEmployee(job.getPeriodId(), employeeId, error));
+        entry.setErrorMessage(error);
+        quarantineRepo.save(entry);
+        queueService.deadLetter(new PayrollDeadLetter(job.getPeriodId(), employeeId, job, error));
+    }
+
+    // Empleados del lote entre el primer y el último que fallaron (en orden de id)
+    private static List<Integer> failingSpan(List<Integer> employeeIds, Collection<Integer> failed) {
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < employeeIds.size(); i++) {
+            if (failed.contains(employeeIds.get(i))) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        if (first < 0) {
+            // Los errores no corresponden a empleados del lote: se cubre el lote completo
+            return employeeIds.isEmpty() ? new ArrayList<>(new TreeSet<>(failed)) : employeeIds;
+        }
+        return employeeIds.subList(first, last + 1);
+    }
+
+    private static PayrollChunkJob rangeJob(PayrollChunkJob job, List<Integer> employeeIds, int attempt) {
+        PayrollChunkJob range = new PayrollChunkJob(job.getPeriodId(), job.getPage(), employeeIds.size(),
+                employeeIds.get(0), employeeIds.get(employeeIds.size() - 1));
+        range.setAttempt(attempt);
+        range.setSplitDepth(job.getSplitDepth());
+        return range;
+    }
+
+    private static PayrollChunkJob copy(PayrollChunkJob job, int attempt) {
+        PayrollChunkJob retry = new PayrollChunkJob(job.getPeriodId(), job.getPage(), job.getPageSize(),
+                job.getMinId(), job.getMaxId());
+        retry.setAttempt(attempt);
+        retry.setSplitDepth(job.getSplitDepth());
+        return retry;
+    }
+}
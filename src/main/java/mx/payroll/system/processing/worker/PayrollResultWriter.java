@@ -0,0 +1,243 @@
+package mx.payroll.system.processing.worker;
+
+import mx.payroll.system.engine.PayrollResult;
+import mx.payroll.system.engine.PayrollResultDetail;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Escritura masiva e idempotente de los resultados de un lote (payroll_results y
+ * payroll_result_details) por JDBC.
+ *
+ * Con ids IDENTITY Hibernate no agrupa los INSERT (necesita el id de cada fila al momento), así que
+ * saveAll hacía un INSERT por resultado y otro por detalle aunque hibernate.jdbc.batch_size=100.
+ * Aquí cada tabla se escribe con sentencias de varias filas (hasta {@link #ROWS_PER_STATEMENT}).
+ *
+ * Los resultados se insertan o actualizan por (employee_id, period_id), la llave única de la tabla,
+ * y sus detalles se reemplazan: un lote reentregado o un periodo recalculado sobrescribe lo anterior
+ * sin truncar nada a mano.
+ * - PostgreSQL: INSERT ... ON CONFLICT DO UPDATE ... RETURNING id (el id existente se conserva).
+ * - Otros motores (H2 en pruebas): MERGE ... KEY y los ids se leen de vuelta por la llave.
+ *
+ * Todo el lote va en una transacción. Si falla, se reintenta cada empleado en su propia
+ * transacción: un empleado con datos inválidos ya no tira los demás resultados del lote.
+ */
+@Component
+public class PayrollResultWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(PayrollResultWriter.class);
+
+    // Filas por sentencia: 500 x 5 columnas queda muy debajo del límite de 65535 parámetros de PostgreSQL
+    static final int ROWS_PER_STATEMENT = 500;
+
+    // Tamaño máximo de una lista IN al leer ids o borrar detalles
+    private static final int MAX_IN_PARAMETERS = 1000;
+
+    private static final String RESULT_COLUMNS = "period_id, employee_id, total_earnings, total_deductions, net_pay";
+    private static final int[] RESULT_TYPES = {Types.VARCHAR, Types.INTEGER, Types.DECIMAL, Types.DECIMAL, Types.DECIMAL};
+    private static final String RESULT_UPDATE = "total_earnings = EXCLUDED.total_earnings,"
+            + " total_deductions = EXCLUDED.total_deductions, net_pay = EXCLUDED.net_pay";
+    private static final String DETAIL_COLUMNS = "payroll_result_id, concept_code, calculated_amount, calculation_log";
+    private static final int[] DETAIL_TYPES = {Types.BIGINT, Types.VARCHAR, Types.DECIMAL, Types.VARCHAR};
+
+    /**
+     * Resultado de una escritura: cuántos resultados quedaron guardados y el error de cada empleado que falló.
+     */
+    public record WriteSummary(int written, Map<Integer, String> failures) {
+        public boolean hasFailures() {
+            return !failures.isEmpty();
+        }
+
+        public List<Integer> failedEmployeeIds() {
+            return List.copyOf(failures.keySet());
+        }
+    }
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate transaction;
+    private volatile Boolean postgres; // null: todavía no se consulta el motor
+
+    public PayrollResultWriter(JdbcTemplate jdbc, PlatformTransactionManager transactionManager) {
+        this.jdbc = jdbc;
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Guarda (o reemplaza) los resultados y sus detalles; al terminar cada resultado guardado tiene su id.
+     * Si el mismo empleado y periodo viene dos veces en el lote, se guarda el último.
+     */
+    public WriteSummary write(List<PayrollResult> results) {
+        Map<List<Object>, PayrollResult> byKey = new LinkedHashMap<>();
+        for (PayrollResult result : results) {
+            if (result.getEmployeeId() == null || result.getPeriodId() == null) {
+                throw new IllegalArgumentException("PayrollResult sin empleado o periodo: no se puede guardar");
+            }
+            byKey.put(List.of(result.getPeriodId(), result.getEmployeeId()), result);
+        }
+        List<PayrollResult> unique = new ArrayList<>(byKey.values());
+        if (unique.isEmpty()) {
+            return new WriteSummary(0, Map.of());
+        }
+
+        try {
+            transaction.executeWithoutResult(status -> upsert(unique));
+            return new WriteSummary(unique.size(), Map.of());
+        } catch (RuntimeException e) {
+            log.warn("No se pudo guardar el lote de {} resultados ({}); se reintenta por empleado",
+                    unique.size(), e.getMessage());
+        }
+
+        Map<Integer, String> failed = new LinkedHashMap<>();
+        for (PayrollResult result : unique) {
+            try {
+                transaction.executeWithoutResult(status -> upsert(List.of(result)));
+            } catch (RuntimeException e) {
+                result.setId(null);
+                failed.put(result.getEmployeeId(), e.getClass().getSimpleName() + ": " + e.getMessage());
+                log.error("Error guardando el resultado del empleado {} para periodo {}: {}",
+                        result.getEmployeeId(), result.getPeriodId(), e.getMessage());
+            }
+        }
+        return new WriteSummary(unique.size() - failed.size(), failed);
+    }
+
+    private void upsert(List<PayrollResult> results) {
+        for (PayrollResult result : results) {
+            result.fillMissingTotals();
+        }
+        if (isPostgres()) {
+            upsertReturningIds(results);
+        } else {
+            insertRows("MERGE INTO payroll_results (" + RESULT_COLUMNS + ") KEY (employee_id, period_id) VALUES ",
+                    "", RESULT_TYPES, resultRows(results));
+            readBackIds(results);
+        }
+
+        List<Long> ids = new ArrayList<>(results.size());
+        List<Object[]> details = new ArrayList<>();
+        for (PayrollResult result : results) {
+            ids.add(result.getId());
+            for (PayrollResultDetail detail : result.getDetails()) {
+                details.add(new Object[]{result.getId(), detail.getConceptCode(),
+                        detail.getCalculatedAmount(), detail.getCalculationLog()});
+            }
+        }
+        for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+            List<Long> slice = ids.subList(from, Math.min(ids.size(), from + MAX_IN_PARAMETERS));
+            jdbc.update("DELETE FROM payroll_result_details WHERE payroll_result_id IN (" + placeholders(slice.size()) + ")",
+                    slice.toArray());
+        }
+        insertRows("INSERT INTO payroll_result_details (" + DETAIL_COLUMNS + ") VALUES ", "", DETAIL_TYPES, details);
+        log.debug("Guardados {} resultados y {} detalles", results.size(), details.size());
+    }
+
+    private boolean isPostgres() {
+        Boolean isPostgres = postgres;
+        if (isPostgres == null) {
+            String product = jdbc.execute((ConnectionCallback<String>) con -> con.getMetaData().getDatabaseProductName());
+            isPostgres = "PostgreSQL".equalsIgnoreCase(product);
+            postgres = isPostgres;
+        }
+        return isPostgres;
+    }
+
+    // ON CONFLICT conserva el id de la fila existente; RETURNING da el id de cada fila, nueva o actualizada
+    private void upsertReturningIds(List<PayrollResult> results) {
+        Map<List<Object>, PayrollResult> byKey = new HashMap<>();
+        for (PayrollResult result : results) {
+            byKey.put(List.of(result.getPeriodId(), result.getEmployeeId()), result);
+        }
+        List<Object[]> rows = resultRows(results);
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<Object[]> slice = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_STATEMENT));
+            Object[] args = flatten(slice, RESULT_TYPES.length);
+            jdbc.query("INSERT INTO payroll_results (" + RESULT_COLUMNS + ") VALUES " + rowPlaceholders(slice.size(), RESULT_TYPES.length)
+                            + " ON CONFLICT (employee_id, period_id) DO UPDATE SET " + RESULT_UPDATE
+                            + " RETURNING id, period_id, employee_id",
+                    args, repeat(RESULT_TYPES, slice.size()),
+                    rs -> {
+                        byKey.get(List.of(rs.getString("period_id"), rs.getInt("employee_id"))).setId(rs.getLong("id"));
+                    });
+        }
+    }
+
+    private void readBackIds(List<PayrollResult> results) {
+        Map<String, List<PayrollResult>> byPeriod = new LinkedHashMap<>();
+        for (PayrollResult result : results) {
+            byPeriod.computeIfAbsent(result.getPeriodId(), k -> new ArrayList<>()).add(result);
+        }
+        byPeriod.forEach((periodId, periodResults) -> {
+            for (int from = 0; from < periodResults.size(); from += MAX_IN_PARAMETERS) {
+                List<PayrollResult> slice = periodResults.subList(from, Math.min(periodResults.size(), from + MAX_IN_PARAMETERS));
+                Object[] args = new Object[slice.size() + 1];
+                args[0] = periodId;
+                for (int i = 0; i < slice.size(); i++) {
+                    args[i + 1] = slice.get(i).getEmployeeId();
+                }
+                Map<Integer, Long> ids = new HashMap<>();
+                jdbc.query("SELECT id, employee_id FROM payroll_results WHERE period_id = ? AND employee_id IN ("
+                                + placeholders(slice.size()) + ")",
+                        rs -> {
+                            ids.put(rs.getInt("employee_id"), rs.getLong("id"));
+                        }, args);
+                for (PayrollResult result : slice) {
+                    result.setId(ids.get(result.getEmployeeId()));
+                }
+            }
+        });
+    }
+
+    private static List<Object[]> resultRows(List<PayrollResult> results) {
+        List<Object[]> rows = new ArrayList<>(results.size());
+        for (PayrollResult result : results) {
+            rows.add(new Object[]{result.getPeriodId(), result.getEmployeeId(),
+                    result.getTotalEarnings(), result.getTotalDeductions(), result.getNetPay()});
+        }
+        return rows;
+    }
+
+    private void insertRows(String prefix, String suffix, int[] types, List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += ROWS_PER_STATEMENT) {
+            List<Object[]> slice = rows.subList(from, Math.min(rows.size(), from + ROWS_PER_STATEMENT));
+            jdbc.update(prefix + rowPlaceholders(slice.size(), types.length) + suffix,
+                    flatten(slice, types.length), repeat(types, slice.size()));
+        }
+    }
+
+    private static Object[] flatten(List<Object[]> rows, int width) {
+        Object[] args = new Object[rows.size() * width];
+        for (int i = 0; i < rows.size(); i++) {
+            System.arraycopy(rows.get(i), 0, args, i * width, width);
+        }
+        return args;
+    }
+
+    private static int[] repeat(int[] types, int times) {
+        int[] all = new int[types.length * times];
+        for (int i = 0; i < times; i++) {
+            System.arraycopy(types, 0, all, i * types.length, types.length);
+        }
+        return all;
+    }
+
+    private static String rowPlaceholders(int rows, int width) {
+        return String.join(", ", Collections.nCopies(rows, "(" + placeholders(width) + ")"));
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+}
@@ -2,15 +2,20 @@ package mx.payroll.system.processing.worker;
 
 import mx.payroll.system.domain.model.ConceptFormula;
 import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.domain.model.EmployeeConceptValue;
 import mx.payroll.system.domain.model.PayrollPeriod;
 import mx.payroll.system.domain.repository.ConceptFormulaRepository;
 import mx.payroll.system.domain.repository.EmployeeRepository;
 import mx.payroll.system.domain.repository.PayrollPeriodRepository;
-import mx.payroll.system.domain.repository.PayrollResultRepository;
+import mx.payroll.system.engine.ExecutionPlan;
+import mx.payroll.system.engine.PayrollFunctionRegistry;
 import mx.payroll.system.engine.PayrollResult; // Added import
 import mx.payroll.system.processing.dispatcher.PayrollChunkJob; // Added import
 import mx.payroll.system.service.PayrollService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -18,78 +23,214 @@ import org.springframework.stereotype.Component;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Component
 public class PayrollWorker {
 
+    private static final Logger log = LoggerFactory.getLogger(PayrollWorker.class);
+
     private final EmployeeRepository employeeRepo;
-    private final PayrollResultRepository resultRepo;
+    private final PayrollResultWriter resultWriter; // Upsert de varias filas en vez de saveAll
     private final PayrollService payrollService;
     private final ConceptFormulaRepository globalRulesRepo; // Added
     private final PayrollPeriodRepository payrollPeriodRepo; // Added
+    private final boolean batchMode; // Evaluar cada fórmula una vez por lote (por columnas)
+    private final ChunkExecutor chunkExecutor; // Cálculo en paralelo y permisos de base de datos
+    private final FailedChunkHandler failedChunkHandler; // Reintentos, partición de lotes y cuarentena
 
     public PayrollWorker(EmployeeRepository employeeRepo,
-                         PayrollResultRepository resultRepo,
+                         PayrollResultWriter resultWriter,
                          PayrollService payrollService,
                          ConceptFormulaRepository globalRulesRepo,
-                         PayrollPeriodRepository payrollPeriodRepo) {
+                         PayrollPeriodRepository payrollPeriodRepo,
+                         @Value("${payroll.engine.batch-mode:false}") boolean batchMode,
+                         ChunkExecutor chunkExecutor,
+                         FailedChunkHandler failedChunkHandler) {
         this.employeeRepo = employeeRepo;
-        this.resultRepo = resultRepo;
+        this.resultWriter = resultWriter;
         this.payrollService = payrollService;
         this.globalRulesRepo = globalRulesRepo;
         this.payrollPeriodRepo = payrollPeriodRepo;
+        this.batchMode = batchMode;
+        this.chunkExecutor = chunkExecutor;
+        this.failedChunkHandler = failedChunkHandler;
     }
 
     @RabbitListener(queues = "payroll_queue")
     public void processChunk(PayrollChunkJob job) {
-        System.out.println("Worker procesando lote página: " + job.getPage());
+        log.info("Worker procesando lote página: {} (intento {})", job.getPage(), job.getAttempt());
 
         // 1. Obtener el PayrollPeriod
         // For simplicity, assuming periodId from job is a direct identifier for PayrollPeriod
         // In a real scenario, you might have start/end dates from the job to find the period
-        PayrollPeriod period = payrollPeriodRepo.findByPeriodIdentifier(job.getPeriodId())
-                .orElseThrow(() -> new IllegalArgumentException("PayrollPeriod not found for identifier: " + job.getPeriodId()));
-
+        // Toda consulta o escritura del worker pasa por un permiso (ver ChunkExecutor)
+        PayrollPeriod period;
+        List<Employee> employees;
+        try {
+            period = chunkExecutor.withDbPermit(() -> payrollPeriodRepo.findByPeriodIdentifier(job.getPeriodId()))
+                    .orElseThrow(() -> new IllegalArgumentException("PayrollPeriod not found for identifier: " + job.getPeriodId()));
 
-        // 2. Fetch the Batch of Employees (e.g., 100 people)
-        List<Employee> employees = employeeRepo.findAllActive(
-                PageRequest.of(job.getPage(), job.getPageSize()) // Corrected to getPage()
-        ).getContent(); // Get content from Page object
+            // 2. Fetch the Batch of Employees (e.g., 100 people)
+            //    Por rango de ids (keyset) si el lote lo trae; los lotes por página usan OFFSET.
+            //    Ninguna de las dos consultas ejecuta un COUNT por lote
+            employees = chunkExecutor.withDbPermit(() -> job.isIdRange()
+                    ? employeeRepo.findActiveByIdRange(job.getMinId(), job.getMaxId())
+                    : employeeRepo.findAllActive(PageRequest.of(job.getPage(), job.getPageSize())).getContent());
+        } catch (RuntimeException e) {
+            // Sin empleados no se puede partir el lote: se reintenta completo (ver FailedChunkHandler)
+            log.error("Error leyendo el lote {}: {}", job.getPage(), e.getMessage());
+            handleJobFailure(job, describe(e));
+            return;
+        }
+        List<Integer> employeeIds = employees.stream().map(Employee::getId).toList();
+        Map<Integer, String> errors = new LinkedHashMap<>(); // empleado -> error, para reintentos y cuarentena
 
         // 3. PERFORMANCE OPTIMIZATION:
         // We fetch Global Rules (ISR, IMSS formulas) ONCE per batch, not per employee.
-        List<ConceptFormula> globalRules = globalRulesRepo.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(
-                period.getEndDate(), period.getEndDate()); // Corrected method name
+        // El plan (orden por dependencias) se construye UNA vez por periodo y versión de fórmulas;
+        // los demás lotes lo toman del caché de PayrollService
+        ExecutionPlan plan;
+        try {
+            List<ConceptFormula> globalRules = chunkExecutor.withDbPermit(() -> globalRulesRepo.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(
+                    period.getEndDate(), period.getEndDate())); // Corrected method name
+            plan = chunkExecutor.withDbPermit(() -> payrollService.buildExecutionPlan(globalRules, period));
+        } catch (Exception e) {
+            // El plan es del periodo, no de los empleados: partir el lote no aísla nada, se reintenta completo
+            log.error("Error construyendo el plan de ejecución para página {}: {}", job.getPage(), e.getMessage());
+            handleJobFailure(job, describe(e));
+            return;
+        }
 
         List<PayrollResult> batchResults = new ArrayList<>();
+        boolean isolated = true; // false si el error no se puede atribuir a un empleado
 
         // 4. Iterar sobre este pequeño lote y procesar cada empleado
-        for (Employee emp : employees) {
-            System.out.println("  -> Procesando empleado " + emp.getId() + " (" + emp.getFullName() + ") para periodo " + period.getPeriodIdentifier());
+        //    (en modo por lotes, cada fórmula se evalúa una vez para todo el lote)
+        if (batchMode) {
+            log.debug("Procesando {} empleados por lote para periodo {}", employees.size(), period.getPeriodIdentifier());
             try {
-                // Delegate the complex calculation logic to PayrollService
-                PayrollResult result = payrollService.calculatePayrollForEmployee(emp, period, globalRules); // Pass emp, period, globalRules
-                batchResults.add(result);
-                
+                PayrollService.ChunkCalculation calculation =
+                        chunkExecutor.withDbPermit(() -> payrollService.calculatePayrollForChunk(employees, period, plan));
+                batchResults.addAll(calculation.results());
+                // Los errores por fila son de su empleado: se reintentan o van a cuarentena uno por uno
+                errors.putAll(calculation.failures());
             } catch (Exception e) {
-                System.err.println("Error calculando empleado " + emp.getId() + ": " + e.getMessage());
+                log.error("Error calculando lote {}: {}", job.getPage(), e.getMessage());
+                employeeIds.forEach(id -> errors.put(id, describe(e)));
+                isolated = false;
+            }
+        } else {
+            // Valores de todos los empleados del lote en una sola consulta; cada uno recibe su parte
+            Map<Integer, List<EmployeeConceptValue>> valuesByEmployee;
+            try {
+                valuesByEmployee = chunkExecutor.withDbPermit(() -> payrollService.loadEmployeeValues(employees, period));
+            } catch (RuntimeException e) {
+                // Una sola consulta para todo el lote: el error no es de un empleado, se reintenta completo
+                log.error("Error leyendo los valores del lote {}: {}", job.getPage(), e.getMessage());
+                handleJobFailure(job, describe(e));
+                return;
+            }
+            // Con payroll.worker.parallelism > 1 los empleados se calculan en paralelo (sin tocar la base);
+            // los resultados se recogen en el orden del lote
+            List<CompletableFuture<PayrollResult>> calculations = new ArrayList<>(employees.size());
+            for (Employee emp : employees) {
+                log.debug("Procesando empleado {} para periodo {}", emp.getId(), period.getPeriodIdentifier());
+                // Delegate the complex calculation logic to PayrollService
+                calculations.add(chunkExecutor.submit(() -> payrollService.calculatePayrollForEmployee(emp, period, plan,
+                        valuesByEmployee.getOrDefault(emp.getId(), List.of()))));
+            }
+            for (int i = 0; i < calculations.size(); i++) {
+                try {
+                    batchResults.add(calculations.get(i).join());
+                } catch (CompletionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    log.error("Error calculando empleado {}: {}", employees.get(i).getId(), cause.getMessage());
+                    errors.put(employees.get(i).getId(), describe(cause));
+                }
             }
         }
 
         // 5. Batch Insert
         if (!batchResults.isEmpty()) {
-            System.out.println("Lote " + job.getPage() + ": Guardando " + batchResults.size() + " resultados de nómina.");
+            log.debug("Lote {}: Guardando {} resultados de nómina.", job.getPage(), batchResults.size());
             try {
-                resultRepo.saveAll(batchResults);
+                // Upsert: un lote reentregado sobrescribe sus resultados; si algo falla se aísla por empleado
+                PayrollResultWriter.WriteSummary summary = chunkExecutor.withDbPermit(() -> resultWriter.write(batchResults));
+                if (summary.hasFailures()) {
+                    log.warn("Lote {}: {} resultados guardados, empleados sin guardar: {}",
+                            job.getPage(), summary.written(), summary.failedEmployeeIds());
+                    errors.putAll(summary.failures());
+                }
+                List<Integer> saved = batchResults.stream().map(PayrollResult::getEmployeeId)
+                        .filter(id -> !summary.failures().containsKey(id)).toList();
+                releaseSaved(job, period.getPeriodIdentifier(), saved);
             } catch (Exception e) {
-                System.err.println("Error guardando lote de resultados para página " + job.getPage() + ": " + e.getMessage());
-                e.printStackTrace();
+                log.error("Error guardando lote de resultados para página {}", job.getPage(), e);
+                batchResults.forEach(result -> errors.put(result.getEmployeeId(), describe(e)));
+                isolated = false;
             }
-        } else {
-            System.out.println("Lote " + job.getPage() + ": No se generaron resultados para guardar.");
+        } else if (errors.isEmpty()) {
+            log.warn("Lote {}: No se generaron resultados para guardar.", job.getPage());
         }
+
+        handleFailures(job, employeeIds, errors, isolated);
         
-        System.out.println("Lote " + job.getPage() + " finalizado."); // Corrected to getPage()
+        if (log.isDebugEnabled()) {
+            PayrollFunctionRegistry.scopeFor(period.getStartDate(), period.getEndDate()).getStats().forEach((name, stats) ->
+                    log.debug("Función memoizada {}: {} aciertos, {} fallos ({}%)",
+                            name, stats.hits(), stats.misses(), String.format("%.1f", stats.hitRate() * 100)));
+        }
+        log.info("Lote {} finalizado.", job.getPage());
+    }
+
+    // Empleados que fallaron: reintento con backoff, partición del lote o cuarentena (ver FailedChunkHandler).
+    // Ninguna excepción sale del listener: Rabbit reencolaría el mensaje al instante con el mismo intento
+    private void handleFailures(PayrollChunkJob job, List<Integer> employeeIds, Map<Integer, String> errors, boolean isolated) {
+        if (errors.isEmpty()) {
+            return;
+        }
+        try {
+            chunkExecutor.withDbPermit(() -> {
+                failedChunkHandler.onFailure(job, employeeIds, errors, isolated);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.error("Lote {}: no se pudieron reintentar ni poner en cuarentena los empleados que fallaron: {}",
+                    job.getPage(), e.getMessage());
+            handleJobFailure(job, describe(e));
+        }
+    }
+
+    // Lote que falla completo: reintento con backoff y después la cola de mensajes muertos
+    private void handleJobFailure(PayrollChunkJob job, String error) {
+        try {
+            failedChunkHandler.onJobFailure(job, error);
+        } catch (RuntimeException e) {
+            // Sin broker no queda dónde dejar el lote; se descarta aquí en lugar de reencolarlo en caliente
+            log.error("Lote {} perdido: no se pudo reencolar ni mandar a mensajes muertos ({}); error original: {}",
+                    job, e.getMessage(), error);
+        }
+    }
+
+    // Los resultados ya están guardados: si falla sacarlos de cuarentena solo se registra
+    private void releaseSaved(PayrollChunkJob job, String periodId, List<Integer> saved) {
+        try {
+            chunkExecutor.withDbPermit(() -> {
+                failedChunkHandler.release(periodId, saved);
+                return null;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Lote {}: resultados guardados, pero no se pudo sacar de cuarentena a {}: {}",
+                    job.getPage(), saved, e.getMessage());
+        }
+    }
+
+    private static String describe(Throwable e) {
+        return e.getClass().getSimpleName() + ": " + e.getMessage();
     }
 }
@@ -0,0 +1,162 @@
+package mx.payroll.system.service;
+
+import mx.payroll.system.domain.model.Concept;
+import mx.payroll.system.domain.model.ConceptFormula;
+import mx.payroll.system.domain.repository.ConceptFormulaRepository;
+import mx.payroll.system.domain.repository.ConceptRepository;
+import mx.payroll.system.domain.repository.EconomicIndicatorRepository;
+import mx.payroll.system.dto.ConceptFormulaRequestDTO;
+import mx.payroll.system.engine.ConceptCatalog;
+import mx.payroll.system.engine.ExecutionPlan;
+import mx.payroll.system.engine.FormulaEngine;
+import mx.payroll.system.engine.FormulaValidator;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Service
+@Transactional
+public class ConceptFormulaService {
+
+    private final ConceptFormulaRepository formulaRepository;
+    private final ConceptRepository conceptRepository;
+    private final EconomicIndicatorRepository indicatorRepository;
+    private final FormulaEngine formulaEngine;
+
+    public ConceptFormulaService(ConceptFormulaRepository formulaRepository,
+                                 ConceptRepository conceptRepository,
+                                 EconomicIndicatorRepository indicatorRepository,
+                                 FormulaEngine formulaEngine) {
+        this.formulaRepository = formulaRepository;
+        this.conceptRepository = conceptRepository;
+        this.indicatorRepository = indicatorRepository;
+        this.formulaEngine = formulaEngine;
+    }
+
+    /**
+     * Obtener las fórmulas vigentes en una fecha
+     */
+    @Transactional(readOnly = true)
+    public List<ConceptFormula> getActiveFormulas(LocalDate date) {
+        return formulaRepository.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(date, date);
+    }
+
+    /**
+     * Crear o actualizar la fórmula de un concepto.
+     * Antes de guardar se valida el conjunto completo de fórmulas vigentes (ver {@link FormulaValidator}):
+     * sintaxis, variables y funciones conocidas, tipos de los argumentos y sin dependencias circulares.
+     */
+    public ConceptFormula saveFormula(ConceptFormulaRequestDTO request) {
+        if (request.getConceptCode() == null || request.getConceptCode().isBlank()) {
+            throw new IllegalArgumentException("El código de concepto es obligatorio");
+        }
+        if (request.getFormulaExpression() == null || request.getFormulaExpression().isBlank()) {
+            throw new IllegalArgumentException("La fórmula es obligatoria");
+        }
+        if (request.getEffectiveDate() == null) {
+            throw new IllegalArgumentException("La fecha de vigencia es obligatoria");
+        }
+        if (!conceptRepository.existsById(request.getConceptCode())) {
+            throw new IllegalArgumentException("Concepto no encontrado: " + request.getConceptCode());
+        }
+
+        ConceptFormula formula = formulaRepository.findByConceptCode(request.getConceptCode())
+                .orElseGet(ConceptFormula::new);
+        String previousExpression = formula.getFormulaExpression();
+
+        formula.setConceptCode(request.getConceptCode());
+        formula.setFormulaExpression(request.getFormulaExpression());
+        formula.setDescription(request.getDescription());
+        formula.setEffectiveDate(request.getEffectiveDate());
+        formula.setEndDate(request.getEndDate());
+        formula.setOrder(request.getOrder());
+
+        // La fórmula nueva reemplaza a la vigente del mismo concepto dentro del grafo
+        List<ConceptFormula> formulas = new ArrayList<>();
+        for (ConceptFormula active : getActiveFormulas(request.getEffectiveDate())) {
+            if (!active.getConceptCode().equals(request.getConceptCode())) {
+                formulas.add(active);
+            }
+        }
+        formulas.add(formula);
+        validateFormulas(formulas);
+
+        ConceptFormula saved = formulaRepository.save(formula);
+        if (previousExpression != null && !previousExpression.equals(saved.getFormulaExpression())) {
+            formulaEngine.invalidate(previousExpression);
+        }
+        return saved;
+    }
+
+    /**
+     * Plan de ejecución (niveles de conceptos) de las fórmulas vigentes en una fecha
+     */
+    @Transactional(readOnly = true)
+    public ExecutionPlan getExecutionPlan(LocalDate date) {
+        return validateFormulas(getActiveFormulas(date));
+    }
+
+    /**
+     * Valida un conjunto de fórmulas y devuelve su plan de ejecución.
+     *
+     * @throws IllegalArgumentException si hay errores de sintaxis, ciclos o variables sin origen
+     */
+    @Transactional(readOnly = true)
+    public ExecutionPlan validateFormulas(List<ConceptFormula> formulas) {
+        return validateFormulas(formulas, null);
+    }
+
+    /**
+     * Igual que {@link #validateFormulas(List)}, con las fórmulas especializadas para un periodo
+     * (ver {@link FormulaEngine#specialize}). El plan queda marcado como validado: en el cálculo
+     * por empleado ya no se buscan variables faltantes.
+     *
+     * @param periodValues valores constantes del periodo (indicadores), o null
+     * @throws IllegalArgumentException con el diagnóstico de cada fórmula inválida
+     */
+    @Transactional(readOnly = true)
+    public ExecutionPlan validateFormulas(List<ConceptFormula> formulas, Map<String, ? extends Number> periodValues) {
+        List<Concept> concepts = conceptRepository.findAll();
+        FormulaValidator validator = new FormulaValidator(formulaEngine, knownInputs(concepts), conceptCatalog(concepts));
+        FormulaValidator.Result result = validator.validate(formulas, periodValues);
+        if (result.isValid()) {
+            return result.plan();
+        }
+
+        FormulaValidator.Diagnostic first = result.diagnostics().get(0);
+        if (first.kind() == FormulaValidator.Kind.CYCLE) {
+            throw new IllegalArgumentException("Dependencia circular entre conceptos: " + first.message());
+        }
+        String errors = result.diagnostics().stream()
+                .map(d -> "Fórmula inválida para " + d.conceptCode()
+                        + (d.position() >= 0 ? " (posición " + d.position() + ")" : "") + ": " + d.message())
+                .collect(Collectors.joining("; "));
+        throw new IllegalArgumentException(errors);
+    }
+
+    // Valores que llegan de fuera de las fórmulas: conceptos asignados a empleados e indicadores económicos
+    private Set<String> knownInputs(List<Concept> concepts) {
+        Set<String> inputs = new HashSet<>(indicatorRepository.findAllCodes());
+        for (Concept concept : concepts) {
+            inputs.add(concept.getCode());
+        }
+        return inputs;
+    }
+
+    // Tipo de cada concepto (EARNING, DEDUCTION, ...): define los totales acumulados del plan
+    private static ConceptCatalog conceptCatalog(List<Concept> concepts) {
+        Map<String, String> types = new HashMap<>();
+        for (Concept concept : concepts) {
+            types.put(concept.getCode(), concept.getType());
+        }
+        return ConceptCatalog.of(types);
+    }
+}
@@ -0,0 +1,98 @@
+package mx.payroll.system.service;
+
+import mx.payroll.system.domain.model.EconomicIndicator;
+import mx.payroll.system.domain.model.EconomicIndicatorChangeListener;
+import mx.payroll.system.domain.repository.EconomicIndicatorRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Foto de los indicadores económicos vigentes a una fecha (UMA, SMI...).
+ * La consulta con MAX correlacionado corre una sola vez por fecha; después todos los lotes,
+ * hilos y empleados del periodo leen la misma foto.
+ * El caché se descarta cuando JPA modifica economic_indicators en esta instancia, y en todo caso
+ * al vencer payroll.reference-data.cache-ttl-ms: con varios workers, los que no hicieron el cambio
+ * lo toman a más tardar en ese tiempo. Si la tabla se carga por fuera de la aplicación y el cambio
+ * debe verse de inmediato hay que llamar a {@link #invalidate()}.
+ */
+@Service
+public class IndicatorSnapshotService {
+
+    // Pocas fechas a la vez: normalmente solo el periodo en proceso
+    private static final int RETAINED_DATES = 8;
+
+    private final EconomicIndicatorRepository indicatorRepository;
+
+    private final Map<LocalDate, Map<String, BigDecimal>> snapshots = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LocalDate, Map<String, BigDecimal>> eldest) {
+            return size() > RETAINED_DATES;
+        }
+    };
+    private long seenChanges = EconomicIndicatorChangeListener.changeCount();
+    // Vida máxima de las fotos (ms; 0 = sin límite) y cuándo se vació el caché por última vez
+    private final long cacheTtlMillis;
+    private long cachedSince = System.currentTimeMillis();
+
+    public IndicatorSnapshotService(EconomicIndicatorRepository indicatorRepository) {
+        this(indicatorRepository, 0);
+    }
+
+    @Autowired
+    public IndicatorSnapshotService(EconomicIndicatorRepository indicatorRepository,
+                                    @Value("${payroll.reference-data.cache-ttl-ms:300000}") long cacheTtlMillis) {
+        this.indicatorRepository = indicatorRepository;
+        this.cacheTtlMillis = Math.max(0, cacheTtlMillis);
+    }
+
+    /**
+     * Indicadores vigentes a la fecha: código -> valor, en el orden de la consulta. Inmutable.
+     */
+    @Transactional(readOnly = true)
+    public Map<String, BigDecimal> snapshotAsOf(LocalDate date) {
+        long changes = EconomicIndicatorChangeListener.changeCount();
+        long now = System.currentTimeMillis();
+        synchronized (snapshots) {
+            if (changes != seenChanges || (cacheTtlMillis > 0 && now - cachedSince >= cacheTtlMillis)) {
+                snapshots.clear();
+                seenChanges = changes;
+                cachedSince = now;
+            }
+            Map<String, BigDecimal> cached = snapshots.get(date);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Se consulta fuera del candado; si dos hilos piden la misma fecha, gana el primero
+        Map<String, BigDecimal> values = new LinkedHashMap<>();
+        for (EconomicIndicator indicator : indicatorRepository.findAllEffectiveIndicators(date)) {
+            values.put(indicator.getCode(), indicator.getValue());
+        }
+        Map<String, BigDecimal> snapshot = Collections.unmodifiableMap(values);
+        synchronized (snapshots) {
+            if (EconomicIndicatorChangeListener.changeCount() != changes) {
+                return snapshot; // la tabla cambió mientras se consultaba: no se guarda
+            }
+            Map<String, BigDecimal> existing = snapshots.putIfAbsent(date, snapshot);
+            return existing != null ? existing : snapshot;
+        }
+    }
+
+    /**
+     * Descarta todas las fotos (ej. después de una carga directa a economic_indicators).
+     */
+    public void invalidate() {
+        synchronized (snapshots) {
+            snapshots.clear();
+            cachedSince = System.currentTimeMillis();
+        }
+    }
+}
@@ -5,40 +5,84 @@ import mx.payroll.system.domain.model.Employee;
 import mx.payroll.system.domain.model.EmployeeConceptValue;
 import mx.payroll.system.domain.model.PayrollPeriod;
 import mx.payroll.system.domain.repository.ConceptFormulaRepository;
-import mx.payroll.system.domain.repository.EconomicIndicatorRepository;
 import mx.payroll.system.domain.repository.EmployeeConceptValueRepository;
+import mx.payroll.system.engine.CalculationTrace;
 import mx.payroll.system.engine.DynamicDbRule; // Concrete rule implementation
+import mx.payroll.system.engine.ExecutionPlan;
 import mx.payroll.system.engine.FormulaEngine;
+import mx.payroll.system.engine.PayrollBatch;
 import mx.payroll.system.engine.PayrollContext;
 import mx.payroll.system.engine.PayrollEngine;
+import mx.payroll.system.engine.PayrollFunctionRegistry;
+import mx.payroll.system.engine.PayrollFunctions;
 import mx.payroll.system.engine.PayrollRule;
 import mx.payroll.system.engine.PayrollResult;
+import mx.payroll.system.engine.PeriodLayer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
 public class PayrollService {
 
+    private static final Logger log = LoggerFactory.getLogger(PayrollService.class);
+
     private final EmployeeConceptValueRepository specificRepo; // Datos de Juan
     private final ConceptFormulaRepository globalRepo;         // Reglas de Todos
-    private final EconomicIndicatorRepository indicatorRepo;   // Datos Económicos
+    private final IndicatorSnapshotService indicatorSnapshots; // Datos Económicos (una foto por fecha)
     private final PayrollEngine engine;
     private final FormulaEngine formulaEngine; // Needed to create DynamicDbRules
+    private final ConceptFormulaService conceptFormulaService; // Validación estática de fórmulas
+
+    // Planes por periodo ya validados y especializados, reutilizados por todos los lotes e hilos.
+    // La llave incluye la versión del conjunto de fórmulas y los indicadores: si cambian, se arma otro plan
+    private static final int RETAINED_PLANS = 4;
+    private final Map<PlanKey, ExecutionPlan> planCache = new LinkedHashMap<>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PlanKey, ExecutionPlan> eldest) {
+            return size() > RETAINED_PLANS;
+        }
+    };
+
+    // Tope de ids por consulta IN (algunas bases limitan el número de parámetros)
+    private static final int MAX_IN_PARAMETERS = 1000;
+
+    private record PlanKey(LocalDate periodEndDate, long formulaSetVersion, Map<String, BigDecimal> indicators) {
+    }
+
+    /**
+     * Resultado del cálculo de un lote: los resultados calculados y el error de cada empleado que falló.
+     */
+    public record ChunkCalculation(List<PayrollResult> results, Map<Integer, String> failures) {
+    }
 
     public PayrollService(EmployeeConceptValueRepository specificRepo,
                           ConceptFormulaRepository globalRepo,
-                          EconomicIndicatorRepository indicatorRepo,
+                          IndicatorSnapshotService indicatorSnapshots,
                           PayrollEngine engine,
-                          FormulaEngine formulaEngine) {
+                          FormulaEngine formulaEngine,
+                          ConceptFormulaService conceptFormulaService) {
         this.specificRepo = specificRepo;
         this.globalRepo = globalRepo;
-        this.indicatorRepo = indicatorRepo;
+        this.indicatorSnapshots = indicatorSnapshots;
         this.engine = engine;
         this.formulaEngine = formulaEngine;
+        this.conceptFormulaService = conceptFormulaService;
     }
 
     public PayrollResult processEmployee(Employee employee, PayrollPeriod period) {
@@ -47,60 +91,250 @@ public class PayrollService {
         throw new UnsupportedOperationException("This method should not be called directly. Use calculatePayrollForEmployee.");
     }
 
+    /**
+     * Convierte las fórmulas globales en un plan de ejecución ordenado por dependencias.
+     * El plan es inmutable y se comparte entre empleados; no se guarda en caché
+     * (ver {@link #buildExecutionPlan(List, PayrollPeriod)}).
+     */
+    public ExecutionPlan buildExecutionPlan(List<ConceptFormula> globalFormulas) {
+        return ExecutionPlan.of(convertFormulasToRules(globalFormulas));
+    }
+
+    // Orden estable para la versión: no depende del orden en que la consulta devuelve las fórmulas
+    private static final Comparator<ConceptFormula> VERSION_ORDER = Comparator
+            .comparing(ConceptFormula::getConceptCode, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparingInt(ConceptFormula::getOrder)
+            .thenComparing(ConceptFormula::getId, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(ConceptFormula::getFormulaExpression, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    /**
+     * Versión de un conjunto de fórmulas: un resumen SHA-256 (64 bits) de id, concepto, orden,
+     * expresión y vigencia de cada fórmula. Cambia si cambia cualquiera de ellos; la llave del caché
+     * de planes guarda solo este número y no el texto de las fórmulas.
+     */
+    static long formulaSetVersion(List<ConceptFormula> formulas) {
+        List<ConceptFormula> sorted = new ArrayList<>(formulas);
+        sorted.sort(VERSION_ORDER);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+        for (ConceptFormula f : sorted) {
+            update(digest, f.getId());
+            update(digest, f.getConceptCode());
+            update(digest, f.getOrder());
+            update(digest, f.getFormulaExpression());
+            update(digest, f.getEffectiveDate());
+            update(digest, f.getEndDate());
+        }
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    // Cada campo termina en un separador para que "AB"+"C" y "A"+"BC" no den el mismo resumen
+    private static void update(MessageDigest digest, Object field) {
+        digest.update(String.valueOf(field).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Igual que {@link #buildExecutionPlan(List)}, pero especializa las fórmulas para el periodo:
+     * lo que solo depende de indicadores económicos (ej. #UMA * 30 * 0.40) se calcula una vez
+     * aquí y no una vez por empleado.
+     * Las fórmulas pasan por el validador estático, así que el plan no revisa variables
+     * faltantes por empleado. El plan lleva además la capa del periodo con los indicadores,
+     * compartida por todos los empleados.
+     * El plan se arma una sola vez por periodo y versión de fórmulas: los demás lotes lo reutilizan.
+     * Aquí también se cargan los datos del periodo de las funciones (la tabla de ISR), para que el
+     * cálculo de los empleados no consulte la base.
+     *
+     * @throws IllegalArgumentException si alguna fórmula es inválida
+     */
+    @Transactional(readOnly = true)
+    public ExecutionPlan buildExecutionPlan(List<ConceptFormula> globalFormulas, PayrollPeriod period) {
+        PayrollFunctions.preloadPeriodData(period.getStartDate(), period.getEndDate());
+        Map<String, BigDecimal> indicators = indicatorSnapshots.snapshotAsOf(period.getEndDate());
+        PlanKey key = new PlanKey(period.getEndDate(), formulaSetVersion(globalFormulas), indicators);
+
+        ExecutionPlan cached;
+        synchronized (planCache) {
+            cached = planCache.get(key);
+        }
+        if (cached != null) {
+            return cached;
+        }
+        // Se arma fuera del candado (consulta el catálogo); si dos hilos lo arman a la vez, gana el primero
+        ExecutionPlan plan = compileExecutionPlan(globalFormulas, indicators);
+        synchronized (planCache) {
+            ExecutionPlan existing = planCache.putIfAbsent(key, plan);
+            return existing != null ? existing : plan;
+        }
+    }
+
+    private ExecutionPlan compileExecutionPlan(List<ConceptFormula> globalFormulas,
+                                               Map<String, BigDecimal> indicators) {
+        Map<String, BigDecimal> periodValues = new HashMap<>();
+        indicators.forEach((code, value) -> {
+            if (value != null) {
+                periodValues.put(code, value);
+            }
+        });
+        // Un código calculado por fórmula no es constante en el periodo
+        globalFormulas.forEach(f -> periodValues.remove(f.getConceptCode()));
+
+        ExecutionPlan plan = conceptFormulaService.validateFormulas(globalFormulas, periodValues);
+
+        // Reporte: operaciones precalculadas por fórmula
+        for (PayrollRule rule : plan.getRules()) {
+            if (rule instanceof DynamicDbRule dynamic && (dynamic.getFormula().getHoistedOperations() > 0
+                    || !dynamic.getFormula().getHoistedVariables().isEmpty())) {
+                log.info("{}: {} operaciones precalculadas por periodo {}", dynamic.getCode(),
+                        dynamic.getFormula().getHoistedOperations(), dynamic.getFormula().getHoistedVariables());
+            }
+        }
+        return withPeriodLayer(plan, indicators);
+    }
+
+    // Indicadores del periodo en una capa inmutable: una sola copia para todos los empleados
+    private ExecutionPlan withPeriodLayer(ExecutionPlan plan, Map<String, BigDecimal> indicators) {
+        return plan.withPeriodLayer(plan.newPeriodLayer(indicators));
+    }
+
+    // Planes construidos sin periodo: se les agrega la capa con los indicadores vigentes
+    private ExecutionPlan ensurePeriodLayer(ExecutionPlan plan, PayrollPeriod period) {
+        if (plan.getPeriodLayer() != null) {
+            return plan;
+        }
+        return withPeriodLayer(plan, indicatorSnapshots.snapshotAsOf(period.getEndDate()));
+    }
+
     // New method to encapsulate the payroll calculation for a single employee
     @Transactional(readOnly = true)
     public PayrollResult calculatePayrollForEmployee(Employee employee, PayrollPeriod period, List<ConceptFormula> globalFormulas) {
-        // -------------------------------------------------------------
-        // PASO 1: RECUPERAR LO ESPECÍFICO DEL EMPLEADO (valores fijos)
-        // -------------------------------------------------------------
-        // DB dice: Juan tiene INC01=3000 y D05=500
+        // El plan del periodo sale del caché: no se ordenan ni compilan las reglas por empleado
+        return calculatePayrollForEmployee(employee, period, buildExecutionPlan(globalFormulas, period));
+    }
+
+    @Transactional(readOnly = true)
+    public PayrollResult calculatePayrollForEmployee(Employee employee, PayrollPeriod period, ExecutionPlan plan) {
         List<EmployeeConceptValue> specificValues = specificRepo.findByEmployeeIdAndEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(
             employee.getId(), period.getEndDate(), period.getEndDate());
+        return calculatePayrollForEmployee(employee, period, plan, specificValues);
+    }
 
+    /**
+     * Igual que {@link #calculatePayrollForEmployee(Employee, PayrollPeriod, ExecutionPlan)}, con los
+     * valores del empleado ya cargados (ver {@link #loadEmployeeValues(List, PayrollPeriod)}).
+     * No abre transacción: con el plan del periodo y los valores precargados el cálculo no usa la
+     * base, así que los workers pueden llamarlo desde varios hilos sin ocupar conexiones.
+     */
+    public PayrollResult calculatePayrollForEmployee(Employee employee, PayrollPeriod period, ExecutionPlan plan,
+                                                     List<EmployeeConceptValue> specificValues) {
         // -------------------------------------------------------------
-        // PASO 2: CONSTRUIR EL CONTEXTO (LA MOCHILA)
+        // PASOS 1 y 2: VALORES FIJOS E INDICADORES -> CONTEXTO (LA MOCHILA)
         // -------------------------------------------------------------
-        PayrollContext context = new PayrollContext(employee);
-        
-        // A. Cargamos los valores fijos del EmployeeConceptValue en el contexto
-        for (EmployeeConceptValue val : specificValues) {
-            context.setFixedValue(val.getConceptCode(), val.getAmount());
-        }
-
-        // B. Cargar TODOS los Indicadores Económicos vigentes (UMA, SMI, etc.)
-        // Esto permite que el sistema evolucione sin cambios de código
-        List<mx.payroll.system.domain.model.EconomicIndicator> indicators = indicatorRepo.findAllEffectiveIndicators(period.getEndDate());
-        for (mx.payroll.system.domain.model.EconomicIndicator ind : indicators) {
-            context.setFixedValue(ind.getCode(), ind.getValue());
-        }
+        plan = ensurePeriodLayer(plan, period);
+        PayrollContext context = buildContext(employee, period, plan, specificValues);
 
         // -------------------------------------------------------------
-        // PASO 3: CONVERTIR FÓRMULAS GLOBALES A REGLAS DE EJECUCIÓN
+        // PASO 3: PLAN DE EJECUCIÓN (fórmulas globales ordenadas por dependencias)
         // -------------------------------------------------------------
-        // Convierte tu entidad DB a objeto de negocio Rule
-        List<PayrollRule> rulesToApply = globalFormulas.stream()
-            .map(f -> new DynamicDbRule(f.getConceptCode(), f.getOrder(), f.getFormulaExpression(), formulaEngine))
-            .collect(Collectors.toList());
-        
-        System.out.println("    -> Aplicando reglas: " + rulesToApply.stream().map(PayrollRule::getCode).collect(Collectors.joining(", ")));
-        System.out.println("    -> Contexto de Cálculo para empleado " + employee.getId() + ": " + context.getVariables());
-        System.out.println("    -> HIRE_DATE: " + employee.getHireDate());
+        // Traza del cálculo solo para los empleados muestreados (ver CalculationTrace)
+        PayrollResult result;
+        if (CalculationTrace.begin(employee)) {
+            CalculationTrace.trace("Empleado {}: reglas {}", employee.getId(), plan.getLevelCodes());
+            CalculationTrace.trace("Empleado {}: contexto {}, HIRE_DATE {}", employee.getId(), context.getVariables(),
+                    employee.getHireDate());
+        }
+        try {
+            // -------------------------------------------------------------
+            // PASO 4: EJECUTAR EL MOTOR
+            // -------------------------------------------------------------
+            result = engine.calculate(context, plan);
+        } finally {
+            CalculationTrace.end();
+        }
 
-        // -------------------------------------------------------------
-        // PASO 4: EJECUTAR EL MOTOR
-        // -------------------------------------------------------------
-        PayrollResult result = engine.calculate(context, rulesToApply);
-        
         // Asignar metadatos del periodo al resultado
         result.setPeriodId(period.getPeriodIdentifier()); // Using new periodIdentifier
         
         return result;
     }
+
+    /**
+     * Modo por lotes: cada fórmula se evalúa una sola vez sobre todo el lote (por columnas),
+     * en lugar de empleado por empleado. Los resultados son idénticos a llamar
+     * {@link #calculatePayrollForEmployee(Employee, PayrollPeriod, ExecutionPlan)} por empleado.
+     * Los empleados cuyo cálculo falla no se incluyen en los resultados: se devuelven en
+     * {@link ChunkCalculation#failures()} con su error, para que el worker los reintente o los
+     * mande a cuarentena.
+     */
+    @Transactional(readOnly = true)
+    public ChunkCalculation calculatePayrollForChunk(List<Employee> employees, PayrollPeriod period, ExecutionPlan plan) {
+        // Los indicadores son los mismos para todo el lote: una sola capa compartida
+        plan = ensurePeriodLayer(plan, period);
+        Map<Integer, List<EmployeeConceptValue>> valuesByEmployee = loadEmployeeValues(employees, period);
+        List<PayrollContext> contexts = new ArrayList<>(employees.size());
+        for (Employee employee : employees) {
+            contexts.add(buildContext(employee, period, plan, valuesByEmployee.getOrDefault(employee.getId(), List.of())));
+        }
+
+        log.debug("Aplicando reglas por lote ({} empleados): {}", employees.size(), plan.getLevelCodes());
+        PayrollBatch batch = new PayrollBatch(contexts);
+        List<PayrollResult> results = engine.calculate(batch, plan);
+
+        Map<Integer, String> failures = new LinkedHashMap<>();
+        batch.getFailures().forEach((row, e) -> {
+            log.error("Error calculando empleado {}: {}", employees.get(row).getId(), e.getMessage());
+            failures.put(employees.get(row).getId(), e.getClass().getSimpleName() + ": " + e.getMessage());
+        });
+        for (PayrollResult result : results) {
+            result.setPeriodId(period.getPeriodIdentifier());
+        }
+        return new ChunkCalculation(results, failures);
+    }
+
+    /**
+     * Valores vigentes (EmployeeConceptValue) de todos los empleados de un lote en una sola
+     * consulta, agrupados por empleado. Sustituye una consulta por empleado.
+     */
+    @Transactional(readOnly = true)
+    public Map<Integer, List<EmployeeConceptValue>> loadEmployeeValues(List<Employee> employees, PayrollPeriod period) {
+        List<Integer> ids = employees.stream().map(Employee::getId).distinct().toList();
+        Map<Integer, List<EmployeeConceptValue>> byEmployee = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += MAX_IN_PARAMETERS) {
+            List<Integer> slice = ids.subList(from, Math.min(from + MAX_IN_PARAMETERS, ids.size()));
+            for (EmployeeConceptValue value : specificRepo.findActiveByEmployeeIdsAndDate(slice, period.getEndDate())) {
+                byEmployee.computeIfAbsent(value.getEmployeeId(), id -> new ArrayList<>()).add(value);
+            }
+        }
+        return byEmployee;
+    }
+
+    private PayrollContext buildContext(Employee employee, PayrollPeriod period, ExecutionPlan plan,
+                                        List<EmployeeConceptValue> specificValues) {
+        // DB dice: Juan tiene INC01=3000 y D05=500
+
+        // Los valores se guardan en los slots del plan; los indicadores (UMA, SMI, etc.)
+        // ya están en la capa del periodo, compartida por todos los empleados
+        PayrollContext context = plan.newContext(employee);
+        PeriodLayer periodLayer = plan.getPeriodLayer();
+        // Funciones memoizadas compartidas por todos los empleados del periodo
+        context.setFunctionScope(PayrollFunctionRegistry.scopeFor(period.getStartDate(), period.getEndDate()));
+
+        // Cargamos los valores fijos del EmployeeConceptValue en el contexto.
+        // Un indicador con el mismo código tiene prioridad (como cuando se copiaba después)
+        for (EmployeeConceptValue val : specificValues) {
+            if (!periodLayer.has(val.getConceptCode())) {
+                context.setFixedValue(val.getConceptCode(), val.getAmount());
+            }
+        }
+        return context;
+    }
     
-    // Helper simple
+    // Helper simple: entidad DB -> objeto de negocio Rule
     private List<PayrollRule> convertFormulasToRules(List<ConceptFormula> formulas) {
-        // This helper is now redundant as its logic is in calculatePayrollForEmployee
-        // But kept for now to avoid breaking other calls if any.
         return formulas.stream()
             .map(f -> new DynamicDbRule(f.getConceptCode(), f.getOrder(), f.getFormulaExpression(), formulaEngine))
             .collect(Collectors.toList());
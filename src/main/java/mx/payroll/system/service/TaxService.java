@@ -1,21 +1,171 @@
 package mx.payroll.system.service;
 
 import mx.payroll.system.domain.model.TaxTable;
+import mx.payroll.system.domain.model.TaxTableChangeListener;
 import mx.payroll.system.domain.repository.TaxTableRepository;
+import mx.payroll.system.engine.CalculationTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
-import java.util.Optional;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class TaxService {
 
+    private static final Logger log = LoggerFactory.getLogger(TaxService.class);
+
     private final TaxTableRepository repository;
 
+    // Tablas ya cargadas por (año fiscal, tipo): el cálculo de ISR no consulta la base por empleado
+    private final Map<TableKey, TaxBrackets> indexes = new ConcurrentHashMap<>();
+    private volatile long seenChanges = TaxTableChangeListener.changeCount();
+    // Sube cada vez que se descartan las tablas en memoria (ver tablesVersion)
+    private final AtomicLong generation = new AtomicLong();
+    // Vida máxima de las tablas en memoria (ms; 0 = sin límite) y cuándo se empezaron a cargar
+    private final long cacheTtlMillis;
+    private volatile long loadedAt = System.currentTimeMillis();
+
+    private record TableKey(int fiscalYear, String tableType) {
+    }
+
+    /**
+     * Tramos de una tabla (año fiscal y tipo) ordenados por límite inferior, en arreglos paralelos.
+     * Inmutable: se resuelve una vez por periodo y se comparte entre hilos.
+     */
+    public record TaxBrackets(int fiscalYear, String tableType,
+                              BigDecimal[] lowerLimits, BigDecimal[] fixedFees, BigDecimal[] rates) {
+
+        static TaxBrackets of(int fiscalYear, String tableType, List<TaxTable> brackets) {
+            int n = brackets.size();
+            BigDecimal[] lower = new BigDecimal[n];
+            BigDecimal[] fees = new BigDecimal[n];
+            BigDecimal[] rates = new BigDecimal[n];
+            for (int i = 0; i < n; i++) {
+                TaxTable bracket = brackets.get(i);
+                lower[i] = bracket.getLowerLimit();
+                fees[i] = bracket.getFixedFee();
+                rates[i] = bracket.getPercentExcess();
+            }
+            return new TaxBrackets(fiscalYear, tableType, lower, fees, rates);
+        }
+
+        /**
+         * Posición del tramo con el mayor límite inferior <= base (el último si hay empates),
+         * o -1 si la base está debajo de todos los tramos.
+         */
+        private int find(BigDecimal base) {
+            int low = 0;
+            int high = lowerLimits.length - 1;
+            int found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (lowerLimits[mid].compareTo(base) <= 0) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return found;
+        }
+    }
+
     public TaxService(TaxTableRepository repository) {
+        this(repository, 0);
+    }
+
+    @Autowired
+    public TaxService(TaxTableRepository repository,
+                      @Value("${payroll.reference-data.cache-ttl-ms:300000}") long cacheTtlMillis) {
         this.repository = repository;
+        this.cacheTtlMillis = Math.max(0, cacheTtlMillis);
+    }
+
+    /**
+     * Descarta las tablas en memoria; se vuelven a cargar en el siguiente cálculo.
+     * Los cambios hechos por JPA en esta instancia la disparan solos; las cargas directas a
+     * tax_tables deben llamarla.
+     */
+    public void reloadTaxTables() {
+        indexes.clear();
+        loadedAt = System.currentTimeMillis();
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Recarga las tablas si llevan más de payroll.reference-data.cache-ttl-ms en memoria.
+     * El contador de JPA solo ve los cambios hechos en esta JVM: con varios workers, los que no
+     * hicieron el cambio lo toman al vencer el TTL. Se llama al armar el plan de un lote (no
+     * durante el cálculo), para que la recarga no caiga a mitad de un lote.
+     */
+    public void refreshIfStale() {
+        if (cacheTtlMillis > 0 && System.currentTimeMillis() - loadedAt >= cacheTtlMillis) {
+            log.debug("Tablas de ISR con más de {} ms en memoria; se recargan", cacheTtlMillis);
+            reloadTaxTables();
+        }
+    }
+
+    /**
+     * Versión de las tablas en memoria: cambia cuando se recargan (por un cambio hecho por JPA o por
+     * {@link #reloadTaxTables()}). Lo que se derive de las tablas fuera de este servicio (el ISR
+     * memoizado por periodo) debe descartarse cuando cambie.
+     */
+    public long tablesVersion() {
+        reloadIfChanged();
+        return generation.get();
+    }
+
+    private void reloadIfChanged() {
+        long changes = TaxTableChangeListener.changeCount();
+        if (changes != seenChanges) {
+            seenChanges = changes;
+            reloadTaxTables();
+        }
+    }
+
+    /**
+     * Tramos de un año fiscal y tipo de tabla, cargados una sola vez.
+     */
+    public TaxBrackets bracketsFor(int fiscalYear, String tableType) {
+        reloadIfChanged();
+        return indexes.computeIfAbsent(new TableKey(fiscalYear, tableType), key -> TaxBrackets.of(key.fiscalYear(),
+                key.tableType(), repository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(key.fiscalYear(), key.tableType())));
+    }
+
+    /**
+     * Tramos que corresponden a un periodo de nómina: año fiscal de la fecha de fin y tabla
+     * según la duración del periodo (ver {@link #tableTypeFor}).
+     */
+    public TaxBrackets bracketsFor(LocalDate periodStartDate, LocalDate periodEndDate) {
+        return bracketsFor(periodEndDate.getYear(), tableTypeFor(periodStartDate, periodEndDate));
+    }
+
+    /**
+     * Tipo de tabla según los días del periodo: hasta 7 SEMANAL, hasta 16 QUINCENAL,
+     * desde 360 ANUAL y lo demás MENSUAL. Sin fecha de inicio se asume MENSUAL.
+     */
+    public static String tableTypeFor(LocalDate periodStartDate, LocalDate periodEndDate) {
+        if (periodStartDate == null || periodEndDate == null) {
+            return "MENSUAL";
+        }
+        long days = ChronoUnit.DAYS.between(periodStartDate, periodEndDate) + 1;
+        if (days <= 7) {
+            return "SEMANAL";
+        }
+        if (days <= 16) {
+            return "QUINCENAL";
+        }
+        return days >= 360 ? "ANUAL" : "MENSUAL";
     }
 
     /**
@@ -38,53 +188,59 @@ public class TaxService {
      * @return ISR calculado
      */
     public BigDecimal calculateISR(BigDecimal baseGravable, int fiscalYear, String tableType) {
-        System.out.println("\n    🧮 ========== CÁLCULO ISR ==========");
-        System.out.println("    📊 Base Gravable: $" + baseGravable);
-        System.out.println("    📅 Año Fiscal: " + fiscalYear);
-        System.out.println("    📋 Tipo Tabla: " + tableType);
+        return calculateISR(baseGravable, bracketsFor(fiscalYear, tableType));
+    }
+
+    /**
+     * Calcula el ISR con los tramos ya resueltos para el periodo (sin buscar la tabla por llamada)
+     *
+     * @param baseGravable Base gravable
+     * @param table Tramos del año fiscal y tipo de tabla del periodo
+     * @return ISR calculado
+     */
+    public BigDecimal calculateISR(BigDecimal baseGravable, TaxBrackets table) {
+        int fiscalYear = table.fiscalYear();
+        String tableType = table.tableType();
+        boolean trace = CalculationTrace.isEnabled();
+        if (trace) {
+            CalculationTrace.trace("ISR: base gravable ${}, año fiscal {}, tabla {}", baseGravable, fiscalYear, tableType);
+        }
 
         // Validación
         if (baseGravable == null || baseGravable.compareTo(BigDecimal.ZERO) <= 0) {
-            System.out.println("    ⚠️  Base gravable <= 0, ISR = $0.00");
-            System.out.println("    ===================================\n");
+            CalculationTrace.trace("ISR: base gravable <= 0, ISR = $0.00");
             return BigDecimal.ZERO;
         }
 
-        // Buscar el tramo fiscal aplicable
-        Optional<TaxTable> bracketOpt = repository.findApplicableBracket(fiscalYear, tableType, baseGravable);
+        // Buscar el tramo fiscal aplicable (búsqueda binaria sobre la tabla en memoria)
+        int bracket = table.find(baseGravable);
 
-        if (bracketOpt.isEmpty()) {
-            System.err.println("    ❌ ERROR: No se encontró tramo fiscal para:");
-            System.err.println("       - Año: " + fiscalYear);
-            System.err.println("       - Tipo: " + tableType);
-            System.err.println("       - Base: $" + baseGravable);
-            System.err.println("    ⚠️  Usando ISR = $0.00 por defecto");
-            System.out.println("    ===================================\n");
+        if (bracket < 0) {
+            log.warn("No se encontró tramo fiscal para año {}, tipo {}, base ${}; usando ISR = $0.00",
+                    fiscalYear, tableType, baseGravable);
             return BigDecimal.ZERO;
         }
 
-        TaxTable bracket = bracketOpt.get();
-        System.out.println("    ✅ Tramo encontrado:");
-        System.out.println("       - Límite Inferior: $" + bracket.getLowerLimit());
-        System.out.println("       - Cuota Fija: $" + bracket.getFixedFee());
-        System.out.println("       - % sobre Excedente: " + bracket.getPercentExcess().multiply(new BigDecimal("100")) + "%");
+        BigDecimal lowerLimit = table.lowerLimits()[bracket];
+        BigDecimal fixedFee = table.fixedFees()[bracket];
+        BigDecimal percentExcess = table.rates()[bracket];
 
         // Calcular excedente sobre límite inferior
-        BigDecimal excedente = baseGravable.subtract(bracket.getLowerLimit());
-        System.out.println("    📐 Excedente: $" + baseGravable + " - $" + bracket.getLowerLimit() + " = $" + excedente);
+        BigDecimal excedente = baseGravable.subtract(lowerLimit);
 
         // Calcular impuesto sobre excedente
-        BigDecimal impuestoExcedente = excedente.multiply(bracket.getPercentExcess())
+        BigDecimal impuestoExcedente = excedente.multiply(percentExcess)
                 .setScale(2, RoundingMode.HALF_EVEN);
-        System.out.println("    💵 Impuesto sobre excedente: $" + excedente + " × " + bracket.getPercentExcess() + " = $" + impuestoExcedente);
 
         // ISR total = Cuota Fija + Impuesto sobre Excedente
-        BigDecimal isr = bracket.getFixedFee().add(impuestoExcedente)
+        BigDecimal isr = fixedFee.add(impuestoExcedente)
                 .setScale(2, RoundingMode.HALF_EVEN);
 
-        System.out.println("    🎯 ISR Total: $" + bracket.getFixedFee() + " + $" + impuestoExcedente + " = $" + isr);
-        System.out.println("    ===================================\n");
-
+        if (trace) {
+            CalculationTrace.trace("ISR: tramo límite inferior ${}, cuota fija ${}, tasa {}; excedente ${} × {} = ${}; "
+                    + "ISR = ${} + ${} = ${}", lowerLimit, fixedFee, percentExcess, excedente, percentExcess,
+                    impuestoExcedente, fixedFee, impuestoExcedente, isr);
+        }
         return isr;
     }
 }
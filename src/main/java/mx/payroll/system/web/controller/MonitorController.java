@@ -7,6 +7,8 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/monitor")
 public class MonitorController {
@@ -22,4 +24,10 @@ public class MonitorController {
     public ResponseEntity<MonitoringService.ProgressReport> getProgress(@PathVariable Long periodId) {
         return ResponseEntity.ok(monitoringService.getProgress(periodId));
     }
+
+    // GET /api/monitor/123/quarantine
+    @GetMapping("/{periodId}/quarantine")
+    public ResponseEntity<List<MonitoringService.QuarantineEntry>> getQuarantine(@PathVariable Long periodId) {
+        return ResponseEntity.ok(monitoringService.getQuarantine(periodId));
+    }
 }
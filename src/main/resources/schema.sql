@@ -72,6 +72,19 @@ CREATE TABLE IF NOT EXISTS payroll_result_details (
     calculation_log TEXT -- Log of calculation steps
 );
 
+-- Employees whose calculation or insert keeps failing after retries and chunk bisection
+-- (also sent to payroll_queue.dlq); cleared when the employee is saved on a later run
+CREATE TABLE IF NOT EXISTS payroll_quarantine (
+    id BIGSERIAL PRIMARY KEY,
+    period_id VARCHAR(100) NOT NULL, -- References period_identifier, not id
+    employee_id INT NOT NULL REFERENCES employees(id),
+    error_message TEXT,
+    quarantined_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_quarantine_employee_period
+ON payroll_quarantine(employee_id, period_id);
+
 CREATE TABLE IF NOT EXISTS tax_tables (
     id SERIAL PRIMARY KEY,
     fiscal_year INT NOT NULL,       -- Ej: 2024, 2025
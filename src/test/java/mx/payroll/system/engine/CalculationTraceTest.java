@@ -0,0 +1,48 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.Employee;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Calculation Trace Tests")
+class CalculationTraceTest {
+
+    @AfterEach
+    void tearDown() {
+        CalculationTrace.setSampleRate(1);
+        CalculationTrace.end();
+    }
+
+    private static Employee employee(Integer id) {
+        Employee employee = new Employee("EMP-" + id, "Trace", LocalDate.of(2020, 1, 1));
+        employee.setId(id);
+        return employee;
+    }
+
+    @Test
+    @DisplayName("Should sample one employee in N by id")
+    void samplesByEmployeeId() {
+        CalculationTrace.setSampleRate(1000);
+        assertTrue(CalculationTrace.isSampled(employee(2000)));
+        assertFalse(CalculationTrace.isSampled(employee(2001)));
+        assertFalse(CalculationTrace.isSampled(employee(null)));
+
+        CalculationTrace.setSampleRate(0);
+        assertEquals(1, CalculationTrace.getSampleRate());
+        assertTrue(CalculationTrace.isSampled(employee(2001)));
+    }
+
+    @Test
+    @DisplayName("Should stay off while the trace logger is disabled")
+    void disabledWithoutDebugLevel() {
+        // logback-test.xml turns payroll.trace OFF
+        assertFalse(CalculationTrace.begin(employee(1)));
+        assertFalse(CalculationTrace.isEnabled());
+        CalculationTrace.trace("never written {}", 1);
+    }
+}
@@ -0,0 +1,146 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.exception.FormulaEvaluationException;
+import mx.payroll.system.service.TaxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Concept Dependency Graph Tests")
+class ConceptDependencyGraphTest {
+
+    @Mock
+    private TaxService taxService;
+
+    private FormulaEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        engine = new FormulaEngine(taxService);
+    }
+
+    private DynamicDbRule rule(String code, int order, String formula) {
+        return new DynamicDbRule(code, order, formula, engine);
+    }
+
+    // Formulas from data.sql
+    private List<PayrollRule> seedRules() {
+        return List.of(
+                rule("D002", 210, "#calcularISR(#TOTAL_EARNINGS)"),
+                rule("P002", 20, "(#P001 / 30.0) * 15 * (#diasTrabajadosAnio(#HIRE_DATE) / 365.0)"),
+                rule("P004", 40, "(#P001 * 0.10).min(#UMA * 30 * 0.40)"),
+                rule("D001", 200, "#calcularIMSS(#P001, #UMA)"));
+    }
+
+    @Test
+    @DisplayName("Should place TOTAL_EARNINGS after every earning and before its readers")
+    void shouldOrderSeedFormulas() {
+        ExecutionPlan plan = ExecutionPlan.of(seedRules());
+
+        assertEquals(List.of(List.of("P002", "P004", "D001"), List.of("TOTAL_EARNINGS"), List.of("D002")),
+                plan.getLevelCodes());
+    }
+
+    @Test
+    @DisplayName("Should order by dependencies even when rule_order says otherwise")
+    void shouldOrderByDependenciesOverRuleOrder() {
+        ExecutionPlan plan = ExecutionPlan.of(List.of(
+                rule("D010", 1, "#P010 * 0.10"),
+                rule("P010", 50, "#P001 * 2")));
+
+        assertEquals(List.of(List.of("P010"), List.of("D010", "TOTAL_EARNINGS")), plan.getLevelCodes());
+    }
+
+    @Test
+    @DisplayName("Should report the cycle path")
+    void shouldDetectCycles() {
+        ConceptDependencyGraph graph = ConceptDependencyGraph.build(List.of(
+                rule("P010", 10, "#D010 + 1"),
+                rule("D010", 100, "#P010 * 0.10")));
+
+        assertEquals(List.of("P010", "D010", "P010"), graph.findCycle());
+        FormulaEvaluationException exception = assertThrows(FormulaEvaluationException.class, graph::toExecutionPlan);
+        assertTrue(exception.getMessage().contains("P010 -> D010 -> P010"));
+    }
+
+    @Test
+    @DisplayName("Should detect an earning that reads TOTAL_EARNINGS as a cycle")
+    void shouldDetectCycleThroughTotalEarnings() {
+        ConceptDependencyGraph graph = ConceptDependencyGraph.build(List.of(
+                rule("P010", 10, "#TOTAL_EARNINGS * 0.01")));
+
+        assertEquals(List.of("P010", "TOTAL_EARNINGS", "P010"), graph.findCycle());
+    }
+
+    @Test
+    @DisplayName("Should report references without a producer")
+    void shouldFindMissingProducers() {
+        ConceptDependencyGraph graph = ConceptDependencyGraph.build(List.of(
+                rule("P002", 20, "#P001 + #BONO_X"),
+                rule("D001", 200, "#calcularIMSS(#P001, #UMA)")));
+
+        assertEquals(Set.of("P001", "BONO_X", "UMA"), graph.getExternalInputs());
+        assertEquals(Map.of("P002", Set.of("BONO_X")), graph.findMissingProducers(Set.of("P001", "UMA")));
+    }
+
+    @Test
+    @DisplayName("Should prune rules the targets do not need")
+    void shouldPruneUnneededRules() {
+        ExecutionPlan plan = ExecutionPlan.of(seedRules()).requiredFor(List.of("D002"));
+
+        assertEquals(List.of(List.of("P002", "P004"), List.of("TOTAL_EARNINGS"), List.of("D002")),
+                plan.getLevelCodes());
+    }
+
+    @Test
+    @DisplayName("Should calculate ISR over earnings regardless of rule_order")
+    void shouldCalculateIsrAfterEarnings() {
+        when(taxService.calculateISR(any(BigDecimal.class))).thenAnswer(inv -> inv.<BigDecimal>getArgument(0).multiply(new BigDecimal("0.10")));
+        PayrollFunctions.setTaxService(taxService);
+
+        PayrollContext context = new PayrollContext(new Employee("EMP-DAG", "Dag", LocalDate.of(2020, 1, 1)));
+        context.setFixedValue("P001", new BigDecimal("10000.00"));
+
+        // ISR declared first: the old phase split would have run it before P010
+        PayrollResult result = new PayrollEngine().calculate(context, new java.util.ArrayList<>(List.of(
+                rule("D002", 5, "#calcularISR(#TOTAL_EARNINGS)"),
+                rule("P010", 150, "#P001 * 0.10"))));
+
+        assertEquals(0, new BigDecimal("11000.00").compareTo(result.getContext().getValue("TOTAL_EARNINGS")));
+        assertEquals(0, new BigDecimal("1100.00").compareTo(result.getContext().getValue("D002")));
+    }
+
+    @Test
+    @DisplayName("Should reject two rules for the same concept")
+    void shouldRejectDuplicateRules() {
+        assertThrows(FormulaEvaluationException.class, () -> ConceptDependencyGraph.build(List.of(
+                rule("P002", 20, "#P001"), rule("P002", 30, "#P001 * 2"))));
+    }
+
+    @Test
+    @DisplayName("Should record the level at which TOTAL_EARNINGS is aggregated")
+    void shouldRecordAggregationPoints() {
+        ExecutionPlan plan = ExecutionPlan.of(List.of(
+                rule("D002", 210, "#calcularISR(#TOTAL_EARNINGS)"),
+                rule("P002", 20, "#P001 * 2"),
+                rule("P003", 30, "#P002 * 2")));
+
+        assertEquals(Map.of("TOTAL_EARNINGS", 2), plan.getAggregationPoints());
+        assertEquals(List.of(List.of("P002"), List.of("P003"), List.of("TOTAL_EARNINGS"), List.of("D002")), plan.getLevelCodes());
+    }
+}
@@ -10,6 +10,7 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.extension.ExtendWith; // Import ExtendWith
 import org.mockito.Mock; // Import Mock
 import org.mockito.junit.jupiter.MockitoExtension; // Import MockitoExtension
+import org.springframework.expression.spel.SpelCompilerMode;
 
 import java.math.BigDecimal;
 import java.time.LocalDate; // Import LocalDate
@@ -394,6 +395,172 @@ class FormulaEngineTest {
             int finalSize = engine.getCacheSize();
             assertEquals(initialSize + 3, finalSize);
         }
+
+        @Test
+        @DisplayName("Should count hits and misses")
+        void shouldCountHitsAndMisses() {
+            Map<String, BigDecimal> vars = new HashMap<>();
+            vars.put("a", new BigDecimal("100"));
+            populateContext(vars);
+
+            engine.evaluate("#a * 2", dummyContext);
+            engine.evaluate("#a * 2", dummyContext);
+            engine.evaluate("#a * 2", dummyContext);
+
+            FormulaEngine.CacheStats stats = engine.getCacheStats();
+            assertEquals(1, stats.misses());
+            assertEquals(2, stats.hits());
+            assertEquals(0, stats.evictions());
+        }
+
+        @Test
+        @DisplayName("Should evict the least recently used formula when full")
+        void shouldEvictLeastRecentlyUsed() {
+            FormulaEngine small = new FormulaEngine(taxService, SpelCompilerMode.OFF, FormulaBackend.SPEL, 2);
+
+            small.compile("#a + 1");
+            small.compile("#a + 2");
+            small.compile("#a + 1");
+            small.compile("#a + 3");
+
+            assertEquals(2, small.getCacheSize());
+            assertEquals(1, small.getCacheStats().evictions());
+            assertTrue(small.getCompilationReport().containsKey("#a + 1"));
+            assertFalse(small.getCompilationReport().containsKey("#a + 2"));
+        }
+
+        @Test
+        @DisplayName("Should invalidate a single formula")
+        void shouldInvalidateSingleFormula() {
+            engine.compile("#a + #b");
+            engine.compile("#a - #b");
+
+            assertTrue(engine.invalidate("#a + #b"));
+            assertFalse(engine.invalidate("#a + #b"));
+            assertEquals(1, engine.getCacheSize());
+        }
+    }
+
+    @Nested
+    @DisplayName("SpEL Compiler Mode Tests")
+    class CompilerModeTests {
+
+        @Test
+        @DisplayName("Should report formulas as interpreted when compiler is OFF")
+        void shouldReportInterpretedWhenCompilerOff() {
+            Map<String, BigDecimal> vars = new HashMap<>();
+            vars.put("P001", new BigDecimal("10000.00"));
+            populateContext(vars);
+
+            engine.evaluate("#P001 * 0.05", dummyContext);
+
+            assertEquals(FormulaEngine.CompilationState.INTERPRETED,
+                    engine.getCompilationReport().get("#P001 * 0.05"));
+        }
+
+        @Test
+        @DisplayName("Should compile function formulas in IMMEDIATE mode with identical results")
+        void shouldCompileFunctionFormulasImmediately() {
+            FormulaEngine compiling = new FormulaEngine(taxService, SpelCompilerMode.IMMEDIATE);
+            Map<String, BigDecimal> vars = new HashMap<>();
+            vars.put("P001", new BigDecimal("10000.00"));
+            vars.put("UMA", new BigDecimal("108.57"));
+            populateContext(vars);
+
+            String formula = "#calcularIMSS(#P001, #UMA)";
+            BigDecimal interpreted = engine.evaluate(formula, dummyContext);
+            BigDecimal first = compiling.evaluate(formula, dummyContext);
+            BigDecimal second = compiling.evaluate(formula, dummyContext);
+
+            assertEquals(FormulaEngine.CompilationState.COMPILED, compiling.getCompilationReport().get(formula));
+            assertEquals(interpreted, first);
+            assertEquals(interpreted, second);
+        }
+
+        @Test
+        @DisplayName("Should fall back to the interpreter for BigDecimal arithmetic")
+        void shouldFallBackForBigDecimalArithmetic() {
+            FormulaEngine compiling = new FormulaEngine(taxService, SpelCompilerMode.IMMEDIATE);
+            Map<String, BigDecimal> vars = new HashMap<>();
+            vars.put("P001", new BigDecimal("10000.00"));
+            vars.put("UMA", new BigDecimal("108.57"));
+            populateContext(vars);
+
+            String formula = "(#P001 * 0.10).min(#UMA * 30 * 0.40)";
+            compiling.evaluate(formula, dummyContext);
+            BigDecimal result = compiling.evaluate(formula, dummyContext);
+
+            assertEquals(FormulaEngine.CompilationState.INTERPRETED, compiling.getCompilationReport().get(formula));
+            assertEquals(0, new BigDecimal("1000.00").compareTo(result));
+        }
+
+        @Test
+        @DisplayName("Should wait for the MIXED threshold before compiling")
+        void shouldWaitForMixedThreshold() {
+            FormulaEngine compiling = new FormulaEngine(taxService, SpelCompilerMode.MIXED);
+            Map<String, BigDecimal> vars = new HashMap<>();
+            vars.put("P001", new BigDecimal("10000.00"));
+            vars.put("UMA", new BigDecimal("108.57"));
+            populateContext(vars);
+
+            String formula = "#calcularIMSS(#P001, #UMA)";
+            compiling.evaluate(formula, dummyContext);
+            assertEquals(FormulaEngine.CompilationState.PENDING, compiling.getCompilationReport().get(formula));
+
+            for (int i = 0; i < 100; i++) {
+                compiling.evaluate(formula, dummyContext);
+            }
+            assertEquals(FormulaEngine.CompilationState.COMPILED, compiling.getCompilationReport().get(formula));
+        }
+    }
+
+    @Nested
+    @DisplayName("Compiled Formula Metadata Tests")
+    class CompiledFormulaTests {
+
+        @Test
+        @DisplayName("Should extract variables and functions from the AST")
+        void shouldExtractVariablesAndFunctions() {
+            CompiledFormula compiled = engine.compile("#calcularIMSS(#P001, #UMA) + #P001 * #diasTrabajadosAnio(#HIRE_DATE)");
+
+            assertEquals(java.util.List.of("P001", "UMA", "HIRE_DATE"), compiled.getVariables());
+            assertEquals(java.util.List.of("P001", "UMA"), compiled.getConceptCodes());
+            assertEquals(java.util.Set.of("calcularIMSS", "diasTrabajadosAnio"), compiled.getFunctions());
+            assertTrue(compiled.isPure());
+        }
+
+        @Test
+        @DisplayName("Should mark formulas that read the database or the clock as impure")
+        void shouldDetectImpureFormulas() {
+            assertFalse(engine.compile("#calcularISR(#TOTAL_EARNINGS)").isPure());
+            assertFalse(engine.compile("#diasVacaciones(#HIRE_DATE) * #P001").isPure());
+            assertFalse(engine.compile("#impuestos.calcularISR(#P001)").isPure());
+            assertTrue(engine.compile("(#P001 * 0.10).min(#UMA * 30 * 0.40)").isPure());
+        }
+
+        @Test
+        @DisplayName("Should return the cached descriptor used by evaluate")
+        void shouldReuseCachedDescriptor() {
+            Map<String, BigDecimal> vars = new HashMap<>();
+            vars.put("P001", new BigDecimal("10000.00"));
+            populateContext(vars);
+
+            CompiledFormula compiled = engine.compile("#P001 * 0.05");
+            BigDecimal result = engine.evaluateCompiled(compiled, dummyContext);
+
+            assertSame(compiled, engine.compile("#P001 * 0.05"));
+            assertEquals(1, engine.getCacheSize());
+            assertEquals(new BigDecimal("500.00"), result);
+        }
+
+        @Test
+        @DisplayName("Should reject invalid syntax at compile time")
+        void shouldRejectInvalidSyntaxAtCompileTime() {
+            FormulaEvaluationException exception = assertThrows(FormulaEvaluationException.class,
+                    () -> engine.compile("#P001 * * 2"));
+
+            assertTrue(exception.getMessage().contains("Invalid formula syntax"));
+        }
     }
 
     @Nested
@@ -0,0 +1,152 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.ConceptFormula;
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.engine.FormulaValidator.Diagnostic;
+import mx.payroll.system.engine.FormulaValidator.Kind;
+import mx.payroll.system.service.TaxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Formula Validator Tests")
+class FormulaValidatorTest {
+
+    private static final LocalDate EFFECTIVE = LocalDate.of(2024, 1, 1);
+
+    @Mock
+    private TaxService taxService;
+
+    private FormulaValidator validator;
+
+    @BeforeEach
+    void setUp() {
+        validator = new FormulaValidator(new FormulaEngine(taxService), Set.of("P001", "DIAS", "UMA"));
+    }
+
+    private static ConceptFormula formula(String code, String expression, int order) {
+        return new ConceptFormula(code, expression, null, EFFECTIVE, null, order);
+    }
+
+    private List<Diagnostic> diagnose(String expression) {
+        return validator.validate(List.of(formula("P002", expression, 20))).diagnostics();
+    }
+
+    @Test
+    @DisplayName("Should accept the seed formulas and return their plan")
+    void shouldAcceptSeedFormulas() {
+        FormulaValidator.Result result = validator.validate(List.of(
+                formula("P002", "(#P001 / 30.0) * 15 * (#diasTrabajadosAnio(#HIRE_DATE) / 365.0)", 20),
+                formula("P004", "(#P001 * 0.10).min(#UMA * 30 * 0.40)", 40),
+                formula("D001", "#calcularIMSS(#P001, #UMA)", 200),
+                formula("D002", "#calcularISR(#TOTAL_EARNINGS)", 210),
+                formula("P005", "#P001 > 0 ? #P001 / #DIAS : 0", 50)));
+
+        assertTrue(result.isValid(), () -> result.diagnostics().toString());
+        assertEquals(List.of("P002", "P004", "P005", "D001", "TOTAL_EARNINGS", "D002"),
+                result.plan().getRules().stream().map(PayrollRule::getCode).toList());
+    }
+
+    @Test
+    @DisplayName("Should report syntax errors with their position")
+    void shouldReportSyntaxPosition() {
+        List<Diagnostic> diagnostics = diagnose("#P001 * (0.10 + ");
+
+        assertEquals(1, diagnostics.size());
+        assertEquals(Kind.SYNTAX, diagnostics.get(0).kind());
+        assertEquals("P002", diagnostics.get(0).conceptCode());
+        assertTrue(diagnostics.get(0).position() > 0);
+    }
+
+    @Test
+    @DisplayName("Should report variables without a source and unknown names")
+    void shouldReportUnknownVariables() {
+        List<Diagnostic> diagnostics = diagnose("#P001 * #FACTOR_X + #factor");
+
+        assertEquals(List.of(Kind.UNKNOWN_VARIABLE, Kind.UNKNOWN_VARIABLE),
+                diagnostics.stream().map(Diagnostic::kind).toList());
+        assertEquals(8, diagnostics.get(0).position());
+        assertTrue(diagnostics.get(0).message().contains("FACTOR_X"));
+        assertTrue(diagnostics.get(1).message().contains("#factor"));
+    }
+
+    @Test
+    @DisplayName("Should check function names, argument counts and argument types")
+    void shouldCheckFunctionCalls() {
+        assertEquals(Kind.UNKNOWN_FUNCTION, diagnose("#calcularPTU(#P001)").get(0).kind());
+        assertEquals(Kind.ARGUMENT_COUNT, diagnose("#calcularIMSS(#P001)").get(0).kind());
+        assertEquals(Kind.TYPE, diagnose("#calcularISR(#HIRE_DATE)").get(0).kind());
+        assertEquals(Kind.TYPE, diagnose("#diasTrabajadosAnio(#P001)").get(0).kind());
+    }
+
+    @Test
+    @DisplayName("Should reject arithmetic on dates, non-numeric results and unknown methods")
+    void shouldCheckTypes() {
+        assertEquals(Kind.TYPE, diagnose("#HIRE_DATE + 1").get(0).kind());
+        assertEquals(Kind.TYPE, diagnose("'15'").get(0).kind());
+        assertEquals(Kind.UNKNOWN_FUNCTION, diagnose("#P001.minimo(#UMA)").get(0).kind());
+        assertEquals(Kind.NOT_ALLOWED, diagnose("T(java.lang.System).exit(0)").get(0).kind());
+        assertTrue(diagnose("#P001.setScale(2, 6).max(#UMA)").isEmpty());
+    }
+
+    @Test
+    @DisplayName("Should name the operator in type errors, including unary minus")
+    void shouldNameOperatorInTypeErrors() {
+        assertEquals("Operator '-' needs numbers, not a date", diagnose("-#HIRE_DATE").get(0).message());
+        assertEquals("Operator '*' needs numbers, not a date", diagnose("#P001 * #HIRE_DATE").get(0).message());
+        assertEquals("Operator '+' needs numbers, not a date", diagnose("(#P001 - 1) + #HIRE_DATE").get(0).message());
+    }
+
+    @Test
+    @DisplayName("Should report circular dependencies and duplicate concepts")
+    void shouldReportGraphErrors() {
+        FormulaValidator.Result cycle = validator.validate(List.of(
+                formula("P002", "#D001 * 2", 20),
+                formula("D001", "#P002 * 0.02", 200)));
+        FormulaValidator.Result duplicate = validator.validate(List.of(
+                formula("P002", "#P001 * 2", 20),
+                formula("P002", "#P001 * 3", 20)));
+
+        assertNull(cycle.plan());
+        assertEquals(Kind.CYCLE, cycle.diagnostics().get(0).kind());
+        assertEquals("P002 -> D001 -> P002", cycle.diagnostics().get(0).message());
+        assertEquals(Kind.DUPLICATE, duplicate.diagnostics().get(0).kind());
+    }
+
+    @Test
+    @DisplayName("Validated plans should not report missing variables per employee")
+    void validatedPlanSkipsMissingVariableCheck() {
+        List<ConceptFormula> formulas = List.of(formula("P002", "#P001 + #DIAS", 20));
+        ExecutionPlan validated = validator.validate(formulas, Map.of("UMA", new BigDecimal("108.57"))).plan();
+        DynamicDbRule rule = (DynamicDbRule) validated.getRules().get(0);
+        assertTrue(rule.isValidated());
+
+        PrintStream err = System.err;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(captured));
+        try {
+            PayrollContext context = new PayrollContext(new Employee("EMP-V", "Validated", LocalDate.of(2020, 1, 1)));
+            context.setFixedValue("P001", new BigDecimal("100.00"));
+            validated.execute(context);
+
+            assertEquals(new BigDecimal("100.00"), context.getValue("P002"));
+            assertEquals("", captured.toString());
+        } finally {
+            System.setErr(err);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.service.TaxService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.expression.spel.SpelCompilerMode;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Batch Evaluation Tests")
+class PayrollBatchTest {
+
+    @Mock
+    private TaxService taxService;
+
+    private final PayrollEngine payrollEngine = new PayrollEngine();
+
+    private ExecutionPlan seedPlan(FormulaEngine engine) {
+        return ExecutionPlan.of(List.of(
+                new DynamicDbRule("D002", 210, "#calcularISR(#TOTAL_EARNINGS)", engine),
+                new DynamicDbRule("P002", 20, "(#P001 / 30.0) * 15 * (#diasTrabajadosAnio(#HIRE_DATE) / 365.0)", engine),
+                new DynamicDbRule("P004", 40, "(#P001 * 0.10).min(#UMA * 30 * 0.40)", engine),
+                new DynamicDbRule("P005", 50, "#P001 / #DIAS", engine),
+                new DynamicDbRule("D001", 200, "#calcularIMSS(#P001, #UMA)", engine),
+                new PercentageDeductionRule("D003", "P004", new BigDecimal("0.05"), 220)));
+    }
+
+    // Row 2 has DIAS = 0, so P005 divides by zero for that employee only
+    private List<PayrollContext> contexts() {
+        String[] salaries = {"15000.00", "8000.50", "22000", "4321.99"};
+        String[] days = {"15", "15", "0", "14"};
+        List<PayrollContext> contexts = new ArrayList<>();
+        for (int i = 0; i < salaries.length; i++) {
+            Employee employee = new Employee("EMP-" + i, "Employee " + i, LocalDate.of(2015 + i, 3, 1));
+            PayrollContext context = new PayrollContext(employee);
+            context.setFixedValue("P001", new BigDecimal(salaries[i]));
+            context.setFixedValue("DIAS", new BigDecimal(days[i]));
+            context.setFixedValue("UMA", new BigDecimal("108.57"));
+            contexts.add(context);
+        }
+        return contexts;
+    }
+
+    private static List<String> details(PayrollResult result) {
+        return result.getDetails().stream()
+                .map(d -> d.getConceptCode() + "=" + d.getCalculatedAmount() + " (" + d.getCalculationLog() + ")")
+                .sorted()
+                .toList();
+    }
+
+    @ParameterizedTest
+    @EnumSource(FormulaBackend.class)
+    @DisplayName("Should produce the same results as the row-at-a-time path")
+    void shouldMatchRowAtATime(FormulaBackend backend) {
+        lenient().when(taxService.calculateISR(any()))
+                .thenAnswer(invocation -> invocation.<BigDecimal>getArgument(0).multiply(new BigDecimal("0.1")));
+        FormulaEngine engine = new FormulaEngine(taxService, SpelCompilerMode.OFF, backend);
+        ExecutionPlan plan = seedPlan(engine);
+
+        List<PayrollResult> expected = new ArrayList<>();
+        for (PayrollContext context : contexts()) {
+            try {
+                expected.add(payrollEngine.calculate(context, plan));
+            } catch (RuntimeException e) {
+                // Skipped, as PayrollWorker does
+            }
+        }
+
+        PayrollBatch batch = new PayrollBatch(contexts());
+        List<PayrollResult> actual = payrollEngine.calculate(batch, plan);
+
+        assertEquals(3, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(details(expected.get(i)), details(actual.get(i)));
+        }
+        assertEquals(List.of(2), List.copyOf(batch.getFailures().keySet()));
+    }
+
+    @ParameterizedTest
+    @EnumSource(FormulaBackend.class)
+    @DisplayName("Should skip failed rows in later rules")
+    void shouldSkipFailedRows(FormulaBackend backend) {
+        FormulaEngine engine = new FormulaEngine(taxService, SpelCompilerMode.OFF, backend);
+        PayrollBatch batch = new PayrollBatch(contexts());
+        batch.fail(0, new IllegalStateException("earlier failure"));
+
+        BigDecimal[] results = engine.evaluateBatch(engine.compile("#P001 * 2"), batch);
+
+        assertNull(results[0]);
+        assertEquals(new BigDecimal("16001.00"), results[1]);
+        assertEquals("earlier failure", batch.getFailures().get(0).getMessage());
+    }
+}
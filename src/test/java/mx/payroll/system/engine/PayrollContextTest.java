@@ -0,0 +1,150 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.Employee;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Payroll Context Tests")
+class PayrollContextTest {
+
+    private static final Employee EMPLOYEE = new Employee("EMP-CTX", "Context", LocalDate.of(2020, 1, 1));
+
+    @Test
+    @DisplayName("Fixed values should override calculated values")
+    void fixedOverridesCalculated() {
+        PayrollContext context = new PayrollContext(EMPLOYEE);
+        context.addCalculation("P001", new BigDecimal("10"));
+        context.setFixedValue("P001", new BigDecimal("20"));
+        context.addCalculation("P002", new BigDecimal("30"));
+
+        assertEquals(new BigDecimal("20"), context.getValue("P001"));
+        assertEquals(new BigDecimal("30"), context.getValue("P002"));
+        assertEquals(BigDecimal.ZERO, context.getValue("P999"));
+        assertFalse(context.hasValue("P999"));
+        assertEquals(Map.of("P001", new BigDecimal("20"), "P002", new BigDecimal("30")), context.getVariables());
+        assertEquals(Map.of("P001", new BigDecimal("10"), "P002", new BigDecimal("30")), context.getCalculatedValues());
+        assertEquals(Map.of("P001", new BigDecimal("20")), context.getFixedValuesMap());
+    }
+
+    @Test
+    @DisplayName("Views should be live and reused")
+    void viewsAreLive() {
+        PayrollContext context = new PayrollContext(EMPLOYEE);
+        Map<String, BigDecimal> variables = context.getVariables();
+        context.setFixedValue("UMA", new BigDecimal("108.57"));
+
+        assertSame(variables, context.getVariables());
+        assertEquals(new BigDecimal("108.57"), variables.get("UMA"));
+        assertThrows(UnsupportedOperationException.class, () -> variables.put("UMA", BigDecimal.ONE));
+    }
+
+    @Test
+    @DisplayName("Contexts of a plan should share its slots and grow past them")
+    void sharesPlanSlots() {
+        ExecutionPlan plan = ExecutionPlan.of(List.of(new PercentageDeductionRule("D003", "P004", new BigDecimal("0.05"), 220)));
+        PayrollContext first = plan.newContext(EMPLOYEE);
+        PayrollContext second = plan.newContext(EMPLOYEE);
+        assertSame(first.getSlots(), second.getSlots());
+
+        Map<String, BigDecimal> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 150; i++) {
+            String code = "X" + i;
+            first.setFixedValue(code, BigDecimal.valueOf(i));
+            expected.put(code, BigDecimal.valueOf(i));
+        }
+        assertEquals(expected, first.getFixedValuesMap());
+        assertEquals(150, first.getVariables().size());
+        assertTrue(second.getVariables().isEmpty());
+        assertEquals(BigDecimal.ZERO, second.getValue("X149"));
+    }
+
+    @Test
+    @DisplayName("Period layer should be shared and sit between employee and calculated values")
+    void periodLayerPrecedence() {
+        ExecutionPlan base = ExecutionPlan.of(List.of(new PercentageDeductionRule("D003", "P004", new BigDecimal("0.05"), 220)));
+        Map<String, BigDecimal> indicators = new LinkedHashMap<>();
+        indicators.put("UMA", new BigDecimal("108.57"));
+        indicators.put("SMI", new BigDecimal("248.93"));
+        ExecutionPlan plan = base.withPeriodLayer(base.newPeriodLayer(indicators));
+
+        PayrollContext first = plan.newContext(EMPLOYEE);
+        PayrollContext second = plan.newContext(EMPLOYEE);
+        assertSame(first.getPeriodLayer(), second.getPeriodLayer());
+
+        first.addCalculation("UMA", BigDecimal.ONE);
+        assertEquals(new BigDecimal("108.57"), first.getValue("UMA"));
+        first.setFixedValue("SMI", BigDecimal.TEN);
+        assertEquals(BigDecimal.TEN, first.getValue("SMI"));
+        assertEquals(new BigDecimal("248.93"), second.getValue("SMI"));
+
+        assertTrue(second.hasValue("UMA"));
+        assertEquals(indicators, second.getFixedValuesMap());
+        assertEquals(Map.of("UMA", BigDecimal.ONE), first.getCalculatedValues());
+        assertEquals(Map.of("UMA", new BigDecimal("108.57"), "SMI", BigDecimal.TEN), first.getVariables());
+        assertThrows(IllegalArgumentException.class, () -> ExecutionPlan.of(List.of()).withPeriodLayer(plan.getPeriodLayer()));
+    }
+
+    @Test
+    @DisplayName("Running totals should follow Concept.type and match a rescan after overwrites")
+    void keepsRunningTotalsByType() {
+        ConceptCatalog catalog = ConceptCatalog.of(Map.of(
+                "SUELDO", "EARNING", "BONO", "EARNING", "IMSS", "DEDUCTION", "VALES", "EXEMPT"));
+        PayrollContext context = new PayrollContext(EMPLOYEE, new ConceptSlots(), catalog);
+        context.setFixedValue("SUELDO", new BigDecimal("15000.00"));
+        context.addCalculation("BONO", new BigDecimal("500.5"));
+        context.addCalculation("IMSS", new BigDecimal("300"));
+        context.addCalculation("VALES", new BigDecimal("1200"));
+        context.setFixedValue("P999", new BigDecimal("1")); // not in the catalog: no prefix fallback
+
+        assertEquals(new BigDecimal("15500.50"), context.getTotalEarnings());
+        assertEquals(new BigDecimal("300"), context.getTotalDeductions());
+        assertEquals(new BigDecimal("1200"), context.getTotal("EXEMPT"));
+        assertEquals(BigDecimal.ZERO, context.getTotal("UNKNOWN"));
+
+        context.addCalculation("BONO", new BigDecimal("100"));
+        context.setFixedValue("IMSS", new BigDecimal("50"));
+        assertEquals(new BigDecimal("15100.00"), context.getTotalEarnings());
+        assertEquals(new BigDecimal("350"), context.getTotalDeductions());
+    }
+
+    @Test
+    @DisplayName("Result totals should come from the running totals")
+    void resultUsesRunningTotals() {
+        PayrollContext context = new PayrollContext(EMPLOYEE);
+        context.setFixedValue("P001", new BigDecimal("10000.00"));
+        context.setFixedValue("UMA", new BigDecimal("108.57"));
+        PayrollResult result = new PayrollEngine().calculate(context, List.of(
+                new PercentageDeductionRule("D003", "TOTAL_EARNINGS", new BigDecimal("0.05"), 220)));
+
+        assertEquals(new BigDecimal("10000.00"), context.getValue("TOTAL_EARNINGS"));
+        assertEquals(new BigDecimal("10000.00"), result.getTotalEarnings());
+        assertEquals(new BigDecimal("500.0000"), result.getTotalDeductions());
+        assertEquals(new BigDecimal("9500.0000"), result.getNetPay());
+    }
+
+    @Test
+    @DisplayName("fillMissingTotals should keep engine totals and fill the missing ones from details")
+    void fillsOnlyMissingTotals() {
+        PayrollResult engineResult = new PayrollResult();
+        engineResult.addDetail("P001", new BigDecimal("100.00"), null);
+        engineResult.setTotals(new BigDecimal("120.00"), new BigDecimal("20.00"));
+        engineResult.fillMissingTotals();
+
+        PayrollResult detailsOnly = new PayrollResult();
+        detailsOnly.addDetail("P001", new BigDecimal("100.00"), null);
+        detailsOnly.addDetail("D001", new BigDecimal("30.00"), null);
+        detailsOnly.fillMissingTotals();
+
+        assertEquals(new BigDecimal("100.00"), engineResult.getNetPay());
+        assertEquals(new BigDecimal("100.00"), detailsOnly.getTotalEarnings());
+        assertEquals(new BigDecimal("70.00"), detailsOnly.getNetPay());
+    }
+}
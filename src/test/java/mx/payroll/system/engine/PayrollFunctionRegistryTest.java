@@ -0,0 +1,186 @@
+package mx.payroll.system.engine;
+
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.domain.model.TaxTable;
+import mx.payroll.system.domain.repository.TaxTableRepository;
+import mx.payroll.system.engine.PayrollFunctionRegistry.FunctionStats;
+import mx.payroll.system.service.TaxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.expression.spel.SpelCompilerMode;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class PayrollFunctionRegistryTest {
+
+    private static final LocalDate PERIOD_END = LocalDate.of(2025, 1, 15);
+
+    @Mock
+    private TaxService taxService;
+
+    private FunctionScope scope;
+
+    private static final TaxService.TaxBrackets TABLE = new TaxService.TaxBrackets(2025, "MENSUAL",
+            new BigDecimal[0], new BigDecimal[0], new BigDecimal[0]);
+
+    @BeforeEach
+    void setUp() {
+        scope = PayrollFunctionRegistry.newScope(PERIOD_END);
+    }
+
+    private PayrollContext contextFor(LocalDate hireDate, String salary) {
+        PayrollContext context = new PayrollContext(new Employee("EMP-" + hireDate, "Test Employee", hireDate));
+        context.addCalculation("P001", new BigDecimal(salary));
+        context.setFunctionScope(scope);
+        return context;
+    }
+
+    @Test
+    @DisplayName("Discovers the annotated functions with their purity")
+    void shouldRegisterAnnotatedFunctions() {
+        assertEquals(Set.of("diasTrabajadosAnio", "diasVacaciones", "calcularIMSS", "calcularISR"),
+                PayrollFunctionRegistry.methods().keySet());
+        assertEquals(Set.of("diasTrabajadosAnio", "calcularIMSS"), PayrollFunctionRegistry.pureFunctions());
+        assertEquals(2, PayrollFunctionRegistry.arity("calcularIMSS"));
+        assertEquals(-1, PayrollFunctionRegistry.arity("unknown"));
+    }
+
+    @Test
+    @DisplayName("Memoizes diasVacaciones by hire date within the scope")
+    void shouldMemoizeByHireDate() {
+        FormulaEngine engine = new FormulaEngine(taxService);
+        LocalDate hireDate = LocalDate.of(2020, 3, 1);
+
+        BigDecimal first = engine.evaluate("#diasVacaciones(#HIRE_DATE)", contextFor(hireDate, "1000"));
+        BigDecimal second = engine.evaluate("#diasVacaciones(#HIRE_DATE)", contextFor(hireDate, "2000"));
+        engine.evaluate("#diasVacaciones(#HIRE_DATE)", contextFor(LocalDate.of(2015, 3, 1), "3000"));
+
+        assertEquals(first, second);
+        FunctionStats stats = scope.getStats().get("diasVacaciones");
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+    }
+
+    @Test
+    @DisplayName("Measures diasVacaciones seniority at the period end, not the run date")
+    void shouldComputeVacationDaysAtPeriodEnd() {
+        FormulaEngine engine = new FormulaEngine(taxService);
+
+        // PERIOD_END = 2025-01-15: 4 full years, and the first anniversary falls exactly on it
+        assertEquals(0, new BigDecimal("18").compareTo(
+                engine.evaluate("#diasVacaciones(#HIRE_DATE)", contextFor(LocalDate.of(2020, 3, 1), "1000"))));
+        assertEquals(0, new BigDecimal("12").compareTo(
+                engine.evaluate("#diasVacaciones(#HIRE_DATE)", contextFor(LocalDate.of(2024, 1, 15), "1000"))));
+        assertEquals(0, BigDecimal.ZERO.compareTo(
+                engine.evaluate("#diasVacaciones(#HIRE_DATE)", contextFor(LocalDate.of(2024, 1, 16), "1000"))));
+    }
+
+    @Test
+    @DisplayName("Memoizes calcularISR by base on both backends")
+    void shouldMemoizeIsrByBase() {
+        when(taxService.bracketsFor(null, PERIOD_END)).thenReturn(TABLE);
+        when(taxService.calculateISR(new BigDecimal("10000.00"), TABLE)).thenReturn(new BigDecimal("1000.00"));
+
+        for (FormulaBackend backend : FormulaBackend.values()) {
+            FormulaEngine engine = new FormulaEngine(taxService, SpelCompilerMode.OFF, backend);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(0, new BigDecimal("1000.00").compareTo(
+                        engine.evaluate("#calcularISR(#P001)", contextFor(LocalDate.of(2020, 1, 1), "10000.00"))));
+            }
+        }
+
+        verify(taxService, times(1)).calculateISR(new BigDecimal("10000.00"), TABLE);
+        Map<String, FunctionStats> stats = scope.getStats();
+        assertEquals(1, stats.get("calcularISR").misses());
+        assertEquals(3 * FormulaBackend.values().length - 1, stats.get("calcularISR").hits());
+    }
+
+    @Test
+    @DisplayName("Does not cache bases with more than two decimals")
+    void shouldNotCacheUnroundedBase() {
+        when(taxService.bracketsFor(null, PERIOD_END)).thenReturn(TABLE);
+        when(taxService.calculateISR(new BigDecimal("10000.005"), TABLE)).thenReturn(new BigDecimal("1000.00"));
+        FormulaEngine engine = new FormulaEngine(taxService);
+
+        engine.evaluate("#calcularISR(#P001)", contextFor(LocalDate.of(2020, 1, 1), "10000.005"));
+        engine.evaluate("#calcularISR(#P001)", contextFor(LocalDate.of(2020, 1, 1), "10000.005"));
+
+        verify(taxService, times(2)).calculateISR(new BigDecimal("10000.005"), TABLE);
+        assertEquals(0, scope.getStats().get("calcularISR").hits());
+    }
+
+    @Test
+    @DisplayName("Resolves the ISR table of the scope's period once")
+    void shouldResolveIsrTableOncePerPeriod() {
+        LocalDate start = LocalDate.of(2025, 1, 1);
+        TaxService.TaxBrackets biweekly = new TaxService.TaxBrackets(2025, "QUINCENAL",
+                new BigDecimal[0], new BigDecimal[0], new BigDecimal[0]);
+        when(taxService.bracketsFor(start, PERIOD_END)).thenReturn(biweekly);
+        when(taxService.calculateISR(any(BigDecimal.class), eq(biweekly)))
+                .thenReturn(new BigDecimal("500.00"));
+        scope = PayrollFunctionRegistry.newScope(start, PERIOD_END);
+
+        for (FormulaBackend backend : FormulaBackend.values()) {
+            FormulaEngine engine = new FormulaEngine(taxService, SpelCompilerMode.OFF, backend);
+            engine.evaluate("#calcularISR(#P001)", contextFor(LocalDate.of(2020, 1, 1), "7000.00"));
+            engine.evaluate("#calcularISR(#P001)", contextFor(LocalDate.of(2020, 1, 1), "8000.00"));
+        }
+
+        verify(taxService, times(1)).bracketsFor(start, PERIOD_END);
+        verify(taxService, times(2)).calculateISR(any(BigDecimal.class),
+                eq(biweekly));
+    }
+
+    @Test
+    @DisplayName("Drops the shared period scopes when the tax tables change")
+    void shouldRecomputeIsrAfterTaxTableChange(@Mock TaxTableRepository taxTables) {
+        TaxService tables = new TaxService(taxTables);
+        when(taxTables.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(anyInt(), anyString()))
+                .thenReturn(List.of(new TaxTable(2031, "MENSUAL", new BigDecimal("0.01"), BigDecimal.ZERO, new BigDecimal("0.10"))))
+                .thenReturn(List.of(new TaxTable(2031, "MENSUAL", new BigDecimal("0.01"), BigDecimal.ZERO, new BigDecimal("0.20"))));
+        FormulaEngine engine = new FormulaEngine(tables);
+        LocalDate start = LocalDate.of(2031, 3, 1);
+        LocalDate end = LocalDate.of(2031, 3, 31);
+
+        scope = PayrollFunctionRegistry.scopeFor(start, end);
+        BigDecimal before = engine.evaluate("#calcularISR(#P001)", contextFor(LocalDate.of(2020, 1, 1), "10000.00"));
+        assertSame(scope, PayrollFunctionRegistry.scopeFor(start, end));
+
+        tables.reloadTaxTables();
+        scope = PayrollFunctionRegistry.scopeFor(start, end);
+        BigDecimal after = engine.evaluate("#calcularISR(#P001)", contextFor(LocalDate.of(2020, 1, 1), "10000.00"));
+
+        assertEquals(0, new BigDecimal("1000.00").compareTo(before));
+        assertEquals(0, new BigDecimal("2000.00").compareTo(after));
+        assertEquals(1, scope.getStats().get("calcularISR").misses());
+    }
+
+    @Test
+    @DisplayName("Calls functions directly when no scope is set")
+    void shouldWorkWithoutScope() {
+        FormulaEngine engine = new FormulaEngine(taxService);
+        PayrollContext context = new PayrollContext(new Employee("EMP-1", "Test Employee", LocalDate.of(2020, 1, 1)));
+        context.addCalculation("P001", new BigDecimal("1000"));
+
+        assertEquals(0, new BigDecimal("27.000").compareTo(engine.evaluate("#calcularIMSS(#P001, 100)", context)));
+        assertTrue(scope.getStats().values().stream().allMatch(s -> s.hits() + s.misses() == 0));
+    }
+}
@@ -0,0 +1,120 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.engine.FormulaBackend;
+import mx.payroll.system.engine.FormulaEngine;
+import mx.payroll.system.engine.NumericMode;
+import mx.payroll.system.engine.PayrollContext;
+import mx.payroll.system.service.TaxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.expression.spel.SpelCompilerMode;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class FixedPointFormulaTest {
+
+    @Mock
+    private TaxService taxService;
+
+    private FormulaEngine bigDecimalEngine;
+    private FormulaEngine fixedPointEngine;
+
+    @BeforeEach
+    void setUp() {
+        bigDecimalEngine = new FormulaEngine(taxService, SpelCompilerMode.OFF, FormulaBackend.NATIVE, 100,
+                NumericMode.BIG_DECIMAL);
+        fixedPointEngine = new FormulaEngine(taxService, SpelCompilerMode.OFF, FormulaBackend.NATIVE, 100,
+                NumericMode.FIXED_POINT);
+    }
+
+    private static PayrollContext context(String p001, String uma, String p002) {
+        PayrollContext context = new PayrollContext(new Employee("EMP-FP", "Fixed Point", LocalDate.of(2019, 3, 15)));
+        context.setFixedValue("P001", new BigDecimal(p001));
+        context.setFixedValue("UMA", new BigDecimal(uma));
+        context.addCalculation("P002", new BigDecimal(p002));
+        return context;
+    }
+
+    @ParameterizedTest
+    @DisplayName("Fixed-point results are identical to BigDecimal for random amounts")
+    @ValueSource(strings = {
+            "(#P001 * 0.10).min(#UMA * 30 * 0.40)",
+            "(#P001 * 0.01).max(#UMA)",
+            "(#P001 / 30.0) * 15",
+            "#P001 / 7",
+            "#P001 / 30.0 / 7 * 3",
+            "-#P002 + #P001 - 10",
+            "#P001 * 0.0175 - #P002 / 3",
+            "(#P002 - #P001) / 0.3",
+            "#P001 * (30 * 0.40)",
+            "#P001 * 0.1 + 0.2",
+            "(#P001).min(#P002 * 10)"
+    })
+    void matchesBigDecimal(String formula) {
+        Random random = new Random(formula.hashCode());
+        for (int i = 0; i < 500; i++) {
+            String p001 = BigDecimal.valueOf(random.nextLong(-5_000_000, 50_000_000), random.nextInt(5)).toPlainString();
+            String uma = BigDecimal.valueOf(random.nextInt(1, 20000), random.nextInt(5)).toPlainString();
+            String p002 = BigDecimal.valueOf(random.nextLong(-1_000_000, 1_000_000), random.nextInt(3)).toPlainString();
+
+            BigDecimal expected = bigDecimalEngine.evaluate(formula, context(p001, uma, p002));
+            BigDecimal actual = fixedPointEngine.evaluate(formula, context(p001, uma, p002));
+
+            assertEquals(expected, actual, formula + " with P001=" + p001 + ", UMA=" + uma + ", P002=" + p002);
+        }
+    }
+
+    @Test
+    @DisplayName("Compiles only formulas without functions and remainders")
+    void compilesSupportedFormulasOnly() {
+        assertNotNull(NativeFormulaCompiler.compile("(#P001 * 0.10).min(#UMA * 30 * 0.40)").getFixedPoint());
+        assertNull(NativeFormulaCompiler.compile("#calcularIMSS(#P001, #UMA)").getFixedPoint());
+        assertNull(NativeFormulaCompiler.compile("#P001 % 7").getFixedPoint());
+        assertNull(NativeFormulaCompiler.compile("#P001 + 1 / 0").getFixedPoint());
+    }
+
+    @Test
+    @DisplayName("Falls back to BigDecimal on overflow and large scales")
+    void fallsBackWhenValuesDoNotFit() {
+        FixedPointFormula formula = NativeFormulaCompiler.compile("#P001 * #UMA").getFixedPoint();
+
+        assertEquals(new BigDecimal("1628.55"),
+                formula.evaluate(new Object[]{new BigDecimal("15.00"), new BigDecimal("108.57")}, 2));
+        assertNull(formula.evaluate(new Object[]{new BigDecimal("99999999999.99"), new BigDecimal("99999999999.99")}, 2));
+        assertNull(formula.evaluate(new Object[]{new BigDecimal("1.0000000001"), new BigDecimal("1.0000000001")}, 2));
+        assertNull(formula.evaluate(new Object[]{1, new BigDecimal("1")}, 2));
+
+        PayrollContext huge = context("99999999999.99", "99999999999.99", "0");
+        assertEquals(bigDecimalEngine.evaluate("#P001 * #UMA", huge), fixedPointEngine.evaluate("#P001 * #UMA", huge));
+    }
+
+    @Test
+    @DisplayName("Rounds HALF_EVEN like BigDecimal, including negative values")
+    void roundsHalfEven() {
+        assertEquals(2, FixedPointFormula.divideHalfEven(5, 2));
+        assertEquals(4, FixedPointFormula.divideHalfEven(7, 2));
+        assertEquals(-2, FixedPointFormula.divideHalfEven(-5, 2));
+        assertEquals(-1, FixedPointFormula.divideHalfEven(-3, 4));
+        assertEquals(1, FixedPointFormula.divideHalfEven(-3, -4));
+    }
+
+    @Test
+    @DisplayName("Division by zero still fails as before")
+    void divisionByZeroFallsBack() {
+        PayrollContext zero = context("100", "0", "0");
+
+        assertThrows(RuntimeException.class, () -> fixedPointEngine.evaluate("#P001 / #UMA", zero));
+    }
+}
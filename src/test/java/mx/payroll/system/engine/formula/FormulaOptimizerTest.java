@@ -0,0 +1,110 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.engine.CompiledFormula;
+import mx.payroll.system.engine.FormulaBackend;
+import mx.payroll.system.engine.FormulaEngine;
+import mx.payroll.system.engine.PayrollContext;
+import mx.payroll.system.service.TaxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.expression.spel.SpelCompilerMode;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class FormulaOptimizerTest {
+
+    private static final Map<String, BigDecimal> PERIOD = Map.of("UMA", new BigDecimal("108.5700"));
+
+    @Mock
+    private TaxService taxService;
+
+    private FormulaEngine spelEngine;
+    private FormulaEngine nativeEngine;
+    private PayrollContext context;
+
+    @BeforeEach
+    void setUp() {
+        spelEngine = new FormulaEngine(taxService, SpelCompilerMode.OFF, FormulaBackend.SPEL);
+        nativeEngine = new FormulaEngine(taxService, SpelCompilerMode.OFF, FormulaBackend.NATIVE);
+
+        context = new PayrollContext(new Employee("EMP-OPT", "Hoisted Employee", LocalDate.of(2019, 3, 15)));
+        context.setFixedValue("P001", new BigDecimal("15000.0000"));
+        context.setFixedValue("UMA", new BigDecimal("108.5700"));
+    }
+
+    @Test
+    @DisplayName("Folds the UMA cap of P004 into a literal")
+    void foldsPeriodInvariantCap() {
+        FormulaOptimizer.Result result = FormulaOptimizer.hoist(
+                FormulaParser.parse("(#P001 * 0.10).min(#UMA * 30 * 0.40)"), PERIOD);
+
+        assertEquals(2, result.hoistedOperations());
+        assertEquals(Set.of("UMA"), result.substitutedVariables());
+        FormulaNode.MethodCall call = assertInstanceOf(FormulaNode.MethodCall.class, result.node());
+        FormulaNode.NumberLiteral cap = assertInstanceOf(FormulaNode.NumberLiteral.class, call.arguments().get(0));
+        assertEquals(new BigDecimal("1302.84000"), cap.value());
+    }
+
+    @Test
+    @DisplayName("Does not reassociate operations around employee values")
+    void doesNotReassociate() {
+        FormulaOptimizer.Result result = FormulaOptimizer.hoist(FormulaParser.parse("#P001 * 30 * 0.40"), PERIOD);
+
+        assertEquals(0, result.hoistedOperations());
+        assertFalse(result.isChanged());
+    }
+
+    @Test
+    @DisplayName("Folds literal-only subexpressions without period values")
+    void foldsConstants() {
+        FormulaOptimizer.Result result = FormulaOptimizer.hoist(FormulaParser.parse("#P001 * (15 / 365.0) - -2"), Map.of());
+
+        assertEquals(2, result.hoistedOperations());
+    }
+
+    @Test
+    @DisplayName("Leaves failing operations to fail per employee")
+    void keepsFailingOperations() {
+        FormulaOptimizer.Result result = FormulaOptimizer.hoist(FormulaParser.parse("#P001 + 1 / 0"), Map.of());
+
+        assertEquals(0, result.hoistedOperations());
+    }
+
+    @ParameterizedTest
+    @DisplayName("Specialized formulas match SpEL")
+    @ValueSource(strings = {
+            "(#P001 * 0.10).min(#UMA * 30 * 0.40)",
+            "(#P001 * 0.01).max(#UMA)",
+            "#calcularIMSS(#P001, #UMA * 1)",
+            "#P001 - #UMA * 25 / 7",
+            "(#P001 / 30.0) * 15 * (#diasTrabajadosAnio(#HIRE_DATE) / 365.0)"
+    })
+    void specializedMatchesSpel(String formula) {
+        CompiledFormula specialized = nativeEngine.specialize(nativeEngine.compile(formula), PERIOD);
+
+        assertEquals(spelEngine.evaluate(formula, context), nativeEngine.evaluateCompiled(specialized, context), formula);
+    }
+
+    @Test
+    @DisplayName("Reports hoisted operations and leaves SpEL formulas untouched")
+    void reportsHoistedOperations() {
+        String formula = "(#P001 * 0.10).min(#UMA * 30 * 0.40)";
+
+        assertEquals(2, nativeEngine.specialize(nativeEngine.compile(formula), PERIOD).getHoistedOperations());
+        CompiledFormula spel = spelEngine.compile(formula);
+        assertSame(spel, spelEngine.specialize(spel, PERIOD));
+    }
+}
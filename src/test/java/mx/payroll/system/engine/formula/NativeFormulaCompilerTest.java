@@ -0,0 +1,121 @@
+package mx.payroll.system.engine.formula;
+
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.engine.FormulaBackend;
+import mx.payroll.system.engine.FormulaEngine;
+import mx.payroll.system.engine.PayrollContext;
+import mx.payroll.system.exception.FormulaEvaluationException;
+import mx.payroll.system.service.TaxService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.expression.spel.SpelCompilerMode;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class NativeFormulaCompilerTest {
+
+    @Mock
+    private TaxService taxService;
+
+    private FormulaEngine spelEngine;
+    private FormulaEngine nativeEngine;
+    private PayrollContext context;
+
+    @BeforeEach
+    void setUp() {
+        spelEngine = new FormulaEngine(taxService, SpelCompilerMode.OFF, FormulaBackend.SPEL);
+        nativeEngine = new FormulaEngine(taxService, SpelCompilerMode.OFF, FormulaBackend.NATIVE);
+
+        context = new PayrollContext(new Employee("EMP-NAT", "Native Employee", LocalDate.of(2019, 3, 15)));
+        context.setFixedValue("P001", new BigDecimal("15000.0000"));
+        context.setFixedValue("UMA", new BigDecimal("108.5700"));
+        context.addCalculation("P002", new BigDecimal("616.44"));
+        context.setFixedValue("TOTAL_EARNINGS", new BigDecimal("16919.64"));
+    }
+
+    @ParameterizedTest
+    @DisplayName("Native results match SpEL for the stored formula dialect")
+    @ValueSource(strings = {
+            "(#P001 / 30.0) * 15 * (#diasTrabajadosAnio(#HIRE_DATE) / 365.0)",
+            "(#P001 / 30.0) * #diasVacaciones(#HIRE_DATE) * 0.25",
+            "(#P001 * 0.10).min(#UMA * 30 * 0.40)",
+            "(#P001 * 0.01).max(#UMA)",
+            "#calcularIMSS(#P001, #UMA)",
+            "#P001 * 0.05",
+            "#P001 / 7",
+            "#P001 % 7",
+            "-#P002 + #P001 - 10",
+            "10 / 4 + 7 % 3",
+            "2.5 * 4 - 1e1",
+            "#MISSING_CONCEPT + #P001",
+            "(#TOTAL_EARNINGS - #P002) * 0.0192"
+    })
+    void nativeMatchesSpel(String formula) {
+        BigDecimal expected = spelEngine.evaluate(formula, context);
+        BigDecimal actual = nativeEngine.evaluate(formula, context);
+
+        assertEquals(expected, actual, formula);
+        assertEquals(FormulaEngine.CompilationState.NATIVE, nativeEngine.getCompilationReport().get(formula));
+    }
+
+    @Test
+    @DisplayName("Assigns one slot per distinct variable in order of appearance")
+    void assignsSlotsInOrder() {
+        NativeFormula formula = NativeFormulaCompiler.compile("#calcularIMSS(#P001, #UMA) + #P001 * 0.01");
+
+        assertEquals(List.of("P001", "UMA"), formula.getVariables());
+        Object result = formula.evaluate(new Object[]{new BigDecimal("100"), new BigDecimal("10")});
+        assertEquals(0, new BigDecimal("3.70").compareTo((BigDecimal) result));
+    }
+
+    @Test
+    @DisplayName("Types literals like SpEL (int, long, double)")
+    void typesLiteralsLikeSpel() {
+        assertEquals(new FormulaNode.NumberLiteral(15), FormulaParser.parse("15"));
+        assertEquals(new FormulaNode.NumberLiteral(15L), FormulaParser.parse("15L"));
+        assertEquals(new FormulaNode.NumberLiteral(30.0), FormulaParser.parse("30.0"));
+    }
+
+    @ParameterizedTest
+    @DisplayName("Rejects syntax outside the dialect")
+    @ValueSource(strings = {
+            "T(java.lang.System).exit(0)",
+            "new java.io.File('/etc/passwd')",
+            "#P001 > 100 ? 1 : 0",
+            "#impuestos.calculateISR(#P001)",
+            "#P001.setScale(2)",
+            "#unknownFunction(#P001)",
+            "#a + + #b"
+    })
+    void rejectsUnsupportedSyntax(String formula) {
+        assertThrows(FormulaEvaluationException.class, () -> NativeFormulaCompiler.compile(formula));
+    }
+
+    @Test
+    @DisplayName("Formulas the native compiler cannot handle stay on SpEL")
+    void fallsBackToSpel() {
+        String formula = "#P001 > 10000 ? #P001 * 0.02 : 0";
+
+        BigDecimal result = nativeEngine.evaluate(formula, context);
+
+        assertEquals(0, new BigDecimal("300.00").compareTo(result));
+        assertEquals(FormulaEngine.CompilationState.INTERPRETED, nativeEngine.getCompilationReport().get(formula));
+    }
+
+    @Test
+    @DisplayName("Operating on an unresolved lower-case variable fails like SpEL")
+    void failsOnNullOperand() {
+        assertThrows(FormulaEvaluationException.class, () -> nativeEngine.evaluate("#P001 + #b", context));
+    }
+}
@@ -5,14 +5,19 @@ import mx.payroll.system.domain.model.PayrollPeriod;
 import mx.payroll.system.domain.repository.EmployeeRepository;
 import mx.payroll.system.domain.repository.PayrollPeriodRepository;
 import mx.payroll.system.processing.service.QueueService;
+import mx.payroll.system.service.ConceptFormulaService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -31,6 +36,9 @@ public class PayrollDispatcherTest {
     @Mock
     private EntityManager entityManager; // Mock EntityManager
 
+    @Mock
+    private ConceptFormulaService conceptFormulaService;
+
     @InjectMocks
     private PayrollDispatcher payrollDispatcher;
 
@@ -40,6 +48,7 @@ public class PayrollDispatcherTest {
         String periodId = "2023-12";
         long employeeCount = 250; // Should result in 3 chunks (100, 100, 50)
         when(employeeRepo.countActiveEmployees()).thenReturn(employeeCount);
+        when(employeeRepo.streamActiveIds()).thenReturn(IntStream.rangeClosed(1, 250).boxed());
         
         PayrollPeriod period = new PayrollPeriod();
         period.setPeriodIdentifier(periodId);
@@ -55,4 +64,26 @@ public class PayrollDispatcherTest {
         verify(periodRepo).save(period);
         verify(queueService, times(3)).push(any(PayrollChunkJob.class));
     }
+
+    @Test
+    public void testDispatchCalculationByIdRanges() {
+        // Arrange: ids con huecos (empleados dados de baja o borrados)
+        String periodId = "2024-01";
+        when(employeeRepo.countActiveEmployees()).thenReturn(205L);
+        when(employeeRepo.streamActiveIds()).thenReturn(IntStream.rangeClosed(1, 205).map(i -> i * 3).boxed());
+        PayrollPeriod period = new PayrollPeriod();
+        period.setPeriodIdentifier(periodId);
+        when(periodRepo.findByPeriodIdentifier(periodId)).thenReturn(Optional.of(period));
+
+        // Act
+        payrollDispatcher.dispatchCalculation(periodId);
+
+        // Assert: lotes consecutivos [minId, maxId] de 100 ids activos, el último parcial
+        ArgumentCaptor<PayrollChunkJob> jobs = ArgumentCaptor.forClass(PayrollChunkJob.class);
+        verify(queueService, times(3)).push(jobs.capture());
+        List<PayrollChunkJob> pushed = jobs.getAllValues();
+        assertEquals(List.of(3, 303, 603), pushed.stream().map(PayrollChunkJob::getMinId).toList());
+        assertEquals(List.of(300, 600, 615), pushed.stream().map(PayrollChunkJob::getMaxId).toList());
+        assertEquals(List.of(0, 1, 2), pushed.stream().map(PayrollChunkJob::getPage).toList());
+    }
 }
@@ -1,8 +1,10 @@
 package mx.payroll.system.processing.monitoring;
 
 import mx.payroll.system.domain.model.PayrollPeriod;
+import mx.payroll.system.domain.model.QuarantinedEmployee;
 import mx.payroll.system.domain.repository.PayrollPeriodRepository;
 import mx.payroll.system.domain.repository.PayrollResultRepository;
+import mx.payroll.system.domain.repository.QuarantinedEmployeeRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -11,6 +13,7 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.LocalDate;
+import java.util.List;
 import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -27,6 +30,9 @@ class MonitoringServiceTest {
     @Mock
     private PayrollResultRepository resultRepo;
 
+    @Mock
+    private QuarantinedEmployeeRepository quarantineRepo;
+
     @InjectMocks
     private MonitoringService monitoringService;
 
@@ -235,4 +241,39 @@ class MonitoringServiceTest {
         verify(resultRepo).countByPeriodId("2024-01");
         verify(periodRepo, never()).save(any());
     }
+
+    @Test
+    void getProgress_whenEmployeesQuarantined_shouldReportThem() {
+        // Given
+        when(periodRepo.findById(1L)).thenReturn(Optional.of(testPeriod));
+        when(resultRepo.countByPeriodId("2024-01")).thenReturn(98);
+        when(quarantineRepo.countByPeriodId("2024-01")).thenReturn(2);
+
+        // When
+        MonitoringService.ProgressReport report = monitoringService.getProgress(1L);
+
+        // Then
+        assertThat(report.processed()).isEqualTo(98);
+        assertThat(report.quarantined()).isEqualTo(2);
+        assertThat(report.status()).isEqualTo("IN_PROGRESS");
+        verify(periodRepo, never()).save(any());
+    }
+
+    @Test
+    void getQuarantine_shouldListQuarantinedEmployeesWithTheirErrors() {
+        // Given
+        when(periodRepo.findById(1L)).thenReturn(Optional.of(testPeriod));
+        when(quarantineRepo.findByPeriodIdOrderByEmployeeId("2024-01")).thenReturn(List.of(
+                new QuarantinedEmployee("2024-01", 7, "ArithmeticException: / by zero")));
+
+        // When
+        List<MonitoringService.QuarantineEntry> entries = monitoringService.getQuarantine(1L);
+
+        // Then
+        assertThat(entries).singleElement().satisfies(entry -> {
+            assertThat(entry.employeeId()).isEqualTo(7);
+            assertThat(entry.error()).isEqualTo("ArithmeticException: / by zero");
+            assertThat(entry.quarantinedAt()).isNotNull();
+        });
+    }
 }
@@ -0,0 +1,77 @@
+package mx.payroll.system.processing.worker;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("ChunkExecutor - Cálculo en paralelo por lote")
+class ChunkExecutorTest {
+
+    @Test
+    @DisplayName("Sin paralelismo debe calcular en el hilo que llama")
+    void shouldRunInlineByDefault() {
+        ChunkExecutor executor = new ChunkExecutor(1, ChunkExecutor.Pool.FORK_JOIN, 0, 15);
+        Thread caller = Thread.currentThread();
+
+        assertThat(executor.isParallel()).isFalse();
+        assertThat(executor.submit(Thread::currentThread).join()).isSameAs(caller);
+        assertThat(executor.availableDbPermits()).isEqualTo(10);
+        assertThatThrownBy(() -> executor.submit(() -> {
+            throw new IllegalStateException("fallo");
+        }).join()).isInstanceOf(CompletionException.class).hasCauseInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    @DisplayName("Debe repartir los cálculos y conservar el orden del lote")
+    void shouldRunInParallelKeepingOrder() {
+        for (ChunkExecutor.Pool pool : ChunkExecutor.Pool.values()) {
+            ChunkExecutor executor = new ChunkExecutor(4, pool, 0, 15);
+            List<CompletableFuture<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                futures.add(executor.submit(() -> value * 2));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertThat(futures.get(i).join()).isEqualTo(i * 2);
+            }
+            assertThat(executor.submit(Thread::currentThread).join()).isNotSameAs(Thread.currentThread());
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("No debe permitir más operaciones de base de datos simultáneas que permisos")
+    void shouldCapConcurrentDbAccess() throws InterruptedException {
+        ChunkExecutor executor = new ChunkExecutor(8, ChunkExecutor.Pool.FIXED, 2, 15);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(16);
+        for (int i = 0; i < 16; i++) {
+            executor.submit(() -> executor.withDbPermit(() -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                active.decrementAndGet();
+                done.countDown();
+                return null;
+            }));
+        }
+
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(maxActive.get()).isLessThanOrEqualTo(2);
+        executor.shutdown();
+    }
+}
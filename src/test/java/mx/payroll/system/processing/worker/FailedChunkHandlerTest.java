@@ -0,0 +1,153 @@
+package mx.payroll.system.processing.worker;
+
+import mx.payroll.system.domain.model.QuarantinedEmployee;
+import mx.payroll.system.domain.repository.QuarantinedEmployeeRepository;
+import mx.payroll.system.processing.dispatcher.PayrollChunkJob;
+import mx.payroll.system.processing.dispatcher.PayrollDeadLetter;
+import mx.payroll.system.processing.service.QueueService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("FailedChunkHandler - Reintentos, partición de lotes y cuarentena")
+class FailedChunkHandlerTest {
+
+    private static final List<Integer> IDS = List.of(10, 11, 12, 13, 14, 15);
+
+    @Mock
+    private QueueService queueService;
+
+    @Mock
+    private QuarantinedEmployeeRepository quarantineRepo;
+
+    private FailedChunkHandler handler;
+
+    @BeforeEach
+    void setUp() {
+        handler = new FailedChunkHandler(queueService, quarantineRepo, 2, 1000, 1500, 2);
+    }
+
+    private static PayrollChunkJob job(int attempt) {
+        PayrollChunkJob job = new PayrollChunkJob("2024-01", 3, 6, 10, 15);
+        job.setAttempt(attempt);
+        return job;
+    }
+
+    private static Map<Integer, String> allFailed(String error) {
+        Map<Integer, String> errors = new LinkedHashMap<>();
+        IDS.forEach(id -> errors.put(id, error));
+        return errors;
+    }
+
+    @Test
+    @DisplayName("Debe reintentar con backoff exponencial solo el rango de empleados que falló")
+    void shouldRetryFailingSpanWithBackoff() {
+        ArgumentCaptor<PayrollChunkJob> retry = ArgumentCaptor.forClass(PayrollChunkJob.class);
+
+        handler.onFailure(job(0), IDS, Map.of(11, "fallo", 13, "fallo"), true);
+        handler.onFailure(job(1), IDS, Map.of(11, "fallo"), true);
+
+        verify(queueService).pushDelayed(retry.capture(), eq(1000L));
+        verify(queueService).pushDelayed(any(), eq(1500L)); // 2000 ms topado por max-backoff
+        PayrollChunkJob first = retry.getValue();
+        assertThat(first.getMinId()).isEqualTo(11);
+        assertThat(first.getMaxId()).isEqualTo(13);
+        assertThat(first.getAttempt()).isEqualTo(1);
+        verify(queueService, never()).deadLetter(any());
+    }
+
+    @Test
+    @DisplayName("Agotados los reintentos, un error de lote completo debe partir el lote en dos")
+    void shouldBisectChunkThatKeepsFailing() {
+        ArgumentCaptor<PayrollChunkJob> halves = ArgumentCaptor.forClass(PayrollChunkJob.class);
+
+        handler.onFailure(job(2), IDS, allFailed("SpelEvaluationException: fórmula inválida"), false);
+
+        verify(queueService, times(2)).push(halves.capture());
+        assertThat(halves.getAllValues()).extracting(PayrollChunkJob::getMinId, PayrollChunkJob::getMaxId,
+                        PayrollChunkJob::getAttempt, PayrollChunkJob::getSplitDepth)
+                .containsExactly(tuple(10, 12, 2, 1), tuple(13, 15, 2, 1));
+        verify(queueService, never()).pushDelayed(any(), anyLong());
+        verify(queueService, never()).deadLetter(any());
+        verify(quarantineRepo, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Al llegar a la profundidad máxima, un error de lote completo va entero a mensajes muertos sin cuarentena")
+    void shouldDeadLetterRangeAtMaxSplitDepth() {
+        PayrollChunkJob half = job(2);
+        half.setSplitDepth(2);
+        ArgumentCaptor<PayrollDeadLetter> letter = ArgumentCaptor.forClass(PayrollDeadLetter.class);
+
+        handler.onFailure(half, IDS, allFailed("CannotCreateTransactionException: base caída"), false);
+
+        verify(queueService).deadLetter(letter.capture());
+        assertThat(letter.getValue().getEmployeeId()).isNull();
+        assertThat(letter.getValue().getJob().getMinId()).isEqualTo(10);
+        assertThat(letter.getValue().getJob().getMaxId()).isEqualTo(15);
+        verify(queueService, never()).push(any());
+        verify(queueService, never()).pushDelayed(any(), anyLong());
+        verify(quarantineRepo, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Un empleado aislado que sigue fallando debe ir a la cola de mensajes muertos y a cuarentena")
+    void shouldQuarantineIsolatedEmployee() {
+        when(quarantineRepo.findByPeriodIdAndEmployeeId("2024-01", 12)).thenReturn(Optional.empty());
+        ArgumentCaptor<QuarantinedEmployee> saved = ArgumentCaptor.forClass(QuarantinedEmployee.class);
+        ArgumentCaptor<PayrollDeadLetter> letter = ArgumentCaptor.forClass(PayrollDeadLetter.class);
+
+        handler.onFailure(job(2), List.of(12), Map.of(12, "ArithmeticException: / by zero"), false);
+
+        verify(quarantineRepo).save(saved.capture());
+        assertThat(saved.getValue().getEmployeeId()).isEqualTo(12);
+        assertThat(saved.getValue().getErrorMessage()).isEqualTo("ArithmeticException: / by zero");
+        verify(queueService).deadLetter(letter.capture());
+        assertThat(letter.getValue().getEmployeeId()).isEqualTo(12);
+        assertThat(letter.getValue().getError()).isEqualTo("ArithmeticException: / by zero");
+        verify(queueService, never()).push(any());
+        verify(queueService, never()).pushDelayed(any(), anyLong());
+    }
+
+    @Test
+    @DisplayName("Un lote que no se pudo leer debe reintentarse y después ir completo a mensajes muertos")
+    void shouldDeadLetterUnreadableJob() {
+        handler.onJobFailure(job(0), "CannotGetJdbcConnectionException");
+        handler.onJobFailure(job(2), "CannotGetJdbcConnectionException");
+
+        verify(queueService).pushDelayed(any(), eq(1000L));
+        ArgumentCaptor<PayrollDeadLetter> letter = ArgumentCaptor.forClass(PayrollDeadLetter.class);
+        verify(queueService).deadLetter(letter.capture());
+        assertThat(letter.getValue().getEmployeeId()).isNull();
+        assertThat(letter.getValue().getJob().getMinId()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("Debe sacar de cuarentena a los empleados guardados")
+    void shouldReleaseSavedEmployees() {
+        handler.release("2024-01", List.of(12, 13));
+        handler.release("2024-01", List.of());
+
+        verify(quarantineRepo, times(1)).deleteByPeriodIdAndEmployeeIdIn("2024-01", List.of(12, 13));
+    }
+}
@@ -0,0 +1,122 @@
+package mx.payroll.system.processing.worker;
+
+import mx.payroll.system.engine.PayrollResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("PayrollResultWriter - Escritura masiva de resultados")
+class PayrollResultWriterTest {
+
+    private JdbcTemplate jdbc;
+    private PayrollResultWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:result-writer;DB_CLOSE_DELAY=-1", "sa", "");
+        jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE payroll_results (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                + " period_id VARCHAR(100), employee_id INT, total_earnings DECIMAL(19, 4),"
+                + " total_deductions DECIMAL(19, 4), net_pay DECIMAL(19, 4))");
+        jdbc.execute("CREATE UNIQUE INDEX idx_payroll_unique_employee_period ON payroll_results(employee_id, period_id)");
+        jdbc.execute("CREATE TABLE payroll_result_details (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                + " payroll_result_id BIGINT REFERENCES payroll_results(id), concept_code VARCHAR(10) NOT NULL,"
+                + " calculated_amount DECIMAL(19, 4) NOT NULL, calculation_log TEXT)");
+        writer = new PayrollResultWriter(jdbc, new DataSourceTransactionManager(dataSource));
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbc.execute("DROP ALL OBJECTS");
+    }
+
+    private static PayrollResult result(int employeeId, String periodId) {
+        return result(employeeId, periodId, new BigDecimal("1000.00"));
+    }
+
+    private static PayrollResult result(int employeeId, String periodId, BigDecimal salary) {
+        PayrollResult result = new PayrollResult();
+        result.setEmployeeId(employeeId);
+        result.setPeriodId(periodId);
+        result.addDetail("P001", salary, "Sueldo");
+        result.addDetail("D001", new BigDecimal("150.00"), null);
+        return result;
+    }
+
+    private int count(String table) {
+        return jdbc.queryForObject("SELECT COUNT(*) FROM " + table, Integer.class);
+    }
+
+    @Test
+    @DisplayName("Debe guardar resultados y detalles en varias sentencias multi-fila y asignar los ids")
+    void shouldWriteResultsAndDetails() {
+        List<PayrollResult> results = new ArrayList<>();
+        for (int i = 1; i <= PayrollResultWriter.ROWS_PER_STATEMENT + 1; i++) {
+            results.add(result(i, "2024-01"));
+        }
+
+        PayrollResultWriter.WriteSummary summary = writer.write(results);
+
+        assertThat(summary.written()).isEqualTo(501);
+        assertThat(summary.hasFailures()).isFalse();
+        assertThat(results).allSatisfy(r -> assertThat(r.getId()).isNotNull());
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM payroll_results", Integer.class)).isEqualTo(501);
+        assertThat(jdbc.queryForObject("SELECT COUNT(*) FROM payroll_result_details", Integer.class)).isEqualTo(1002);
+        PayrollResult last = results.get(results.size() - 1);
+        assertThat(jdbc.queryForObject("SELECT employee_id FROM payroll_results WHERE id = ?", Integer.class, last.getId()))
+                .isEqualTo(501);
+        assertThat(jdbc.queryForObject("SELECT net_pay FROM payroll_results WHERE id = ?", BigDecimal.class, last.getId()))
+                .isEqualByComparingTo("850.00");
+        assertThat(jdbc.queryForList("SELECT concept_code FROM payroll_result_details WHERE payroll_result_id = ? ORDER BY id",
+                String.class, last.getId())).containsExactly("P001", "D001");
+    }
+
+    @Test
+    @DisplayName("Un lote reentregado debe actualizar los resultados y reemplazar sus detalles")
+    void shouldUpsertRedeliveredChunk() {
+        PayrollResult first = result(1, "2024-01");
+        writer.write(List.of(first, result(2, "2024-01")));
+
+        PayrollResult again = result(1, "2024-01", new BigDecimal("1200.00"));
+        again.addDetail("D002", new BigDecimal("50.00"), null);
+        PayrollResultWriter.WriteSummary summary = writer.write(List.of(result(1, "2024-01"), again, result(3, "2024-01")));
+
+        assertThat(summary.written()).isEqualTo(2);
+        assertThat(again.getId()).isEqualTo(first.getId());
+        assertThat(count("payroll_results")).isEqualTo(3);
+        assertThat(jdbc.queryForObject("SELECT net_pay FROM payroll_results WHERE id = ?", BigDecimal.class, first.getId()))
+                .isEqualByComparingTo("1000.00");
+        assertThat(jdbc.queryForList("SELECT concept_code FROM payroll_result_details WHERE payroll_result_id = ? ORDER BY id",
+                String.class, first.getId())).containsExactly("P001", "D001", "D002");
+        assertThat(count("payroll_result_details")).isEqualTo(7);
+    }
+
+    @Test
+    @DisplayName("Un empleado con datos inválidos no debe impedir guardar el resto del lote")
+    void shouldIsolateFailuresPerEmployee() {
+        PayrollResult invalid = result(2, "2024-01");
+        invalid.addDetail("CODIGO_LARGO_INVALIDO", BigDecimal.ONE, null); // concept_code es VARCHAR(10)
+
+        PayrollResultWriter.WriteSummary summary = writer.write(List.of(result(1, "2024-01"), invalid, result(3, "2024-01")));
+
+        assertThat(summary.written()).isEqualTo(2);
+        assertThat(summary.failedEmployeeIds()).containsExactly(2);
+        assertThat(invalid.getId()).isNull();
+        assertThat(jdbc.queryForList("SELECT employee_id FROM payroll_results ORDER BY employee_id", Integer.class))
+                .containsExactly(1, 3);
+        assertThat(count("payroll_result_details")).isEqualTo(4);
+        assertThatThrownBy(() -> writer.write(List.of(new PayrollResult())))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,185 @@
+package mx.payroll.system.processing.worker;
+
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.domain.model.PayrollPeriod;
+import mx.payroll.system.domain.repository.ConceptFormulaRepository;
+import mx.payroll.system.domain.repository.EmployeeRepository;
+import mx.payroll.system.domain.repository.PayrollPeriodRepository;
+import mx.payroll.system.engine.ExecutionPlan;
+import mx.payroll.system.engine.PayrollResult;
+import mx.payroll.system.processing.dispatcher.PayrollChunkJob;
+import mx.payroll.system.service.PayrollService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("PayrollWorker - Modo por lotes y manejo de fallos")
+class PayrollWorkerTest {
+
+    private static final LocalDate END = LocalDate.of(2024, 1, 31);
+
+    @Mock
+    private EmployeeRepository employeeRepo;
+
+    @Mock
+    private PayrollResultWriter resultWriter;
+
+    @Mock
+    private PayrollService payrollService;
+
+    @Mock
+    private ConceptFormulaRepository globalRulesRepo;
+
+    @Mock
+    private PayrollPeriodRepository payrollPeriodRepo;
+
+    @Mock
+    private FailedChunkHandler failedChunkHandler;
+
+    private PayrollWorker worker;
+
+    private final PayrollPeriod period = new PayrollPeriod(LocalDate.of(2024, 1, 1), END, "OPEN", "2024-01");
+
+    @BeforeEach
+    void setUp() {
+        worker = new PayrollWorker(employeeRepo, resultWriter, payrollService, globalRulesRepo, payrollPeriodRepo,
+                true, new ChunkExecutor(1, ChunkExecutor.Pool.FORK_JOIN, 0, 15), failedChunkHandler);
+    }
+
+    private static Employee employee(int id) {
+        Employee employee = new Employee("EMP-" + id, "Empleado " + id, LocalDate.of(2020, 1, 1));
+        employee.setId(id);
+        return employee;
+    }
+
+    private static PayrollResult result(int employeeId) {
+        PayrollResult result = new PayrollResult();
+        result.setEmployeeId(employeeId);
+        result.setPeriodId("2024-01");
+        return result;
+    }
+
+    @Test
+    @DisplayName("Los empleados que fallan en el cálculo por lote deben reintentarse como errores aislados")
+    void shouldHandOffRowFailuresAsIsolated() {
+        PayrollChunkJob job = new PayrollChunkJob("2024-01", 0, 3, 1, 3);
+        List<Employee> employees = List.of(employee(1), employee(2), employee(3));
+        ExecutionPlan plan = ExecutionPlan.of(List.of());
+        when(payrollPeriodRepo.findByPeriodIdentifier("2024-01")).thenReturn(Optional.of(period));
+        when(employeeRepo.findActiveByIdRange(1, 3)).thenReturn(employees);
+        when(globalRulesRepo.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(END, END)).thenReturn(List.of());
+        when(payrollService.buildExecutionPlan(List.of(), period)).thenReturn(plan);
+        when(payrollService.calculatePayrollForChunk(employees, period, plan)).thenReturn(new PayrollService.ChunkCalculation(
+                List.of(result(1), result(3)), Map.of(2, "ArithmeticException: / by zero")));
+        when(resultWriter.write(anyList())).thenReturn(new PayrollResultWriter.WriteSummary(2, Map.of()));
+
+        worker.processChunk(job);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<PayrollResult>> written = ArgumentCaptor.forClass(List.class);
+        verify(resultWriter).write(written.capture());
+        assertThat(written.getValue()).extracting(PayrollResult::getEmployeeId).containsExactly(1, 3);
+        verify(failedChunkHandler).release("2024-01", List.of(1, 3));
+        verify(failedChunkHandler).onFailure(eq(job), eq(List.of(1, 2, 3)),
+                eq(Map.of(2, "ArithmeticException: / by zero")), eq(true));
+    }
+
+    @Test
+    @DisplayName("Si falla el cálculo del lote completo, el error no se atribuye a un empleado")
+    void shouldHandOffWholeChunkFailureAsNotIsolated() {
+        PayrollChunkJob job = new PayrollChunkJob("2024-01", 0, 2, 1, 2);
+        List<Employee> employees = List.of(employee(1), employee(2));
+        ExecutionPlan plan = ExecutionPlan.of(List.of());
+        when(payrollPeriodRepo.findByPeriodIdentifier("2024-01")).thenReturn(Optional.of(period));
+        when(employeeRepo.findActiveByIdRange(1, 2)).thenReturn(employees);
+        when(globalRulesRepo.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(END, END)).thenReturn(List.of());
+        when(payrollService.buildExecutionPlan(List.of(), period)).thenReturn(plan);
+        when(payrollService.calculatePayrollForChunk(employees, period, plan))
+                .thenThrow(new IllegalStateException("plan inválido"));
+
+        worker.processChunk(job);
+
+        verify(failedChunkHandler).onFailure(eq(job), eq(List.of(1, 2)),
+                eq(Map.of(1, "IllegalStateException: plan inválido", 2, "IllegalStateException: plan inválido")), eq(false));
+        verify(resultWriter, never()).write(any());
+    }
+
+    @Test
+    @DisplayName("Si falla el plan del periodo, el lote completo se reintenta sin partirlo")
+    void shouldRetryWholeJobWhenPlanFails() {
+        PayrollChunkJob job = new PayrollChunkJob("2024-01", 0, 2, 1, 2);
+        when(payrollPeriodRepo.findByPeriodIdentifier("2024-01")).thenReturn(Optional.of(period));
+        when(employeeRepo.findActiveByIdRange(1, 2)).thenReturn(List.of(employee(1), employee(2)));
+        when(globalRulesRepo.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(END, END)).thenReturn(List.of());
+        when(payrollService.buildExecutionPlan(List.of(), period)).thenThrow(new IllegalStateException("ciclo en fórmulas"));
+
+        worker.processChunk(job);
+
+        verify(failedChunkHandler).onJobFailure(job, "IllegalStateException: ciclo en fórmulas");
+        verify(failedChunkHandler, never()).onFailure(any(), anyList(), anyMap(), anyBoolean());
+    }
+
+    @Test
+    @DisplayName("Si no se pueden reintentar los empleados, el lote va al reintento completo sin lanzar la excepción")
+    void shouldFallBackToJobFailureWhenHandlerFails() {
+        PayrollChunkJob job = new PayrollChunkJob("2024-01", 0, 2, 1, 2);
+        List<Employee> employees = List.of(employee(1), employee(2));
+        ExecutionPlan plan = ExecutionPlan.of(List.of());
+        when(payrollPeriodRepo.findByPeriodIdentifier("2024-01")).thenReturn(Optional.of(period));
+        when(employeeRepo.findActiveByIdRange(1, 2)).thenReturn(employees);
+        when(globalRulesRepo.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(END, END)).thenReturn(List.of());
+        when(payrollService.buildExecutionPlan(List.of(), period)).thenReturn(plan);
+        when(payrollService.calculatePayrollForChunk(employees, period, plan)).thenReturn(new PayrollService.ChunkCalculation(
+                List.of(), Map.of(1, "ArithmeticException: / by zero")));
+        doThrow(new IllegalStateException("base caída")).when(failedChunkHandler)
+                .onFailure(eq(job), anyList(), anyMap(), anyBoolean());
+        doThrow(new IllegalStateException("broker caído")).when(failedChunkHandler).onJobFailure(any(), any());
+
+        assertThatCode(() -> worker.processChunk(job)).doesNotThrowAnyException();
+
+        verify(failedChunkHandler).onJobFailure(job, "IllegalStateException: base caída");
+    }
+
+    @Test
+    @DisplayName("Si falla sacar de cuarentena, los resultados guardados no se marcan como error")
+    void shouldNotFailSavedResultsWhenReleaseFails() {
+        PayrollChunkJob job = new PayrollChunkJob("2024-01", 0, 1, 1, 1);
+        List<Employee> employees = List.of(employee(1));
+        ExecutionPlan plan = ExecutionPlan.of(List.of());
+        when(payrollPeriodRepo.findByPeriodIdentifier("2024-01")).thenReturn(Optional.of(period));
+        when(employeeRepo.findActiveByIdRange(1, 1)).thenReturn(employees);
+        when(globalRulesRepo.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(END, END)).thenReturn(List.of());
+        when(payrollService.buildExecutionPlan(List.of(), period)).thenReturn(plan);
+        when(payrollService.calculatePayrollForChunk(employees, period, plan))
+                .thenReturn(new PayrollService.ChunkCalculation(List.of(result(1)), Map.of()));
+        when(resultWriter.write(anyList())).thenReturn(new PayrollResultWriter.WriteSummary(1, Map.of()));
+        doThrow(new IllegalStateException("base caída")).when(failedChunkHandler).release("2024-01", List.of(1));
+
+        worker.processChunk(job);
+
+        verify(failedChunkHandler, never()).onFailure(any(), anyList(), anyMap(), anyBoolean());
+        verify(failedChunkHandler, never()).onJobFailure(any(), any());
+    }
+}
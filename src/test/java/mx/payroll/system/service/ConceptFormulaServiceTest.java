@@ -0,0 +1,134 @@
+package mx.payroll.system.service;
+
+import mx.payroll.system.domain.model.Concept;
+import mx.payroll.system.domain.model.ConceptFormula;
+import mx.payroll.system.domain.repository.ConceptFormulaRepository;
+import mx.payroll.system.domain.repository.ConceptRepository;
+import mx.payroll.system.domain.repository.EconomicIndicatorRepository;
+import mx.payroll.system.dto.ConceptFormulaRequestDTO;
+import mx.payroll.system.engine.FormulaEngine;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("Concept Formula Service Tests")
+class ConceptFormulaServiceTest {
+
+    private static final LocalDate EFFECTIVE = LocalDate.of(2024, 1, 1);
+
+    @Mock
+    private ConceptFormulaRepository formulaRepository;
+
+    @Mock
+    private ConceptRepository conceptRepository;
+
+    @Mock
+    private EconomicIndicatorRepository indicatorRepository;
+
+    @Mock
+    private TaxService taxService;
+
+    private FormulaEngine formulaEngine;
+    private ConceptFormulaService service;
+
+    @BeforeEach
+    void setUp() {
+        formulaEngine = new FormulaEngine(taxService);
+        service = new ConceptFormulaService(formulaRepository, conceptRepository, indicatorRepository, formulaEngine);
+    }
+
+    private void givenSeedCatalog(ConceptFormula... active) {
+        when(conceptRepository.existsById(any())).thenReturn(true);
+        when(formulaRepository.findByEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(EFFECTIVE, EFFECTIVE))
+                .thenReturn(List.of(active));
+        lenient().when(conceptRepository.findAll()).thenReturn(List.of(
+                new Concept("P001", "Sueldo", "EARNING", 10),
+                new Concept("P002", "Aguinaldo", "EARNING", 20),
+                new Concept("D001", "IMSS", "DEDUCTION", 200),
+                new Concept("D002", "ISR", "DEDUCTION", 210)));
+        lenient().when(indicatorRepository.findAllCodes()).thenReturn(List.of("UMA"));
+    }
+
+    private ConceptFormula formula(String code, String expression, int order) {
+        return new ConceptFormula(code, expression, null, EFFECTIVE, null, order);
+    }
+
+    @Test
+    @DisplayName("Debe guardar una fórmula válida")
+    void shouldSaveValidFormula() {
+        givenSeedCatalog(formula("D002", "#calcularISR(#TOTAL_EARNINGS)", 210));
+        when(formulaRepository.findByConceptCode("D001")).thenReturn(Optional.empty());
+        when(formulaRepository.save(any(ConceptFormula.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        ConceptFormula saved = service.saveFormula(new ConceptFormulaRequestDTO(
+                "D001", "#calcularIMSS(#P001, #UMA)", "IMSS", EFFECTIVE, null, 200));
+
+        assertThat(saved.getFormulaExpression()).isEqualTo("#calcularIMSS(#P001, #UMA)");
+        verify(formulaRepository).save(saved);
+    }
+
+    @Test
+    @DisplayName("Debe rechazar fórmulas con dependencias circulares")
+    void shouldRejectCycles() {
+        givenSeedCatalog(formula("D001", "#P002 * 0.02", 200));
+        when(formulaRepository.findByConceptCode("P002")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.saveFormula(new ConceptFormulaRequestDTO(
+                "P002", "#D001 + #P001", null, EFFECTIVE, null, 20)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Dependencia circular");
+        verify(formulaRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Debe rechazar variables que ningún concepto, fórmula o indicador produce")
+    void shouldRejectMissingProducers() {
+        givenSeedCatalog();
+        when(formulaRepository.findByConceptCode("P002")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.saveFormula(new ConceptFormulaRequestDTO(
+                "P002", "#P001 * #FACTOR_X", null, EFFECTIVE, null, 20)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("FACTOR_X");
+        verify(formulaRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Debe rechazar fórmulas con sintaxis inválida")
+    void shouldRejectInvalidSyntax() {
+        givenSeedCatalog();
+        when(formulaRepository.findByConceptCode("P002")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> service.saveFormula(new ConceptFormulaRequestDTO(
+                "P002", "#P001 * * 2", null, EFFECTIVE, null, 20)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Fórmula inválida para P002");
+    }
+
+    @Test
+    @DisplayName("Debe invalidar en caché la expresión anterior al actualizar")
+    void shouldInvalidatePreviousExpression() {
+        ConceptFormula existing = formula("P002", "#P001 * 0.5", 20);
+        givenSeedCatalog(existing);
+        when(formulaRepository.findByConceptCode("P002")).thenReturn(Optional.of(existing));
+        when(formulaRepository.save(any(ConceptFormula.class))).thenAnswer(inv -> inv.getArgument(0));
+        formulaEngine.compile("#P001 * 0.5");
+
+        service.saveFormula(new ConceptFormulaRequestDTO("P002", "#P001 * 0.6", null, EFFECTIVE, null, 20));
+
+        assertThat(formulaEngine.getCompilationReport()).doesNotContainKey("#P001 * 0.5");
+    }
+}
@@ -0,0 +1,201 @@
+package mx.payroll.system.service;
+
+import mx.payroll.system.domain.model.ConceptFormula;
+import mx.payroll.system.domain.model.EconomicIndicator;
+import mx.payroll.system.domain.model.Employee;
+import mx.payroll.system.domain.model.EmployeeConceptValue;
+import mx.payroll.system.domain.model.PayrollPeriod;
+import mx.payroll.system.domain.repository.ConceptFormulaRepository;
+import mx.payroll.system.domain.repository.EconomicIndicatorRepository;
+import mx.payroll.system.domain.repository.EmployeeConceptValueRepository;
+import mx.payroll.system.engine.ExecutionPlan;
+import mx.payroll.system.engine.FormulaEngine;
+import mx.payroll.system.engine.PayrollEngine;
+import mx.payroll.system.engine.PayrollFunctionRegistry;
+import mx.payroll.system.engine.PayrollFunctions;
+import mx.payroll.system.engine.PayrollResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("PayrollService - Plan de ejecución por periodo")
+class PayrollServiceTest {
+
+    private static final LocalDate END = LocalDate.of(2024, 1, 31);
+
+    @Mock
+    private EmployeeConceptValueRepository specificRepo;
+
+    @Mock
+    private ConceptFormulaRepository globalRepo;
+
+    @Mock
+    private EconomicIndicatorRepository indicatorRepo;
+
+    @Mock
+    private FormulaEngine formulaEngine;
+
+    @Mock
+    private ConceptFormulaService conceptFormulaService;
+
+    private IndicatorSnapshotService indicatorSnapshots;
+    private PayrollService service;
+    private PayrollPeriod period;
+
+    @BeforeEach
+    void setUp() {
+        indicatorSnapshots = new IndicatorSnapshotService(indicatorRepo);
+        service = new PayrollService(specificRepo, globalRepo, indicatorSnapshots, new PayrollEngine(), formulaEngine,
+                conceptFormulaService);
+        period = new PayrollPeriod(LocalDate.of(2024, 1, 1), END, "OPEN", "2024-01");
+        lenient().when(conceptFormulaService.validateFormulas(anyList(), any())).thenAnswer(inv -> ExecutionPlan.of(List.of()));
+    }
+
+    private static Employee employee(int id) {
+        Employee employee = new Employee("EMP-" + id, "Empleado " + id, LocalDate.of(2020, 1, 1));
+        employee.setId(id);
+        return employee;
+    }
+
+    private static ConceptFormula formula(String code, String expression) {
+        return new ConceptFormula(code, expression, null, LocalDate.of(2024, 1, 1), null, 20);
+    }
+
+    @Test
+    @DisplayName("Debe reutilizar el plan mientras no cambien fórmulas ni indicadores")
+    void shouldReusePlanForSameFormulaSet() {
+        when(indicatorRepo.findAllEffectiveIndicators(END))
+                .thenReturn(List.of(new EconomicIndicator("UMA", new BigDecimal("108.57"), END)));
+
+        ExecutionPlan first = service.buildExecutionPlan(List.of(formula("P002", "#P001 * 2")), period);
+        ExecutionPlan second = service.buildExecutionPlan(List.of(formula("P002", "#P001 * 2")), period);
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.getPeriodLayer().has("UMA")).isTrue();
+        verify(conceptFormulaService, times(1)).validateFormulas(anyList(), any());
+    }
+
+    @Test
+    @DisplayName("Debe volver a consultar los indicadores al vencer el TTL")
+    void shouldRequeryIndicatorsAfterTtl() throws InterruptedException {
+        IndicatorSnapshotService expiring = new IndicatorSnapshotService(indicatorRepo, 1);
+        when(indicatorRepo.findAllEffectiveIndicators(END))
+                .thenReturn(List.of(new EconomicIndicator("UMA", new BigDecimal("108.57"), END)))
+                .thenReturn(List.of(new EconomicIndicator("UMA", new BigDecimal("113.14"), END)));
+
+        Map<String, BigDecimal> before = expiring.snapshotAsOf(END);
+        Thread.sleep(5);
+        Map<String, BigDecimal> after = expiring.snapshotAsOf(END);
+
+        assertThat(before).containsEntry("UMA", new BigDecimal("108.57"));
+        assertThat(after).containsEntry("UMA", new BigDecimal("113.14"));
+        verify(indicatorRepo, times(2)).findAllEffectiveIndicators(END);
+    }
+
+    @Test
+    @DisplayName("Debe cargar la tabla de ISR del periodo al armar el plan, no al calcular")
+    void shouldPreloadIsrTableWithPlan(@Mock TaxService taxService) {
+        PayrollPeriod isrPeriod = new PayrollPeriod(LocalDate.of(2033, 1, 1), LocalDate.of(2033, 1, 31), "OPEN", "2033-01");
+        TaxService.TaxBrackets table = new TaxService.TaxBrackets(2033, "MENSUAL",
+                new BigDecimal[0], new BigDecimal[0], new BigDecimal[0]);
+        when(taxService.bracketsFor(isrPeriod.getStartDate(), isrPeriod.getEndDate())).thenReturn(table);
+        when(taxService.calculateISR(new BigDecimal("10000.00"), table)).thenReturn(new BigDecimal("1000.00"));
+        PayrollFunctions.setTaxService(taxService);
+        try {
+            service.buildExecutionPlan(List.of(formula("P002", "#P001 * 2")), isrPeriod);
+            verify(taxService, times(1)).bracketsFor(isrPeriod.getStartDate(), isrPeriod.getEndDate());
+
+            BigDecimal isr = PayrollFunctions.calcularISR(new BigDecimal("10000.00"),
+                    PayrollFunctionRegistry.scopeFor(isrPeriod.getStartDate(), isrPeriod.getEndDate()));
+
+            assertThat(isr).isEqualByComparingTo("1000.00");
+            verify(taxService, times(1)).bracketsFor(any(LocalDate.class), any(LocalDate.class));
+        } finally {
+            PayrollFunctions.setTaxService(null);
+        }
+    }
+
+    @Test
+    @DisplayName("Debe consultar los indicadores una sola vez por fecha hasta que se invaliden")
+    void shouldQueryIndicatorsOncePerDate() {
+        when(indicatorRepo.findAllEffectiveIndicators(END))
+                .thenReturn(List.of(new EconomicIndicator("UMA", new BigDecimal("108.57"), END)));
+
+        indicatorSnapshots.snapshotAsOf(END);
+        Map<String, BigDecimal> snapshot = indicatorSnapshots.snapshotAsOf(END);
+        assertThat(snapshot).containsExactly(Map.entry("UMA", new BigDecimal("108.57")));
+        verify(indicatorRepo, times(1)).findAllEffectiveIndicators(END);
+
+        indicatorSnapshots.invalidate();
+        indicatorSnapshots.snapshotAsOf(END);
+        verify(indicatorRepo, times(2)).findAllEffectiveIndicators(END);
+    }
+
+    @Test
+    @DisplayName("Debe armar otro plan si cambia la versión de fórmulas o un indicador")
+    void shouldRebuildPlanWhenVersionChanges() {
+        when(indicatorRepo.findAllEffectiveIndicators(END))
+                .thenReturn(List.of(new EconomicIndicator("UMA", new BigDecimal("108.57"), END)))
+                .thenReturn(List.of(new EconomicIndicator("UMA", new BigDecimal("113.14"), END)));
+
+        ExecutionPlan first = service.buildExecutionPlan(List.of(formula("P002", "#P001 * 2")), period);
+        ExecutionPlan changedFormula = service.buildExecutionPlan(List.of(formula("P002", "#P001 * 3")), period);
+        indicatorSnapshots.invalidate();
+        ExecutionPlan changedIndicator = service.buildExecutionPlan(List.of(formula("P002", "#P001 * 2")), period);
+
+        assertThat(changedFormula).isNotSameAs(first);
+        assertThat(changedIndicator).isNotSameAs(first);
+        verify(conceptFormulaService, times(3)).validateFormulas(anyList(), any());
+    }
+
+    @Test
+    @DisplayName("La versión de fórmulas debe ser un resumen compacto que no depende del orden")
+    void shouldDigestFormulaSetVersion() {
+        ConceptFormula salary = formula("P001", "#SUELDO");
+        ConceptFormula bonus = formula("P002", "#P001 * 2");
+        ConceptFormula ended = new ConceptFormula("P002", "#P001 * 2", null, LocalDate.of(2024, 1, 1), END, 20);
+
+        long version = PayrollService.formulaSetVersion(List.of(salary, bonus));
+
+        assertThat(PayrollService.formulaSetVersion(List.of(bonus, salary))).isEqualTo(version);
+        assertThat(PayrollService.formulaSetVersion(List.of(salary, formula("P002", "#P001 * 3")))).isNotEqualTo(version);
+        assertThat(PayrollService.formulaSetVersion(List.of(salary, ended))).isNotEqualTo(version);
+    }
+
+    @Test
+    @DisplayName("Debe cargar los valores de todo el lote en una sola consulta")
+    void shouldPrefetchEmployeeValuesOncePerChunk() {
+        List<Employee> employees = List.of(employee(1), employee(2), employee(3));
+        when(specificRepo.findActiveByEmployeeIdsAndDate(List.of(1, 2, 3), END)).thenReturn(List.of(
+                new EmployeeConceptValue(1, "P001", new BigDecimal("1000.00"), LocalDate.of(2023, 1, 1), null),
+                new EmployeeConceptValue(2, "P001", new BigDecimal("2000.00"), LocalDate.of(2023, 1, 1), null),
+                new EmployeeConceptValue(1, "D005", new BigDecimal("100.00"), LocalDate.of(2023, 1, 1), null)));
+
+        List<PayrollResult> results = service.calculatePayrollForChunk(employees, period, ExecutionPlan.of(List.of())).results();
+
+        assertThat(results).extracting(PayrollResult::getNetPay)
+                .containsExactly(new BigDecimal("900.00"), new BigDecimal("2000.00"), BigDecimal.ZERO);
+        verify(specificRepo, times(1)).findActiveByEmployeeIdsAndDate(anyList(), eq(END));
+        verify(specificRepo, never()).findByEmployeeIdAndEffectiveDateBeforeAndEndDateAfterOrEndDateIsNull(anyInt(), any(), any());
+    }
+}
@@ -6,17 +6,18 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
-import java.util.Optional;
+import java.time.LocalDate;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -26,7 +27,6 @@ class TaxServiceTest {
     @Mock
     private TaxTableRepository taxTableRepository;
 
-    @InjectMocks
     private TaxService taxService;
 
     // Tramo fiscal de ejemplo (Basado en tabla ISR 2024)
@@ -35,6 +35,8 @@ class TaxServiceTest {
 
     @BeforeEach
     void setUp() {
+        taxService = new TaxService(taxTableRepository);
+
         // Tramo: Límite Inferior = $12,935.83, Cuota Fija = $1,182.88, % Excedente = 17.92%
         mockBracket = new TaxTable();
         mockBracket.setId(5L);
@@ -51,8 +53,8 @@ class TaxServiceTest {
         // Given
         BigDecimal baseGravable = new BigDecimal("15000.00");
 
-        when(taxTableRepository.findApplicableBracket(2024, "MENSUAL", baseGravable))
-                .thenReturn(Optional.of(mockBracket));
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL"))
+                .thenReturn(List.of(mockBracket));
 
         // When
         BigDecimal isr = taxService.calculateISR(baseGravable, 2024, "MENSUAL");
@@ -73,8 +75,8 @@ class TaxServiceTest {
         // Given
         BigDecimal baseGravable = new BigDecimal("12935.83");
 
-        when(taxTableRepository.findApplicableBracket(2024, "MENSUAL", baseGravable))
-                .thenReturn(Optional.of(mockBracket));
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL"))
+                .thenReturn(List.of(mockBracket));
 
         // When
         BigDecimal isr = taxService.calculateISR(baseGravable, 2024, "MENSUAL");
@@ -123,8 +125,8 @@ class TaxServiceTest {
         // Given
         BigDecimal baseGravable = new BigDecimal("50000.00");
 
-        when(taxTableRepository.findApplicableBracket(anyInt(), anyString(), any(BigDecimal.class)))
-                .thenReturn(Optional.empty());
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(anyInt(), anyString()))
+                .thenReturn(List.of());
 
         // When
         BigDecimal isr = taxService.calculateISR(baseGravable, 2024, "MENSUAL");
@@ -140,8 +142,8 @@ class TaxServiceTest {
         BigDecimal baseGravable = new BigDecimal("15000.00");
         int currentYear = java.time.LocalDate.now().getYear();
 
-        when(taxTableRepository.findApplicableBracket(currentYear, "MENSUAL", baseGravable))
-                .thenReturn(Optional.of(mockBracket));
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(currentYear, "MENSUAL"))
+                .thenReturn(List.of(mockBracket));
 
         // When
         BigDecimal isr = taxService.calculateISR(baseGravable);
@@ -161,8 +163,8 @@ class TaxServiceTest {
         quincenalBracket.setFixedFee(new BigDecimal("591.44"));
         quincenalBracket.setPercentExcess(new BigDecimal("0.1792"));
 
-        when(taxTableRepository.findApplicableBracket(2024, "QUINCENAL", baseGravable))
-                .thenReturn(Optional.of(quincenalBracket));
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "QUINCENAL"))
+                .thenReturn(List.of(quincenalBracket));
 
         // When
         BigDecimal isr = taxService.calculateISR(baseGravable, 2024, "QUINCENAL");
@@ -182,8 +184,8 @@ class TaxServiceTest {
         // Given
         BigDecimal baseGravable = new BigDecimal("13000.50");
 
-        when(taxTableRepository.findApplicableBracket(2024, "MENSUAL", baseGravable))
-                .thenReturn(Optional.of(mockBracket));
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL"))
+                .thenReturn(List.of(mockBracket));
 
         // When
         BigDecimal isr = taxService.calculateISR(baseGravable, 2024, "MENSUAL");
@@ -192,4 +194,76 @@ class TaxServiceTest {
         // Verificar que tiene exactamente 2 decimales
         assertThat(isr.scale()).isEqualTo(2);
     }
+
+    @Test
+    @DisplayName("Debe elegir el tramo por búsqueda binaria y cargar la tabla una sola vez")
+    void testCalculateISR_BracketIndexLoadedOnce() {
+        // Given: tabla mensual con tres tramos
+        TaxTable first = new TaxTable(2024, "MENSUAL", new BigDecimal("0.01"), new BigDecimal("0.00"), new BigDecimal("0.0192"));
+        TaxTable second = new TaxTable(2024, "MENSUAL", new BigDecimal("746.05"), new BigDecimal("14.32"), new BigDecimal("0.0640"));
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL"))
+                .thenReturn(List.of(first, second, mockBracket));
+
+        // When / Then
+        // $500.00: (500.00 - 0.01) × 0.0192 = 9.60
+        assertThat(taxService.calculateISR(new BigDecimal("500.00"), 2024, "MENSUAL")).isEqualByComparingTo("9.60");
+        // $746.05 cae exactamente en el límite del segundo tramo
+        assertThat(taxService.calculateISR(new BigDecimal("746.05"), 2024, "MENSUAL")).isEqualByComparingTo("14.32");
+        assertThat(taxService.calculateISR(new BigDecimal("15000.00"), 2024, "MENSUAL")).isEqualByComparingTo("1552.78");
+        // Debajo del primer tramo no hay ISR
+        assertThat(taxService.calculateISR(new BigDecimal("0.001"), 2024, "MENSUAL")).isEqualByComparingTo(BigDecimal.ZERO);
+        verify(taxTableRepository, times(1)).findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL");
+
+        // Después de recargar se vuelve a leer la tabla
+        taxService.reloadTaxTables();
+        taxService.calculateISR(new BigDecimal("15000.00"), 2024, "MENSUAL");
+        verify(taxTableRepository, times(2)).findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL");
+    }
+
+    @Test
+    @DisplayName("Debe recargar las tablas al vencer el TTL aunque el cambio se haya hecho en otra instancia")
+    void testRefreshIfStale_ReloadsAfterTtl() throws InterruptedException {
+        // Given
+        TaxService expiring = new TaxService(taxTableRepository, 1);
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL"))
+                .thenReturn(List.of(mockBracket));
+        expiring.bracketsFor(2024, "MENSUAL");
+        long version = expiring.tablesVersion();
+
+        // When
+        Thread.sleep(5);
+        expiring.refreshIfStale();
+        expiring.bracketsFor(2024, "MENSUAL");
+
+        // Then: sin TTL (constructor por defecto) no se recarga
+        taxService.bracketsFor(2024, "MENSUAL");
+        taxService.refreshIfStale();
+        taxService.bracketsFor(2024, "MENSUAL");
+        assertThat(expiring.tablesVersion()).isGreaterThan(version);
+        verify(taxTableRepository, times(3)).findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2024, "MENSUAL");
+    }
+
+    @Test
+    @DisplayName("Debe elegir la tabla por año fiscal y frecuencia del periodo")
+    void testBracketsFor_PeriodDates() {
+        // Given
+        when(taxTableRepository.findByFiscalYearAndTableTypeOrderByLowerLimitAscIdAsc(2023, "QUINCENAL"))
+                .thenReturn(List.of(mockBracket));
+
+        // When
+        TaxService.TaxBrackets table = taxService.bracketsFor(
+                LocalDate.of(2023, 12, 16), LocalDate.of(2023, 12, 31));
+
+        // Then
+        assertThat(table.fiscalYear()).isEqualTo(2023);
+        assertThat(table.tableType()).isEqualTo("QUINCENAL");
+        assertThat(taxService.calculateISR(new BigDecimal("15000.00"), table)).isEqualByComparingTo("1552.78");
+        assertThat(TaxService.tableTypeFor(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 7)))
+                .isEqualTo("SEMANAL");
+        assertThat(TaxService.tableTypeFor(LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 29)))
+                .isEqualTo("MENSUAL");
+        assertThat(TaxService.tableTypeFor(LocalDate.of(2024, 1, 1), LocalDate.of(2024, 12, 31)))
+                .isEqualTo("ANUAL");
+        assertThat(TaxService.tableTypeFor(null, LocalDate.of(2024, 1, 31))).isEqualTo("MENSUAL");
+    }
 }